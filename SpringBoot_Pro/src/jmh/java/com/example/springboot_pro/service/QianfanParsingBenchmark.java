@@ -0,0 +1,60 @@
+package com.example.springboot_pro.service;
+
+import com.example.springboot_pro.BenchmarkSupport;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 千帆返回内容解析：提示词提取与分镜头脚本解析
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QianfanParsingBenchmark {
+
+    private static final String PROMPT_CONTENT = """
+            文生图提示词：[画面描述] 黄昏时分的海边小镇，金色阳光洒在石板路上，远处灯塔亮起微光，电影级质感
+            图生视频提示词："镜头从灯塔缓慢推近，海浪轻拍礁石，行人的影子被拉长，光线逐渐转暗"
+            """;
+
+    private static final String STORYBOARD_CONTENT = """
+            场景1：清晨，主角在海边小镇醒来，窗外传来海鸥的叫声，阳光透过窗帘洒在木地板上。
+            场景2：主角沿着石板路走向港口，与早起的渔民打招呼，镜头跟随人物移动。
+            场景3：港口的集市热闹起来，摊贩叫卖新鲜的鱼获，主角在人群中寻找一位老朋友。
+            场景4：午后突然下起雷阵雨，主角躲进一家旧书店，在书架深处发现一封泛黄的信。
+            场景5：傍晚雨停，主角登上灯塔，展开信件，海面被夕阳染成橙红色。
+            场景6：夜幕降临，灯塔亮起，主角望向远方的海平线，镜头缓缓拉远定格。
+            """;
+
+    // 不带"场景N："前缀时走逐行兜底解析
+    private static final String FREEFORM_CONTENT = STORYBOARD_CONTENT.replaceAll("场景\\d+：", "");
+
+    private QianfanService qianfanService;
+
+    @Setup
+    public void setup() {
+        BenchmarkSupport.quietLogging();
+        qianfanService = new QianfanService();
+    }
+
+    @Benchmark
+    public Map<String, String> extractPromptsFromContent() {
+        return qianfanService.extractPromptsFromContent(PROMPT_CONTENT);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> parseStoryboardContent() {
+        return qianfanService.parseStoryboardContent(STORYBOARD_CONTENT);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> parseStoryboardContentFallback() {
+        return qianfanService.parseStoryboardContent(FREEFORM_CONTENT);
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.springboot_pro.service;
+
+import com.example.springboot_pro.BenchmarkSupport;
+import ch.qos.logback.classic.Level;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 视频文件头校验（拼接前对每个分镜视频执行一次）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VideoFileSniffBenchmark {
+
+    private VideoConcatService videoConcatService;
+    private Path mp4File;
+    private Path moovlessFile;
+
+    @Setup
+    public void setup() throws IOException {
+        BenchmarkSupport.quietLogging();
+        // 拒绝路径每次都会记录WARN，基准测试中关闭
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(VideoConcatService.class)).setLevel(Level.ERROR);
+        videoConcatService = new VideoConcatService();
+
+        // ftyp + moov（含一条视频轨道）+ 1MB mdat，模拟一个小的faststart MP4文件
+        byte[] ftyp = box("ftyp", ascii("isom"), new byte[4]);
+        byte[] mdat = box("mdat", new byte[1024 * 1024]);
+        mp4File = Files.createTempFile("bench", ".mp4");
+        Files.write(mp4File, concat(ftyp, box("moov", mvhd(), videoTrak()), mdat));
+
+        // 缺少 moov 的文件（例如下载不完整），校验应拒绝
+        moovlessFile = Files.createTempFile("bench-moovless", ".mp4");
+        Files.write(moovlessFile, concat(ftyp, mdat));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(mp4File);
+        Files.deleteIfExists(moovlessFile);
+    }
+
+    @Benchmark
+    public boolean isValidVideoFile() {
+        return videoConcatService.isValidVideoFile(mp4File);
+    }
+
+    @Benchmark
+    public boolean rejectFileWithoutMoov() {
+        return videoConcatService.isValidVideoFile(moovlessFile);
+    }
+
+    private static byte[] mvhd() {
+        ByteBuffer body = ByteBuffer.allocate(100);
+        body.putInt(0).putInt(0).putInt(0).putInt(1000).putInt(5000);
+        return box("mvhd", body.array());
+    }
+
+    private static byte[] videoTrak() {
+        ByteBuffer tkhd = ByteBuffer.allocate(84);
+        tkhd.putInt(76, 1280 << 16).putInt(80, 720 << 16);
+
+        ByteBuffer mdhd = ByteBuffer.allocate(24);
+        mdhd.putInt(12, 1000).putInt(16, 5000);
+
+        ByteBuffer hdlr = ByteBuffer.allocate(24);
+        hdlr.position(8);
+        hdlr.put(ascii("vide"));
+
+        ByteBuffer entry = ByteBuffer.allocate(86);
+        entry.putInt(86).put(ascii("avc1"));
+        entry.putShort(32, (short) 1280).putShort(34, (short) 720);
+        ByteBuffer stsd = ByteBuffer.allocate(8 + 86);
+        stsd.putInt(0).putInt(1).put(entry.array());
+
+        ByteBuffer stts = ByteBuffer.allocate(16);
+        stts.putInt(0).putInt(1).putInt(125).putInt(40);
+
+        byte[] stbl = box("stbl", box("stsd", stsd.array()), box("stts", stts.array()));
+        return box("trak",
+                box("tkhd", tkhd.array()),
+                box("mdia", box("mdhd", mdhd.array()), box("hdlr", hdlr.array()), box("minf", stbl)));
+    }
+
+    private static byte[] box(String type, byte[]... children) {
+        byte[] body = concat(children);
+        ByteBuffer buffer = ByteBuffer.allocate(8 + body.length);
+        buffer.putInt(8 + body.length).put(ascii(type)).put(body);
+        return buffer.array();
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.writeBytes(part);
+        }
+        return out.toByteArray();
+    }
+}
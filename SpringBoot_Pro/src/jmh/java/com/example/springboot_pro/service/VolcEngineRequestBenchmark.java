@@ -0,0 +1,64 @@
+package com.example.springboot_pro.service;
+
+import com.example.springboot_pro.BenchmarkSupport;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 山火API请求签名各环节：查询参数编码、请求体哈希、完整签名头计算（不发起网络请求）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VolcEngineRequestBenchmark {
+
+    private VolcEngineVideoService videoService;
+    private byte[] queryBody;
+    private String query;
+    private Date date;
+
+    @Setup
+    public void setup() {
+        BenchmarkSupport.quietLogging();
+        videoService = new VolcEngineVideoService();
+        BenchmarkSupport.setField(videoService, "accessKeyId", "AKLTbenchmarkaccesskey");
+        BenchmarkSupport.setField(videoService, "secretAccessKey", "WkRjM01EZGtaakZoTVRJek5EVTJOemc1TUdGaVkyUmxaZz09");
+        BenchmarkSupport.setField(videoService, "endpoint", "visual.volcengineapi.com");
+        BenchmarkSupport.setField(videoService, "region", "cn-north-1");
+        BenchmarkSupport.setField(videoService, "service", "cv");
+        BenchmarkSupport.setField(videoService, "volcEngineSigner", new VolcEngineSigner());
+
+        // 与轮询时的查询请求体大小相当
+        queryBody = "{\"req_key\":\"jimeng_vgfm_i2v_l20\",\"task_id\":\"7392616336519610409\"}".getBytes(StandardCharsets.UTF_8);
+        query = VolcEngineVideoService.canonicalQueryString(new HashMap<>(), "CVSync2AsyncGetResult", "2022-08-31");
+        date = new Date();
+    }
+
+    @Benchmark
+    public String signStringEncoder() {
+        return VolcEngineVideoService.signStringEncoder("CVSync2AsyncGetResult 图生视频/2022-08-31");
+    }
+
+    @Benchmark
+    public String canonicalQueryString() {
+        return VolcEngineVideoService.canonicalQueryString(new HashMap<>(), "CVSync2AsyncGetResult", "2022-08-31");
+    }
+
+    @Benchmark
+    public String hashSHA256() throws Exception {
+        return VolcEngineVideoService.hashSHA256(queryBody);
+    }
+
+    @Benchmark
+    public Map<String, String> signRequestHeaders() throws Exception {
+        return videoService.signRequestHeaders("POST", "/", query, queryBody, date);
+    }
+}
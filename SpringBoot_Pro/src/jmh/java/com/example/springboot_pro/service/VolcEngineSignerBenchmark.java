@@ -0,0 +1,60 @@
+package com.example.springboot_pro.service;
+
+import org.apache.commons.codec.binary.Hex;
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单次请求的签名开销：旧实现（每次派生密钥 + 每次 Mac.getInstance）对比 VolcEngineSigner
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VolcEngineSignerBenchmark {
+
+    private static final String SECRET_KEY = "WkRjM01EZGtaakZoTVRJek5EVTJOemc1TUdGaVkyUmxaZz09";
+    private static final String SHORT_DATE = "20250101";
+    private static final String REGION = "cn-north-1";
+    private static final String SERVICE = "cv";
+    private static final String STRING_TO_SIGN = "HMAC-SHA256\n20250101T080000Z\n20250101/cn-north-1/cv/request\n"
+            + "5f2b1a7c6e0d9a4b3c8e7f6a5b4c3d2e1f0a9b8c7d6e5f4a3b2c1d0e9f8a7b6c";
+
+    private VolcEngineSigner signer;
+
+    @Setup
+    public void setup() {
+        signer = new VolcEngineSigner();
+    }
+
+    @Benchmark
+    public String legacySign() throws Exception {
+        byte[] kDate = legacyHmac(SECRET_KEY.getBytes(), SHORT_DATE);
+        byte[] kRegion = legacyHmac(kDate, REGION);
+        byte[] kService = legacyHmac(kRegion, SERVICE);
+        byte[] signKey = legacyHmac(kService, "request");
+        return Hex.encodeHexString(legacyHmac(signKey, STRING_TO_SIGN));
+    }
+
+    @Benchmark
+    public String cachedSign() {
+        return signer.sign(SECRET_KEY, SHORT_DATE, REGION, SERVICE, STRING_TO_SIGN);
+    }
+
+    @Benchmark
+    public byte[] uncachedKeyDerivation() {
+        return VolcEngineSigner.deriveSigningKey(SECRET_KEY, SHORT_DATE, REGION, SERVICE);
+    }
+
+    // 原 VolcEngineVideoService.hmacSHA256 的实现
+    private static byte[] legacyHmac(byte[] key, String content) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        return mac.doFinal(content.getBytes());
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.springboot_pro.util;
+
+import com.example.springboot_pro.BenchmarkSupport;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.security.core.userdetails.User;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JWT校验（每个携带token的请求都会执行）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtUtilBenchmark {
+
+    private JwtUtil jwtUtil;
+    private String token;
+
+    @Setup
+    public void setup() {
+        BenchmarkSupport.quietLogging();
+        jwtUtil = new JwtUtil();
+        // HS256 至少需要256位密钥
+        BenchmarkSupport.setField(jwtUtil, "secret", "benchmark-secret-key-benchmark-secret-key-0123456789");
+        BenchmarkSupport.setField(jwtUtil, "expiration", 86400000L);
+        token = jwtUtil.generateToken(User.withUsername("benchmark").password("x").roles("USER").build());
+    }
+
+    @Benchmark
+    public Boolean validateToken() {
+        return jwtUtil.validateToken(token);
+    }
+
+    @Benchmark
+    public String getUsernameFromToken() {
+        return jwtUtil.getUsernameFromToken(token);
+    }
+}
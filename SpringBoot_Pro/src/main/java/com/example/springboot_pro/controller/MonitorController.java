@@ -0,0 +1,112 @@
+package com.example.springboot_pro.controller;
+
+import com.example.springboot_pro.service.HttpClientService;
+import com.example.springboot_pro.service.MediaCacheService;
+import com.example.springboot_pro.service.MediaDownloadService;
+import com.example.springboot_pro.service.MediaMetadataService;
+import com.example.springboot_pro.service.MediaProcessSupervisor;
+import com.example.springboot_pro.service.SceneSegmentService;
+import com.example.springboot_pro.service.StorageJanitorService;
+import com.example.springboot_pro.service.VideoSubmissionScheduler;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+/**
+ * 运行指标查询
+ */
+@RestController
+@RequestMapping("/api/monitor")
+@CrossOrigin(origins = "*")
+public class MonitorController {
+
+    @Autowired
+    private MediaCacheService mediaCacheService;
+
+    @Autowired
+    private MediaDownloadService mediaDownloadService;
+
+    @Autowired
+    private HttpClientService httpClientService;
+
+    @Autowired
+    private MediaMetadataService mediaMetadataService;
+
+    @Autowired
+    private SceneSegmentService sceneSegmentService;
+
+    @Autowired
+    private MediaProcessSupervisor mediaProcessSupervisor;
+
+    @Autowired
+    private StorageJanitorService storageJanitorService;
+
+    @Autowired
+    private VideoSubmissionScheduler videoSubmissionScheduler;
+
+    /**
+     * 媒体缓存命中率与容量
+     */
+    @GetMapping("/media-cache")
+    public ResponseEntity<Map<String, Object>> getMediaCacheStats() {
+        return ResponseEntity.ok(mediaCacheService.getStats());
+    }
+
+    /**
+     * 媒体下载的续传、并行区间、重试与校验失败次数
+     */
+    @GetMapping("/media-downloads")
+    public ResponseEntity<Map<String, Object>> getMediaDownloadStats() {
+        return ResponseEntity.ok(mediaDownloadService.getStats());
+    }
+
+    /**
+     * 共享HTTP客户端的请求数、并发与排队情况
+     */
+    @GetMapping("/http-client")
+    public ResponseEntity<Map<String, Object>> getHttpClientStats() {
+        return ResponseEntity.ok(httpClientService.getStats());
+    }
+
+    /**
+     * 成片元数据缓存命中情况
+     */
+    @GetMapping("/media-metadata")
+    public ResponseEntity<Map<String, Object>> getMediaMetadataStats() {
+        return ResponseEntity.ok(mediaMetadataService.getStats());
+    }
+
+    /**
+     * 分镜片段复用率
+     */
+    @GetMapping("/scene-segments")
+    public ResponseEntity<Map<String, Object>> getSceneSegmentStats() {
+        return ResponseEntity.ok(sceneSegmentService.getStats());
+    }
+
+    /**
+     * FFmpeg/ffprobe 进程并发、排队与运行中进程的CPU耗时
+     */
+    @GetMapping("/media-processes")
+    public ResponseEntity<Map<String, Object>> getMediaProcessStats() {
+        return ResponseEntity.ok(mediaProcessSupervisor.getStats());
+    }
+
+    /**
+     * 各媒体目录占用、磁盘水位与清理情况
+     */
+    @GetMapping("/storage")
+    public ResponseEntity<Map<String, Object>> getStorageStats() {
+        return ResponseEntity.ok(storageJanitorService.getStats());
+    }
+
+    /**
+     * 图生视频提交队列长度、在途任务数、当前并发上限与限流次数
+     */
+    @GetMapping("/video-submissions")
+    public ResponseEntity<Map<String, Object>> getVideoSubmissionStats() {
+        return ResponseEntity.ok(videoSubmissionScheduler.getStats());
+    }
+}
@@ -1,11 +1,26 @@
 package com.example.springboot_pro.controller;
 
+import com.example.springboot_pro.domain.ConcatJob;
+import com.example.springboot_pro.domain.Storyboard;
 import com.example.springboot_pro.domain.Video;
 import com.example.springboot_pro.domain.VideoTask;
+import com.example.springboot_pro.dto.VideoConcatRequest;
+import com.example.springboot_pro.service.VideoConcatJobService;
+import com.example.springboot_pro.service.HlsPackagingService;
+import com.example.springboot_pro.service.MediaProcessSupervisor;
+import com.example.springboot_pro.service.MediaStreamingService;
+import com.example.springboot_pro.service.VideoConcatService;
 import com.example.springboot_pro.service.VideoService;
-import com.example.springboot_pro.service.VolcEngineVideoService;
+import com.example.springboot_pro.service.VideoTaskEventService;
+import com.example.springboot_pro.util.SecurityUtil;
+import com.example.springboot_pro.service.VideoSubmissionScheduler;
+import com.example.springboot_pro.service.VideoTaskGroupService;
 import com.example.springboot_pro.service.StoryboardService;
+import com.example.springboot_pro.service.ThumbnailService;
+import com.example.springboot_pro.service.StorageJanitorService;
 import com.example.springboot_pro.dao.VideoTaskRepository;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -14,20 +29,17 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.core.io.FileSystemResource;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.io.*;
-import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api/video")
@@ -39,742 +51,207 @@ public class VideoController {
     @Autowired
     private VideoService videoService;
     
-    @Autowired
-    private VolcEngineVideoService volcEngineVideoService;
-    
     @Autowired
     private StoryboardService storyboardService;
     
     @Autowired
     private VideoTaskRepository videoTaskRepository;
-
-    private static final String TEMP_DIR = System.getProperty("java.io.tmpdir");
-    private static final String OUTPUT_DIR = TEMP_DIR + File.separator + "video_output";
     
-    // 持久化视频存储目录
-    private static final String PERSISTENT_VIDEO_DIR = "D:" + File.separator + "video_works";
-    private static final String VIDEO_ACCESS_URL_BASE = "http://localhost:8080/api/video/works/";
-
-    /**
-     * 视频拼接请求参数
-     */
-    public static class VideoConcatRequest {
-        private List<String> videoUrls;
-        private String outputName;
-        private String backgroundMusic; // 背景音乐文件名
-
-        public List<String> getVideoUrls() {
-            return videoUrls;
-        }
+    @Autowired
+    private VideoConcatJobService videoConcatJobService;
 
-        public void setVideoUrls(List<String> videoUrls) {
-            this.videoUrls = videoUrls;
-        }
+    @Autowired
+    private VideoTaskEventService videoTaskEventService;
 
-        public String getOutputName() {
-            return outputName;
-        }
+    @Autowired
+    private MediaStreamingService mediaStreamingService;
+    
+    @Autowired
+    private MediaProcessSupervisor mediaProcessSupervisor;
+    
+    @Autowired
+    private ThumbnailService thumbnailService;
 
-        public void setOutputName(String outputName) {
-            this.outputName = outputName;
-        }
+    @Autowired
+    private StorageJanitorService storageJanitorService;
 
-        public String getBackgroundMusic() {
-            return backgroundMusic;
-        }
+    @Autowired
+    private VideoSubmissionScheduler videoSubmissionScheduler;
 
-        public void setBackgroundMusic(String backgroundMusic) {
-            this.backgroundMusic = backgroundMusic;
-        }
-    }
+    @Autowired
+    private VideoTaskGroupService videoTaskGroupService;
 
     /**
-     * 拼接视频
+     * 提交视频拼接任务，立即返回任务ID，拼接在后台线程池中执行
      */
     @PostMapping("/concat")
     public ResponseEntity<?> concatVideos(@RequestBody VideoConcatRequest request) {
         
-        System.out.println("==================== 视频拼接请求开始 ====================");
-        
         if (request.getVideoUrls() == null || request.getVideoUrls().isEmpty()) {
-            System.err.println("错误: 视频URL列表为空");
+            logger.warn("视频拼接请求错误: 视频URL列表为空");
             return ResponseEntity.badRequest().body("视频URL列表不能为空");
         }
         
-        System.out.println("收到视频拼接请求: " + request.getVideoUrls().size() + " 个视频");
-        
         // 验证视频URL
         for (int i = 0; i < request.getVideoUrls().size(); i++) {
             String url = request.getVideoUrls().get(i);
             if (url == null || url.trim().isEmpty()) {
-                System.err.println("错误: 第 " + (i + 1) + " 个视频URL为空");
+                logger.warn("视频拼接请求错误: 第 {} 个视频URL为空", i + 1);
                 return ResponseEntity.badRequest().body("第 " + (i + 1) + " 个视频URL为空");
             }
-            System.out.println("视频 " + (i + 1) + ": " + url);
         }
 
-        String sessionId = UUID.randomUUID().toString();
-        Path tempDir = Paths.get(TEMP_DIR, "video_concat_" + sessionId);
-        Path outputDir = Paths.get(OUTPUT_DIR);
+        // 磁盘空间不足时直接拒绝，避免渲染到一半失败
+        if (!storageJanitorService.hasCapacity()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(storageJanitorService.getRetryAfterSeconds()))
+                .body(Map.of(
+                    "success", false,
+                    "message", "服务器存储空间不足，请稍后重试"
+                ));
+        }
 
         try {
-            // 创建临时目录
-            Files.createDirectories(tempDir);
-            Files.createDirectories(outputDir);
-
-            // 下载视频文件
-            List<String> localVideoPaths = new ArrayList<>();
-            for (int i = 0; i < request.getVideoUrls().size(); i++) {
-                String videoUrl = request.getVideoUrls().get(i);
-                String localPath = downloadVideo(videoUrl, tempDir, i);
-                if (localPath != null) {
-                    localVideoPaths.add(localPath);
-                }
-            }
-
-            if (localVideoPaths.isEmpty()) {
-                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body("没有成功下载到任何视频文件");
-            }
-
-            System.out.println("成功下载 " + localVideoPaths.size() + " 个视频文件");
-
-            // 生成拼接列表文件
-            String concatListPath = createConcatList(localVideoPaths, tempDir);
-
-            // 执行FFmpeg拼接（先拼接视频，不处理音频）
-            String tempVideoName = "temp_concat_" + sessionId + ".mp4";
-            Path tempVideoPath = outputDir.resolve(tempVideoName);
-            
-            // 第一步：仅拼接视频
-            boolean success = executeFFmpegConcat(concatListPath, tempVideoPath.toString());
+            ConcatJob job = videoConcatJobService.submit(request, SecurityUtil.getCurrentUserId());
             
-            if (!success) {
-                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body("视频拼接失败");
-            }
-            
-            // 第二步：如果有背景音乐，添加音乐
-            String outputFileName = request.getOutputName() != null ? 
-                request.getOutputName() : ("concat_video_" + sessionId + ".mp4");
-            Path outputPath = outputDir.resolve(outputFileName);
-            
-            if (request.getBackgroundMusic() != null && !request.getBackgroundMusic().trim().isEmpty()) {
-                success = addMusicToVideo(tempVideoPath.toString(), request.getBackgroundMusic(), outputPath.toString());
-                // 删除临时视频文件
-                try {
-                    Files.deleteIfExists(tempVideoPath);
-                } catch (IOException e) {
-                    System.err.println("删除临时视频文件失败: " + e.getMessage());
-                }
-            } else {
-                // 没有音乐，直接重命名临时文件
-                try {
-                    Files.move(tempVideoPath, outputPath, StandardCopyOption.REPLACE_EXISTING);
-                } catch (IOException e) {
-                    System.err.println("重命名视频文件失败: " + e.getMessage());
-                    success = false;
-                }
-            }
-
-            if (!success) {
-                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body("视频拼接失败");
-            }
-
-            // 检查输出文件是否存在
-            if (!Files.exists(outputPath)) {
-                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body("输出文件不存在");
-            }
-
-            // 创建持久化存储目录
-            Path persistentDir = Paths.get(PERSISTENT_VIDEO_DIR);
-            Files.createDirectories(persistentDir);
-            
-            // 生成唯一的文件名
-            String timestamp = String.valueOf(System.currentTimeMillis());
-            String persistentFileName = timestamp + "_" + outputFileName;
-            Path persistentPath = persistentDir.resolve(persistentFileName);
-            
-            // 复制文件到持久化目录
-            Files.copy(outputPath, persistentPath, StandardCopyOption.REPLACE_EXISTING);
-            System.out.println("视频已保存到持久化目录: " + persistentPath.toString());
-            
-            // 生成访问URL
-            String accessUrl = VIDEO_ACCESS_URL_BASE + persistentFileName;
-            
-            // 返回包含访问URL的JSON响应，而不是直接返回文件
             Map<String, Object> result = new HashMap<>();
             result.put("success", true);
-            result.put("message", "视频拼接成功");
-            result.put("videoUrl", accessUrl);
-            result.put("fileName", persistentFileName);
-            result.put("fileSize", Files.size(persistentPath));
+            result.put("message", "视频拼接任务已提交");
+            result.put("jobId", job.getJobId());
+            result.put("status", job.getStatus());
+            result.put("statusUrl", "/api/video/concat/" + job.getJobId());
+            result.put("eventsUrl", "/api/video/concat/" + job.getJobId() + "/events");
             
-            HttpHeaders headers = new HttpHeaders();
-            headers.add(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE);
-
-            return ResponseEntity.ok()
-                .headers(headers)
-                .body(result);
-
-        } catch (Exception e) {
-            e.printStackTrace();
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                .body("视频拼接过程中发生错误: " + e.getMessage());
-        } finally {
-            // 清理临时文件
-            System.out.println("开始清理临时文件...");
-            cleanupTempFiles(tempDir);
-            System.out.println("==================== 视频拼接请求结束 ====================");
-        }
-    }
-
-    /**
-     * 下载视频文件或处理本地文件
-     */
-    private String downloadVideo(String videoUrl, Path tempDir, int index) {
-        try {
-            System.out.println("正在处理视频 " + (index + 1) + ": " + videoUrl);
-            
-            // 检查是否为本地视频API
-            if (videoUrl.contains("/api/video/local/")) {
-                // 提取文件名
-                String filename = videoUrl.substring(videoUrl.lastIndexOf("/") + 1);
-                
-                // 本地视频文件路径映射（与getLocalVideo方法保持一致）
-                Map<String, String> videoFiles = new HashMap<>();
-                videoFiles.put("scene1-1", "D:\\courses\\场景设计\\杭州的未来\\镜头1.1.mp4");
-                videoFiles.put("scene1-2", "D:\\courses\\场景设计\\杭州的未来\\镜头1.2.mp4");
-                videoFiles.put("scene1-transition", "D:\\courses\\场景设计\\杭州的未来\\镜头1转换.mp4");
-                videoFiles.put("scene2-1", "D:\\courses\\场景设计\\杭州的未来\\镜头2.1.mp4");
-                videoFiles.put("scene6-1", "D:\\courses\\场景设计\\杭州的未来\\镜头6 (1).mp4");
-                videoFiles.put("scene6-2", "D:\\courses\\场景设计\\杭州的未来\\镜头6 (2).mp4");
-                videoFiles.put("scene7-1", "D:\\courses\\场景设计\\杭州的未来\\镜头7 (1).mp4");
-                videoFiles.put("scene7-2", "D:\\courses\\场景设计\\杭州的未来\\镜头7 (2).mp4");
-                videoFiles.put("scene7-3", "D:\\courses\\场景设计\\杭州的未来\\镜头7 (3).mp4");
-                
-                String localPath = videoFiles.get(filename);
-                if (localPath != null) {
-                    Path originalFile = Paths.get(localPath);
-                    
-                    if (Files.exists(originalFile)) {
-                        System.out.println("找到本地视频文件: " + originalFile.toString());
-                        
-                        // 验证是否为有效的视频文件
-                        if (isValidVideoFile(originalFile)) {
-                            System.out.println("本地视频文件验证成功: " + originalFile.toString());
-                            return originalFile.toString();
-                        } else {
-                            System.err.println("本地文件不是有效的视频文件: " + localPath);
-                            return null;
-                        }
-                    } else {
-                        System.err.println("本地视频文件不存在: " + localPath);
-                        return null;
-                    }
-                } else {
-                    System.err.println("未找到对应的本地视频文件: " + filename);
-                    return null;
-                }
-            }
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(result);
             
-            // 检查是否为直接的本地文件路径
-            if (videoUrl.startsWith("file://") || (videoUrl.contains(":\\") && !videoUrl.startsWith("http"))) {
-                // 处理本地文件
-                String localPath = videoUrl.startsWith("file://") ? videoUrl.substring(7) : videoUrl;
-                Path originalFile = Paths.get(localPath);
-                
-                if (Files.exists(originalFile)) {
-                    System.out.println("找到本地视频文件: " + originalFile.toString());
-                    
-                    // 验证是否为有效的视频文件
-                    if (isValidVideoFile(originalFile)) {
-                        System.out.println("本地视频文件验证成功: " + originalFile.toString());
-                        return originalFile.toString();
-                    } else {
-                        System.err.println("本地文件不是有效的视频文件: " + localPath);
-                        return null;
-                    }
-                } else {
-                    System.err.println("本地视频文件不存在: " + localPath);
-                    return null;
-                }
-            }
-            
-            // 处理网络URL
-            URL url = new URL(videoUrl);
-            String fileName = "video_" + index + ".mp4";
-            Path filePath = tempDir.resolve(fileName);
-
-            // 设置连接超时
-            java.net.URLConnection connection = url.openConnection();
-            connection.setConnectTimeout(30000); // 30秒连接超时
-            connection.setReadTimeout(60000); // 60秒读取超时
-            
-            // 设置User-Agent以避免被某些服务器拒绝
-            connection.setRequestProperty("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36");
-            
-            try (InputStream in = connection.getInputStream()) {
-                long bytesDownloaded = Files.copy(in, filePath, StandardCopyOption.REPLACE_EXISTING);
-                System.out.println("下载了 " + bytesDownloaded + " 字节");
-            }
-
-            if (Files.exists(filePath)) {
-                long fileSize = Files.size(filePath);
-                if (fileSize > 0) {
-                    System.out.println("视频下载成功: " + filePath.toString() + " (大小: " + fileSize + " 字节)");
-                    
-                    // 验证是否为有效的视频文件
-                    if (isValidVideoFile(filePath)) {
-                        return filePath.toString();
-                    } else {
-                        System.err.println("下载的文件不是有效的视频文件: " + videoUrl);
-                        Files.deleteIfExists(filePath);
-                        return null;
-                    }
-                } else {
-                    System.err.println("下载的文件为空: " + videoUrl);
-                    Files.deleteIfExists(filePath);
-                    return null;
-                }
-            } else {
-                System.err.println("文件下载后不存在: " + videoUrl);
-                return null;
-            }
-
-        } catch (java.net.MalformedURLException e) {
-            System.err.println("无效的URL: " + videoUrl + " - " + e.getMessage());
-            return null;
-        } catch (java.net.SocketTimeoutException e) {
-            System.err.println("下载超时: " + videoUrl + " - " + e.getMessage());
-            return null;
-        } catch (java.io.IOException e) {
-            System.err.println("下载IO错误: " + videoUrl + " - " + e.getMessage());
-            return null;
-        } catch (Exception e) {
-            System.err.println("下载视频时发生未知错误: " + videoUrl + " - " + e.getMessage());
-            e.printStackTrace();
-            return null;
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "30")
+                .body(Map.of(
+                    "success", false,
+                    "message", "视频拼接队列已满，请稍后重试"
+                ));
         }
     }
-    
+
     /**
-     * 验证是否为有效的视频文件
+     * 查询视频拼接任务状态（轮询）
      */
-    private boolean isValidVideoFile(Path filePath) {
-        try {
-            // 简单验证：检查文件头部字节
-            byte[] header = new byte[12];
-            try (InputStream is = Files.newInputStream(filePath)) {
-                int bytesRead = is.read(header);
-                if (bytesRead < 4) {
-                    return false;
-                }
-            }
-            
-            // 检查常见视频文件的魔术字节
-            // MP4: starts with "ftyp" at offset 4
-            if (header.length >= 8) {
-                String headerStr = new String(header, 4, 4, java.nio.charset.StandardCharsets.US_ASCII);
-                if (headerStr.equals("ftyp")) {
-                    return true;
-                }
-            }
-            
-            // WebM: starts with 0x1A 0x45 0xDF 0xA3
-            if (header[0] == 0x1A && header[1] == 0x45 && header[2] == (byte)0xDF && header[3] == (byte)0xA3) {
-                return true;
-            }
-            
-            // AVI: starts with "RIFF" and contains "AVI "
-            if (header.length >= 12) {
-                String riff = new String(header, 0, 4, java.nio.charset.StandardCharsets.US_ASCII);
-                String avi = new String(header, 8, 4, java.nio.charset.StandardCharsets.US_ASCII);
-                if (riff.equals("RIFF") && avi.equals("AVI ")) {
-                    return true;
-                }
-            }
-            
-            System.out.println("未识别的文件格式，假设为有效视频文件");
-            return true; // 对于未识别的格式，假设为有效
-            
-        } catch (Exception e) {
-            System.err.println("验证视频文件时发生错误: " + e.getMessage());
-            return true; // 验证失败时假设为有效
-        }
+    @GetMapping("/concat/{jobId}")
+    public ResponseEntity<?> getConcatJob(@PathVariable String jobId) {
+        return videoConcatJobService.getJob(jobId)
+            .<ResponseEntity<?>>map(ResponseEntity::ok)
+            .orElseGet(() -> ResponseEntity.notFound().build());
     }
 
     /**
-     * 创建FFmpeg拼接列表文件
+     * 取消视频拼接任务；相同内容的请求共用一个任务，其他用户仍在等待时只退出当前用户，渲染继续
      */
-    private String createConcatList(List<String> videoPaths, Path tempDir) throws IOException {
-        Path concatListPath = tempDir.resolve("concat_list.txt");
-        
-        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(concatListPath, java.nio.charset.StandardCharsets.UTF_8))) {
-            for (String videoPath : videoPaths) {
-                // 使用绝对路径，Windows下FFmpeg支持反斜杠，但要确保路径正确
-                Path path = Paths.get(videoPath).toAbsolutePath().normalize();
-                writer.println("file '" + path.toString().replace("'", "\\'") + "'");
-                System.out.println("添加到拼接列表: " + path.toString());
-            }
+    @DeleteMapping("/concat/{jobId}")
+    public ResponseEntity<?> cancelConcatJob(@PathVariable String jobId) {
+        Long userId = SecurityUtil.getCurrentUserId();
+        if (userId == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "请先登录"));
         }
-        
-        System.out.println("拼接列表文件创建成功: " + concatListPath.toString());
-        
-        // 打印拼接列表内容用于调试
-        try {
-            List<String> lines = Files.readAllLines(concatListPath, java.nio.charset.StandardCharsets.UTF_8);
-            System.out.println("拼接列表内容:");
-            for (String line : lines) {
-                System.out.println("  " + line);
-            }
-        } catch (IOException e) {
-            System.err.println("无法读取拼接列表文件: " + e.getMessage());
+        if (videoConcatJobService.getJob(jobId).isEmpty()) {
+            return ResponseEntity.notFound().build();
         }
-        
-        return concatListPath.toString();
-    }
-
-    /**
-     * 执行FFmpeg拼接命令（仅拼接视频）
-     */
-    private boolean executeFFmpegConcat(String concatListPath, String outputPath) {
-        try {
-            List<String> command = new ArrayList<>();
-            command.add("ffmpeg");
-            command.add("-f");
-            command.add("concat");
-            command.add("-safe");
-            command.add("0");
-            command.add("-i");
-            command.add(concatListPath);
-            command.add("-c");
-            command.add("copy"); // 直接拷贝，不重新编码
-            command.add("-y"); // 覆盖输出文件
-            command.add(outputPath);
-
-            System.out.println("执行FFmpeg视频拼接命令: " + String.join(" ", command));
-            
-            // 检查输入文件是否存在
-            if (!Files.exists(Paths.get(concatListPath))) {
-                System.err.println("拼接列表文件不存在: " + concatListPath);
-                return false;
-            }
-
-            ProcessBuilder processBuilder = new ProcessBuilder(command);
-            processBuilder.redirectErrorStream(true);
-            
-            // 设置工作目录
-            processBuilder.directory(new File(System.getProperty("java.io.tmpdir")));
-            
-            Process process = processBuilder.start();
-
-            // 读取输出信息
-            StringBuilder ffmpegOutput = new StringBuilder();
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), java.nio.charset.StandardCharsets.UTF_8))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    System.out.println("FFmpeg输出: " + line);
-                    ffmpegOutput.append(line).append("\n");
-                }
-            }
-
-            boolean finished = process.waitFor(300, TimeUnit.SECONDS); // 5分钟超时
-
-            if (!finished) {
-                System.err.println("FFmpeg进程超时");
-                process.destroyForcibly();
-                return false;
-            }
-
-            int exitCode = process.exitValue();
-            if (exitCode == 0) {
-                System.out.println("FFmpeg拼接成功，输出文件: " + outputPath);
-                
-                // 验证输出文件
-                Path outputFilePath = Paths.get(outputPath);
-                if (Files.exists(outputFilePath)) {
-                    long fileSize = Files.size(outputFilePath);
-                    System.out.println("输出文件大小: " + fileSize + " 字节");
-                    return fileSize > 0;
-                } else {
-                    System.err.println("输出文件不存在: " + outputPath);
-                    return false;
-                }
-            } else {
-                System.err.println("FFmpeg拼接失败，退出码: " + exitCode);
-                System.err.println("FFmpeg完整输出:");
-                System.err.println(ffmpegOutput.toString());
-                return false;
-            }
-
-        } catch (Exception e) {
-            System.err.println("执行FFmpeg命令时发生错误: " + e.getMessage());
-            e.printStackTrace();
-            return false;
+        if (!videoConcatJobService.isSubscriber(jobId, userId)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("error", "无权取消该拼接任务"));
         }
+        return videoConcatJobService.cancel(jobId, userId)
+            .<ResponseEntity<?>>map(ResponseEntity::ok)
+            .orElseGet(() -> ResponseEntity.notFound().build());
     }
 
     /**
-     * 为视频添加背景音乐
+     * 订阅视频拼接任务进度（SSE）
      */
-    private boolean addMusicToVideo(String videoPath, String musicFileName, String outputPath) {
-        try {
-            String musicPath = "D:/SpringBoot_Pro/musics/" + musicFileName;
-            
-            // 检查音乐文件是否存在
-            if (!Files.exists(Paths.get(musicPath))) {
-                System.err.println("背景音乐文件不存在: " + musicPath);
-                return false;
-            }
-            
-            List<String> command = new ArrayList<>();
-            command.add("ffmpeg");
-            command.add("-i");
-            command.add(videoPath); // 输入视频
-            command.add("-i");
-            command.add(musicPath); // 输入音乐
-            
-            // 检查视频是否有音频轨道
-            boolean hasVideoAudio = checkVideoHasAudio(videoPath);
-            
-            if (hasVideoAudio) {
-                // 如果视频有音轨，混合原音轨和背景音乐
-                command.add("-filter_complex");
-                command.add("[0:a][1:a]amix=inputs=2:duration=shortest:weights=0.7 0.4[aout]");
-                command.add("-map");
-                command.add("0:v"); // 映射视频流
-                command.add("-map");
-                command.add("[aout]"); // 映射混合后的音频
-                System.out.println("视频包含音轨，将混合原音效与背景音乐");
-            } else {
-                // 如果视频没有音轨，直接使用背景音乐
-            command.add("-map");
-            command.add("0:v"); // 映射视频流
-            command.add("-map");
-            command.add("1:a"); // 映射音乐音频流
-                System.out.println("视频不包含音轨，直接使用背景音乐");
-            }
-            
-            command.add("-c:v");
-            command.add("copy"); // 视频流直接拷贝
-            command.add("-c:a");
-            command.add("aac"); // 音频重新编码为AAC
-            command.add("-shortest"); // 以最短流为准
-            command.add("-y"); // 覆盖输出文件
-            command.add(outputPath);
-
-            System.out.println("执行FFmpeg添加音乐命令: " + String.join(" ", command));
-            
-            ProcessBuilder processBuilder = new ProcessBuilder(command);
-            processBuilder.redirectErrorStream(true);
-            processBuilder.directory(new File(System.getProperty("java.io.tmpdir")));
-            
-            Process process = processBuilder.start();
-
-            // 读取输出信息
-            StringBuilder ffmpegOutput = new StringBuilder();
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), java.nio.charset.StandardCharsets.UTF_8))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    System.out.println("FFmpeg音乐添加输出: " + line);
-                    ffmpegOutput.append(line).append("\n");
-                }
-            }
-
-            boolean finished = process.waitFor(300, TimeUnit.SECONDS); // 5分钟超时
-
-            if (!finished) {
-                System.err.println("FFmpeg音乐添加进程超时");
-                process.destroyForcibly();
-                return false;
-            }
-
-            int exitCode = process.exitValue();
-            if (exitCode == 0) {
-                System.out.println("FFmpeg音乐添加成功，输出文件: " + outputPath);
-                
-                // 验证输出文件
-                Path outputFilePath = Paths.get(outputPath);
-                if (Files.exists(outputFilePath)) {
-                    long fileSize = Files.size(outputFilePath);
-                    System.out.println("输出文件大小: " + fileSize + " 字节");
-                    return fileSize > 0;
-                } else {
-                    System.err.println("输出文件不存在: " + outputPath);
-                    return false;
-                }
-            } else {
-                System.err.println("FFmpeg音乐添加失败，退出码: " + exitCode);
-                System.err.println("FFmpeg完整输出:");
-                System.err.println(ffmpegOutput.toString());
-                return false;
-            }
-
-        } catch (Exception e) {
-            System.err.println("执行FFmpeg音乐添加命令时发生错误: " + e.getMessage());
-            e.printStackTrace();
-            return false;
+    @GetMapping(value = "/concat/{jobId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> subscribeConcatJob(@PathVariable String jobId) {
+        SseEmitter emitter = videoConcatJobService.subscribe(jobId);
+        if (emitter == null) {
+            return ResponseEntity.notFound().build();
         }
+        return ResponseEntity.ok(emitter);
     }
 
     /**
-     * 检查视频是否包含音频轨道
+     * 提供持久化视频作品文件访问
      */
-    private boolean checkVideoHasAudio(String videoPath) {
-        try {
-            List<String> command = new ArrayList<>();
-            command.add("ffprobe");
-            command.add("-v");
-            command.add("quiet");
-            command.add("-show_streams");
-            command.add("-select_streams");
-            command.add("a"); // 只检查音频流
-            command.add("-of");
-            command.add("csv=p=0");
-            command.add(videoPath);
-
-            ProcessBuilder processBuilder = new ProcessBuilder(command);
-            processBuilder.redirectErrorStream(true);
-            Process process = processBuilder.start();
-
-            StringBuilder output = new StringBuilder();
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    output.append(line).append("\n");
-                }
-            }
-
-            boolean finished = process.waitFor(30, TimeUnit.SECONDS);
-            if (!finished) {
-                process.destroyForcibly();
-                System.err.println("检查视频音频轨道超时");
-                return false;
-            }
-
-            int exitCode = process.exitValue();
-            String outputStr = output.toString().trim();
-            
-            // 如果有音频流，ffprobe会返回音频流信息；如果没有，则输出为空
-            boolean hasAudio = exitCode == 0 && !outputStr.isEmpty();
-            
-            System.out.println("音频轨道检查结果 - 文件: " + videoPath + ", 有音频: " + hasAudio);
-            if (hasAudio) {
-                System.out.println("检测到音频流信息: " + outputStr);
-            }
-            
-            return hasAudio;
-            
-        } catch (Exception e) {
-            System.err.println("检查视频音频轨道时发生错误: " + e.getMessage());
-            e.printStackTrace();
-            // 出错时默认假设有音频，采用混合模式更安全
-            return true;
-        }
+    @GetMapping("/works/{filename}")
+    public void getPersistentVideo(@PathVariable String filename, HttpServletRequest request,
+                                   HttpServletResponse response) throws IOException {
+        if (filename.contains("..")) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+        Path videoPath = Paths.get(VideoConcatService.PERSISTENT_VIDEO_DIR, filename);
+        mediaStreamingService.serve(videoPath, "video/mp4", filename, "max-age=3600", request, response); // 1小时缓存
     }
 
     /**
-     * 清理临时文件
+     * 提供成片的HLS播放列表与切片，路径为 {成片名}/master.m3u8 或 {成片名}/{版本}/{文件}
      */
-    private void cleanupTempFiles(Path tempDir) {
-        try {
-            if (Files.exists(tempDir)) {
-                Files.walk(tempDir)
-                    .sorted((a, b) -> b.compareTo(a)) // 先删除文件，再删除目录
-                    .forEach(path -> {
-                        try {
-                            Files.delete(path);
-                        } catch (IOException e) {
-                            System.err.println("删除临时文件失败: " + path + " - " + e.getMessage());
-                        }
-                    });
-            }
-        } catch (Exception e) {
-            System.err.println("清理临时文件时发生错误: " + e.getMessage());
-            e.printStackTrace();
+    @GetMapping({"/hls/{name}/{file}", "/hls/{name}/{rendition}/{file}"})
+    public void getHlsFile(@PathVariable String name, @PathVariable(required = false) String rendition,
+                           @PathVariable String file, HttpServletRequest request,
+                           HttpServletResponse response) throws IOException {
+        if (name.contains("..") || file.contains("..") || (rendition != null && rendition.contains(".."))) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+        Path dir = Paths.get(VideoConcatService.PERSISTENT_VIDEO_DIR, HlsPackagingService.HLS_DIR, name);
+        Path hlsFile = rendition != null ? dir.resolve(rendition).resolve(file) : dir.resolve(file);
+        if (file.endsWith(".m3u8")) {
+            mediaStreamingService.serve(hlsFile, "application/vnd.apple.mpegurl", null, "no-cache", request, response);
+        } else if (file.endsWith(".ts")) {
+            // 切片内容生成后不再变化
+            mediaStreamingService.serve(hlsFile, "video/mp2t", null, "public, max-age=31536000, immutable", request, response);
+        } else {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
         }
     }
 
     /**
-     * 提供持久化视频作品文件访问
+     * 提供封面图、雪碧图与 WebVTT 索引
      */
-    @GetMapping("/works/{filename}")
-    public ResponseEntity<FileSystemResource> getPersistentVideo(@PathVariable String filename) {
-        try {
-            Path videoPath = Paths.get(PERSISTENT_VIDEO_DIR, filename);
-            
-            if (!Files.exists(videoPath)) {
-                System.err.println("持久化视频文件不存在: " + videoPath.toString());
-                return ResponseEntity.notFound().build();
-            }
-            
-            FileSystemResource resource = new FileSystemResource(videoPath.toFile());
-            
-            HttpHeaders headers = new HttpHeaders();
-            headers.add(HttpHeaders.CONTENT_TYPE, "video/mp4");
-            headers.add(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + filename + "\"");
-            headers.add(HttpHeaders.CACHE_CONTROL, "max-age=3600"); // 1小时缓存
-            
-            return ResponseEntity.ok()
-                .headers(headers)
-                .contentLength(resource.contentLength())
-                .body(resource);
-                
-        } catch (Exception e) {
-            System.err.println("获取持久化视频失败: " + e.getMessage());
-            e.printStackTrace();
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
-        }
+    @GetMapping("/thumbnails/{key}/{file}")
+    public void getThumbnail(@PathVariable String key, @PathVariable String file, HttpServletRequest request,
+                             HttpServletResponse response) throws IOException {
+        Path thumbnail = thumbnailService.thumbnailPath(key, file);
+        if (thumbnail == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        String contentType = file.endsWith(".vtt") ? "text/vtt;charset=UTF-8" : "image/jpeg";
+        mediaStreamingService.serve(thumbnail, contentType, null, "public, max-age=86400", request, response); // 1天缓存
     }
 
     /**
      * 提供本地视频文件访问
      */
     @GetMapping("/local/{filename}")
-    public ResponseEntity<FileSystemResource> getLocalVideo(@PathVariable String filename) {
-        try {
-            // 本地视频文件路径映射
-            Map<String, String> videoFiles = new HashMap<>();
-            videoFiles.put("scene1-1", "D:\\courses\\场景设计\\杭州的未来\\镜头1.1.mp4");
-            videoFiles.put("scene1-2", "D:\\courses\\场景设计\\杭州的未来\\镜头1.2.mp4");
-            videoFiles.put("scene1-transition", "D:\\courses\\场景设计\\杭州的未来\\镜头1转换.mp4");
-            videoFiles.put("scene2-1", "D:\\courses\\场景设计\\杭州的未来\\镜头2.1.mp4");
-            videoFiles.put("scene6-1", "D:\\courses\\场景设计\\杭州的未来\\镜头6 (1).mp4");
-            videoFiles.put("scene6-2", "D:\\courses\\场景设计\\杭州的未来\\镜头6 (2).mp4");
-            videoFiles.put("scene7-1", "D:\\courses\\场景设计\\杭州的未来\\镜头7 (1).mp4");
-            videoFiles.put("scene7-2", "D:\\courses\\场景设计\\杭州的未来\\镜头7 (2).mp4");
-            videoFiles.put("scene7-3", "D:\\courses\\场景设计\\杭州的未来\\镜头7 (3).mp4");
-            
-            String filePath = videoFiles.get(filename);
-            if (filePath == null) {
-                return ResponseEntity.notFound().build();
-            }
-            
-            Path videoPath = Paths.get(filePath);
-            if (!Files.exists(videoPath)) {
-                System.err.println("本地视频文件不存在: " + filePath);
-                return ResponseEntity.notFound().build();
-            }
-            
-            FileSystemResource resource = new FileSystemResource(videoPath.toFile());
-            
-            HttpHeaders headers = new HttpHeaders();
-            headers.add(HttpHeaders.CONTENT_TYPE, "video/mp4");
-            headers.add(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + filename + ".mp4\"");
-            
-            return ResponseEntity.ok()
-                .headers(headers)
-                .contentLength(resource.contentLength())
-                .body(resource);
-                
-        } catch (Exception e) {
-            System.err.println("获取本地视频失败: " + e.getMessage());
-            e.printStackTrace();
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+    public void getLocalVideo(@PathVariable String filename, HttpServletRequest request,
+                              HttpServletResponse response) throws IOException {
+        // 本地视频文件路径映射
+        Map<String, String> videoFiles = new HashMap<>();
+        videoFiles.put("scene1-1", "D:\\courses\\场景设计\\杭州的未来\\镜头1.1.mp4");
+        videoFiles.put("scene1-2", "D:\\courses\\场景设计\\杭州的未来\\镜头1.2.mp4");
+        videoFiles.put("scene1-transition", "D:\\courses\\场景设计\\杭州的未来\\镜头1转换.mp4");
+        videoFiles.put("scene2-1", "D:\\courses\\场景设计\\杭州的未来\\镜头2.1.mp4");
+        videoFiles.put("scene6-1", "D:\\courses\\场景设计\\杭州的未来\\镜头6 (1).mp4");
+        videoFiles.put("scene6-2", "D:\\courses\\场景设计\\杭州的未来\\镜头6 (2).mp4");
+        videoFiles.put("scene7-1", "D:\\courses\\场景设计\\杭州的未来\\镜头7 (1).mp4");
+        videoFiles.put("scene7-2", "D:\\courses\\场景设计\\杭州的未来\\镜头7 (2).mp4");
+        videoFiles.put("scene7-3", "D:\\courses\\场景设计\\杭州的未来\\镜头7 (3).mp4");
+        
+        String filePath = videoFiles.get(filename);
+        if (filePath == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
         }
+        mediaStreamingService.serve(Paths.get(filePath), "video/mp4", filename + ".mp4", null, request, response);
     }
 
     /**
@@ -783,31 +260,21 @@ public class VideoController {
     @GetMapping("/test-ffmpeg")
     public ResponseEntity<?> testFFmpeg() {
         try {
-            ProcessBuilder processBuilder = new ProcessBuilder("ffmpeg", "-version");
-            Process process = processBuilder.start();
-            
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-                StringBuilder output = new StringBuilder();
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    output.append(line).append("\n");
-                }
-                
-                boolean finished = process.waitFor(10, TimeUnit.SECONDS);
-                
-                if (finished && process.exitValue() == 0) {
-                    return ResponseEntity.ok(Map.of(
-                        "success", true,
-                        "message", "FFmpeg可用",
-                        "version", output.toString()
+            MediaProcessSupervisor.ProcessResult result = mediaProcessSupervisor.run(
+                null, "FFmpeg版本检查", List.of("ffmpeg", "-version"), 10, null);
+            
+            if (result.isSuccess()) {
+                return ResponseEntity.ok(Map.of(
+                    "success", true,
+                    "message", "FFmpeg可用",
+                    "version", result.getOutput()
+                ));
+            } else {
+                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of(
+                        "success", false,
+                        "message", "FFmpeg不可用或版本获取失败"
                     ));
-                } else {
-                    return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                        .body(Map.of(
-                            "success", false,
-                            "message", "FFmpeg不可用或版本获取失败"
-                        ));
-                }
             }
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -965,6 +432,7 @@ public class VideoController {
         private String imageUrl;
         private String prompt;
         private String aspectRatio;
+        private String priority; // preview（默认）或 final
         
         public Long getStoryboardId() {
             return storyboardId;
@@ -997,13 +465,25 @@ public class VideoController {
         public void setAspectRatio(String aspectRatio) {
             this.aspectRatio = aspectRatio;
         }
+        
+        public String getPriority() {
+            return priority;
+        }
+        
+        public void setPriority(String priority) {
+            this.priority = priority;
+        }
     }
     
     /**
      * 提交图生视频任务
+     *
+     * 优先级默认 preview：单个分镜头的生成是用户正在页面上等待结果的交互操作，
+     * 应排在批量生成（默认 final）之前，不被其他用户的整批任务阻塞
      */
     @PostMapping("/generate")
-    public ResponseEntity<?> generateVideo(@RequestBody VideoGenerationRequest request) {
+    public ResponseEntity<?> generateVideo(@RequestBody VideoGenerationRequest request,
+                                           @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
         try {
             // 验证参数
             if (request.getStoryboardId() == null) {
@@ -1014,10 +494,11 @@ public class VideoController {
                 return ResponseEntity.badRequest().body(Map.of("error", "图片URL不能为空"));
             }
             
-            // 检查是否已有正在进行的任务
-            boolean hasActiveTask = videoTaskRepository.hasActiveTaskForStoryboard(request.getStoryboardId());
-            if (hasActiveTask) {
-                return ResponseEntity.badRequest().body(Map.of("error", "该故事板已有正在进行的视频生成任务"));
+            // 生成的视频需要下载到本地，磁盘空间不足时拒绝
+            if (!storageJanitorService.hasCapacity()) {
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(storageJanitorService.getRetryAfterSeconds()))
+                    .body(Map.of("error", "服务器存储空间不足，请稍后重试"));
             }
             
             // 设置默认值
@@ -1026,48 +507,133 @@ public class VideoController {
                 aspectRatio = "16:9"; // 默认比例
             }
             
-            // 先调用山火API提交任务获取task_id
-            VolcEngineVideoService.VideoTaskResponse response = volcEngineVideoService.submitVideoTask(
+            String priority = VideoSubmissionScheduler.PRIORITY_FINAL.equals(request.getPriority())
+                ? VideoSubmissionScheduler.PRIORITY_FINAL : VideoSubmissionScheduler.PRIORITY_PREVIEW;
+            
+            // 先入队，由提交调度在山火并发配额内提交，task_id 在提交成功后写回
+            VideoTask videoTask = new VideoTask(
+                request.getStoryboardId(),
                 request.getImageUrl().trim(),
                 request.getPrompt(),
                 aspectRatio
             );
+            videoTask.setStatus("queued");
+            videoTask.setPriority(priority);
             
-            if (response.isSuccess()) {
-                // API调用成功，创建任务记录
-                VideoTask videoTask = new VideoTask(
-                    request.getStoryboardId(),
-                    request.getImageUrl().trim(),
-                    request.getPrompt(),
-                    aspectRatio
-                );
-                
-                // 设置从山火API获取的任务ID和状态
-                videoTask.setTaskId(response.getTaskId());
-                videoTask.setStatus("submitted");
-                
-                // 保存到数据库
-                videoTask = videoTaskRepository.save(videoTask);
-                
-                Map<String, Object> result = new HashMap<>();
-                result.put("success", true);
-                result.put("message", "视频生成任务提交成功");
-                result.put("taskId", response.getTaskId());
-                result.put("videoTaskId", videoTask.getId());
-                
-                return ResponseEntity.ok(result);
-            } else {
-                // API调用失败，直接返回错误
-                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(Map.of("error", "提交视频生成任务失败: " + response.getMessage()));
+            // 幂等键按用户隔离；同一分镜头已有进行中的任务时也返回该任务
+            String scopedKey = idempotencyKey == null || idempotencyKey.isBlank() ? null
+                : SecurityUtil.getCurrentUserId() + ":" + idempotencyKey.trim();
+            VideoSubmissionScheduler.SubmitResult submission = videoSubmissionScheduler.submitOnce(videoTask, scopedKey);
+            VideoTask task = submission.getTask();
+            if (!task.getStoryboardId().equals(request.getStoryboardId())) {
+                return ResponseEntity.unprocessableEntity().body(Map.of("error", "Idempotency-Key 已用于其他分镜头的请求"));
             }
             
+            Map<String, Object> result = new HashMap<>();
+            result.put("success", true);
+            result.put("message", submission.isDuplicate() ? "该分镜头已有视频生成任务" : "视频生成任务已加入队列");
+            result.put("duplicate", submission.isDuplicate());
+            result.put("videoTaskId", task.getId());
+            result.put("taskId", task.getTaskId());
+            result.put("status", task.getStatus());
+            result.put("queuePosition", submission.getQueuePosition());
+            
+            return ResponseEntity.ok(result);
+            
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                 .body(Map.of("error", "视频生成任务提交失败: " + e.getMessage()));
         }
     }
     
+    /**
+     * 批量生成请求参数，均可省略
+     */
+    public static class StoryVideoGenerationRequest {
+        private String aspectRatio;
+        private String priority; // final（默认）或 preview
+        
+        public String getAspectRatio() {
+            return aspectRatio;
+        }
+        
+        public void setAspectRatio(String aspectRatio) {
+            this.aspectRatio = aspectRatio;
+        }
+        
+        public String getPriority() {
+            return priority;
+        }
+        
+        public void setPriority(String priority) {
+            this.priority = priority;
+        }
+    }
+    
+    /**
+     * 为故事中所有有概念图、尚未生成视频的分镜头批量提交图生视频任务，返回分组ID
+     *
+     * 优先级默认 final，与 /generate 的默认值不同：一次提交整个故事的任务是批量作业，
+     * 放在 final 层级才不会挤占所有用户单个分镜头的交互式生成（preview）；调用方可显式指定 preview
+     */
+    @PostMapping("/generate/story/{storyId}")
+    public ResponseEntity<?> generateStoryVideos(@PathVariable Long storyId,
+                                                 @RequestBody(required = false) StoryVideoGenerationRequest request,
+                                                 @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        try {
+            Long currentUserId = SecurityUtil.getCurrentUserId();
+            List<Storyboard> storyboards = storyboardService.getStoryboardsByStoryId(storyId);
+            if (storyboards.isEmpty()) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "该故事没有分镜头脚本"));
+            }
+            boolean othersStoryboard = storyboards.stream()
+                .anyMatch(storyboard -> storyboard.getUserId() != null && !storyboard.getUserId().equals(currentUserId));
+            if (othersStoryboard) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("error", "无权为该故事生成视频"));
+            }
+            
+            if (!storageJanitorService.hasCapacity()) {
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(storageJanitorService.getRetryAfterSeconds()))
+                    .body(Map.of("error", "服务器存储空间不足，请稍后重试"));
+            }
+            
+            String aspectRatio = request == null || request.getAspectRatio() == null || request.getAspectRatio().trim().isEmpty()
+                ? "16:9" : request.getAspectRatio();
+            String priority = request != null && VideoSubmissionScheduler.PRIORITY_PREVIEW.equals(request.getPriority())
+                ? VideoSubmissionScheduler.PRIORITY_PREVIEW : VideoSubmissionScheduler.PRIORITY_FINAL;
+            String scopedKey = idempotencyKey == null || idempotencyKey.isBlank() ? null
+                : currentUserId + ":story:" + storyId + ":" + idempotencyKey.trim();
+            
+            VideoTaskGroupService.GroupSubmission submission =
+                videoTaskGroupService.submitStory(storyboards, aspectRatio, priority, scopedKey);
+            
+            Map<String, Object> result = new HashMap<>();
+            result.put("success", true);
+            result.put("groupId", submission.getGroupId());
+            result.put("tasks", submission.getTasks());
+            result.put("skipped", submission.getSkipped());
+            return ResponseEntity.ok(result);
+            
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(Map.of("error", "批量提交视频生成任务失败: " + e.getMessage()));
+        }
+    }
+    
+    /**
+     * 查询批量生成分组的整体进度
+     */
+    @GetMapping("/groups/{groupId}")
+    public ResponseEntity<?> getVideoTaskGroup(@PathVariable String groupId) {
+        // 只返回当前用户的任务；分组不存在或属于其他用户时一律返回404，不暴露分组是否存在
+        Map<String, Object> status = videoTaskGroupService.getGroupStatus(groupId, SecurityUtil.getCurrentUserId());
+        if (status == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(status);
+    }
+    
     /**
      * 查询图生视频任务状态
      */
@@ -1080,63 +646,67 @@ public class VideoController {
                 return ResponseEntity.notFound().build();
             }
             
-            VideoTask videoTask = videoTaskOpt.get();
-            
-            // 如果任务已完成或失败，直接返回状态
-            if ("completed".equals(videoTask.getStatus()) || "failed".equals(videoTask.getStatus())) {
-                Map<String, Object> result = new HashMap<>();
-                result.put("taskId", taskId);
-                result.put("status", videoTask.getStatus());
-                result.put("videoUrl", videoTask.getVideoUrl());
-                result.put("errorMessage", videoTask.getErrorMessage());
-                result.put("createdAt", videoTask.getCreatedAt());
-                result.put("completedAt", videoTask.getCompletedAt());
-                
-                return ResponseEntity.ok(result);
-            }
-            
-            // 查询山火API获取最新状态
-            VolcEngineVideoService.VideoTaskResponse response = volcEngineVideoService.queryVideoTask(taskId);
+            return ResponseEntity.ok(taskStatusBody(videoTaskOpt.get()));
             
-            if (response.isSuccess()) {
-                // 更新本地任务状态
-                if ("done".equals(response.getStatus())) {
-                    // 下载视频到本地
-                    String originalVideoUrl = response.getVideoUrl();
-                    String localVideoUrl = volcEngineVideoService.downloadVideoToLocal(originalVideoUrl, taskId);
-                    
-                    videoTask.setStatus("completed");
-                    videoTask.setVideoUrl(localVideoUrl);
-                } else {
-                    videoTask.setStatus("generating");
-                }
-                videoTaskRepository.save(videoTask);
-                
-                Map<String, Object> result = new HashMap<>();
-                result.put("taskId", taskId);
-                result.put("status", videoTask.getStatus());
-                result.put("videoUrl", videoTask.getVideoUrl());
-                result.put("message", response.getMessage());
-                result.put("createdAt", videoTask.getCreatedAt());
-                result.put("completedAt", videoTask.getCompletedAt());
-                
-                return ResponseEntity.ok(result);
-            } else {
-                // API查询失败，更新为失败状态
-                videoTask.setStatus("failed");
-                videoTask.setErrorMessage(response.getMessage());
-                videoTaskRepository.save(videoTask);
-                
-                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(Map.of("error", "查询任务状态失败: " + response.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(Map.of("error", "查询任务状态失败: " + e.getMessage()));
+        }
+    }
+    
+    /**
+     * 按本地任务ID查询状态，排队中尚无山火task_id的任务也可查询
+     */
+    @GetMapping("/tasks/{videoTaskId}")
+    public ResponseEntity<?> getVideoTask(@PathVariable Long videoTaskId) {
+        try {
+            // 其他用户的任务与不存在的任务同样返回404
+            Long currentUserId = SecurityUtil.getCurrentUserId();
+            var videoTaskOpt = videoTaskRepository.findById(videoTaskId)
+                .filter(task -> currentUserId != null && currentUserId.equals(task.getUserId()));
+            if (videoTaskOpt.isEmpty()) {
+                return ResponseEntity.notFound().build();
             }
-            
+            return ResponseEntity.ok(taskStatusBody(videoTaskOpt.get()));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                 .body(Map.of("error", "查询任务状态失败: " + e.getMessage()));
         }
     }
     
+    /**
+     * 状态由后台轮询任务（VideoTaskPollingService）更新，这里只读取数据库
+     */
+    private Map<String, Object> taskStatusBody(VideoTask videoTask) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("videoTaskId", videoTask.getId());
+        result.put("taskId", videoTask.getTaskId());
+        result.put("status", videoTask.getStatus());
+        result.put("queuePosition", videoSubmissionScheduler.getQueuePosition(videoTask.getId()));
+        result.put("videoUrl", videoTask.getVideoUrl());
+        result.put("thumbnailUrl", videoTask.getThumbnailUrl());
+        result.put("errorMessage", videoTask.getErrorMessage());
+        result.put("createdAt", videoTask.getCreatedAt());
+        result.put("updatedAt", videoTask.getUpdatedAt());
+        result.put("completedAt", videoTask.getCompletedAt());
+        return result;
+    }
+    
+    /**
+     * 订阅当前用户所有图生视频任务的状态变更（SSE），token通过查询参数传递
+     */
+    @GetMapping(value = "/tasks/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> subscribeVideoTaskEvents(@RequestParam(required = false) String token) {
+        Long userId = videoTaskEventService.resolveUserId(token);
+        if (userId == null) {
+            userId = SecurityUtil.getCurrentUserId();
+        }
+        if (userId == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        return ResponseEntity.ok(videoTaskEventService.subscribe(userId));
+    }
+    
     /**
      * 获取故事板的视频生成任务列表
      */
@@ -1173,35 +743,16 @@ public class VideoController {
      * 访问本地视频文件
      */
     @GetMapping("/files/{filename}")
-    public ResponseEntity<FileSystemResource> getLocalVideoFile(@PathVariable String filename) {
-        try {
-            // 验证文件名格式，防止路径遍历攻击
-            if (!filename.matches("video_[a-zA-Z0-9_]+\\.mp4")) {
-                return ResponseEntity.badRequest().build();
-            }
-            
-            Path filePath = Paths.get("D:/SpringBoot_Pro/videos", filename);
-            
-            if (!Files.exists(filePath)) {
-                return ResponseEntity.notFound().build();
-            }
-            
-            FileSystemResource resource = new FileSystemResource(filePath.toFile());
-            
-            HttpHeaders headers = new HttpHeaders();
-            headers.add(HttpHeaders.CONTENT_TYPE, "video/mp4");
-            headers.add(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + filename + "\"");
-            headers.add(HttpHeaders.CACHE_CONTROL, "public, max-age=31536000"); // 缓存1年
-            
-            return ResponseEntity.ok()
-                .headers(headers)
-                .contentLength(resource.contentLength())
-                .body(resource);
-                
-        } catch (Exception e) {
-            logger.error("获取本地视频文件失败: " + filename, e);
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+    public void getLocalVideoFile(@PathVariable String filename, HttpServletRequest request,
+                                  HttpServletResponse response) throws IOException {
+        // 验证文件名格式，防止路径遍历攻击
+        if (!filename.matches("video_[a-zA-Z0-9_]+\\.mp4")) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
         }
+        
+        Path filePath = Paths.get("D:/SpringBoot_Pro/videos", filename);
+        mediaStreamingService.serve(filePath, "video/mp4", filename, "public, max-age=31536000", request, response); // 缓存1年
     }
 
     /**
@@ -1268,6 +819,9 @@ public class VideoController {
             
             // 复制文件
             Files.copy(sourcePath, targetPath, StandardCopyOption.REPLACE_EXISTING);
+            if (!fileName.endsWith(".avi")) {
+                VideoConcatService.moveMoovToFront(targetPath);
+            }
             
             // 构建访问URL - 使用新的音效文件接口
             String accessUrl = "http://localhost:8080/api/video/audio-files/" + newFileName;
@@ -1305,34 +859,15 @@ public class VideoController {
      * 访问音效视频文件
      */
     @GetMapping("/audio-files/{filename}")
-    public ResponseEntity<FileSystemResource> getAudioVideoFile(@PathVariable String filename) {
-        try {
-            // 验证音效文件名格式，防止路径遍历攻击
-            if (!filename.matches("audio_.*\\.(mp4|avi|mov)")) {
-                return ResponseEntity.badRequest().build();
-            }
-            
-            Path filePath = Paths.get("D:/SpringBoot_Pro/videos", filename);
-            
-            if (!Files.exists(filePath)) {
-                return ResponseEntity.notFound().build();
-            }
-            
-            FileSystemResource resource = new FileSystemResource(filePath.toFile());
-            
-            HttpHeaders headers = new HttpHeaders();
-            headers.add(HttpHeaders.CONTENT_TYPE, "video/mp4");
-            headers.add(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + filename + "\"");
-            headers.add(HttpHeaders.CACHE_CONTROL, "public, max-age=31536000"); // 缓存1年
-            
-            return ResponseEntity.ok()
-                .headers(headers)
-                .contentLength(resource.contentLength())
-                .body(resource);
-                
-        } catch (Exception e) {
-            logger.error("获取音效视频文件失败: " + filename, e);
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+    public void getAudioVideoFile(@PathVariable String filename, HttpServletRequest request,
+                                  HttpServletResponse response) throws IOException {
+        // 验证音效文件名格式，防止路径遍历攻击
+        if (!filename.matches("audio_.*\\.(mp4|avi|mov)")) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
         }
+        
+        Path filePath = Paths.get("D:/SpringBoot_Pro/videos", filename);
+        mediaStreamingService.serve(filePath, "video/mp4", filename, "public, max-age=31536000", request, response); // 缓存1年
     }
 } 
\ No newline at end of file
@@ -0,0 +1,69 @@
+package com.example.springboot_pro.dao;
+
+import com.example.springboot_pro.domain.RenderJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface RenderJobRepository extends JpaRepository<RenderJob, String> {
+
+    // 根据状态查找任务，按创建时间顺序（重启后按原提交顺序恢复）
+    List<RenderJob> findByStatusOrderByCreatedAtAsc(String status);
+
+    // 以下状态变更只作用于运行中的任务：数据库中的状态以先写入者为准，
+    // 工作线程的检查点不会把已取消的任务改回运行中
+    @Modifying
+    @Transactional
+    @Query("UPDATE RenderJob rj SET rj.stage = 'segmented', rj.segmentPaths = :segmentPaths, rj.failedClips = :failedClips, " +
+            "rj.updatedAt = :now WHERE rj.jobId = :jobId AND rj.status = 'running'")
+    int checkpointSegmented(@Param("jobId") String jobId, @Param("segmentPaths") String segmentPaths,
+                            @Param("failedClips") String failedClips, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE RenderJob rj SET rj.stage = 'rendered', rj.fileName = :fileName, rj.updatedAt = :now " +
+            "WHERE rj.jobId = :jobId AND rj.status = 'running'")
+    int checkpointRendered(@Param("jobId") String jobId, @Param("fileName") String fileName, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE RenderJob rj SET rj.status = 'completed', rj.fileName = :fileName, rj.updatedAt = :now, rj.completedAt = :now " +
+            "WHERE rj.jobId = :jobId AND rj.status = 'running'")
+    int markCompleted(@Param("jobId") String jobId, @Param("fileName") String fileName, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE RenderJob rj SET rj.status = 'failed', rj.errorMessage = :errorMessage, rj.updatedAt = :now, rj.completedAt = :now " +
+            "WHERE rj.jobId = :jobId AND rj.status = 'running'")
+    int markFailed(@Param("jobId") String jobId, @Param("errorMessage") String errorMessage, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE RenderJob rj SET rj.status = 'cancelled', rj.updatedAt = :now, rj.completedAt = :now " +
+            "WHERE rj.jobId = :jobId AND rj.status = 'running'")
+    int markCancelled(@Param("jobId") String jobId, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE RenderJob rj SET rj.resumeCount = rj.resumeCount + 1, rj.updatedAt = :now " +
+            "WHERE rj.jobId = :jobId AND rj.status = 'running'")
+    int incrementResumeCount(@Param("jobId") String jobId, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE RenderJob rj SET rj.subscribers = :subscribers, rj.updatedAt = :now WHERE rj.jobId = :jobId")
+    int updateSubscribers(@Param("jobId") String jobId, @Param("subscribers") String subscribers, @Param("now") LocalDateTime now);
+
+    // 删除早于指定时间结束的任务日志
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM RenderJob rj WHERE rj.status <> 'running' AND rj.completedAt < :before")
+    int deleteFinishedBefore(@Param("before") LocalDateTime before);
+}
@@ -34,6 +34,16 @@ public interface StoryboardRepository extends JpaRepository<Storyboard, Long> {
      */
     Storyboard findByStoryIdAndScene(Long storyId, Integer scene);
     
+    /**
+     * 检查音效视频是否仍被分镜头脚本引用
+     */
+    boolean existsByAudioVideo(String audioVideo);
+    
+    /**
+     * 检查视频是否仍作为分镜头的生成视频被引用
+     */
+    boolean existsByGeneratedVideo(String generatedVideo);
+    
     /**
      * 检查故事是否存在分镜头脚本
      */
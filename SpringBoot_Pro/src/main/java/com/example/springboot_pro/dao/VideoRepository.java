@@ -22,6 +22,9 @@ public interface VideoRepository extends JpaRepository<Video, Long> {
     @Query("SELECT v FROM Video v WHERE v.userId = :userId AND v.title LIKE %:title% ORDER BY v.createdAt DESC")
     List<Video> findByUserIdAndTitleContaining(@Param("userId") Long userId, @Param("title") String title);
     
+    // 根据成片URL查找视频作品
+    List<Video> findByVideoUrl(String videoUrl);
+    
     // 根据故事ID查找视频作品
     List<Video> findByStoryIdOrderByCreatedAtDesc(Long storyId);
     
@@ -39,4 +42,12 @@ public interface VideoRepository extends JpaRepository<Video, Long> {
     // 获取用户视频的总场景数
     @Query("SELECT SUM(v.sceneCount) FROM Video v WHERE v.userId = :userId AND v.sceneCount IS NOT NULL")
     Long getTotalSceneCountByUserId(@Param("userId") Long userId);
+    
+    // 获取用户视频的总时长（秒）
+    @Query("SELECT SUM(v.duration) FROM Video v WHERE v.userId = :userId AND v.duration IS NOT NULL")
+    Long getTotalDurationByUserId(@Param("userId") Long userId);
+    
+    // 获取用户视频的总文件大小（字节）
+    @Query("SELECT SUM(v.fileSize) FROM Video v WHERE v.userId = :userId AND v.fileSize IS NOT NULL")
+    Long getTotalFileSizeByUserId(@Param("userId") Long userId);
 } 
\ No newline at end of file
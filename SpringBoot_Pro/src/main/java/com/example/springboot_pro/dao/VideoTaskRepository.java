@@ -2,11 +2,14 @@ package com.example.springboot_pro.dao;
 
 import com.example.springboot_pro.domain.VideoTask;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -32,17 +35,38 @@ public interface VideoTaskRepository extends JpaRepository<VideoTask, Long> {
     @Query("SELECT vt FROM VideoTask vt WHERE vt.status IN ('submitted', 'generating') ORDER BY vt.createdAt DESC")
     List<VideoTask> findPendingTasks();
     
-    // 查找超时的任务（创建时间超过指定时间且仍在处理中）
-    @Query("SELECT vt FROM VideoTask vt WHERE vt.status IN ('submitted', 'generating') AND vt.createdAt < :timeoutBefore")
+    // 查找超时的任务（提交时间超过指定时间且仍在处理中，排队时间不计入）
+    @Query("SELECT vt FROM VideoTask vt WHERE vt.status IN ('submitted', 'generating') AND COALESCE(vt.submittedAt, vt.createdAt) < :timeoutBefore")
     List<VideoTask> findTimeoutTasks(@Param("timeoutBefore") LocalDateTime timeoutBefore);
     
+    // 仅当任务仍在处理中时标记为失败，返回受影响行数；批量更新不触发@PreUpdate，需同步清空进行中键
+    @Modifying
+    @Transactional
+    @Query("UPDATE VideoTask vt SET vt.status = 'failed', vt.errorMessage = :errorMessage, vt.activeStoryboardKey = NULL, " +
+            "vt.completedAt = :now, vt.updatedAt = :now WHERE vt.id = :id AND vt.status IN ('submitted', 'generating')")
+    int failIfPending(@Param("id") Long id, @Param("errorMessage") String errorMessage, @Param("now") LocalDateTime now);
+    
+    // 按提交顺序查找排队中的任务，用于重启后恢复提交队列
+    List<VideoTask> findByStatusOrderByCreatedAtAsc(String status);
+    
+    // 统计占用山火并发配额的任务数
+    long countByStatusIn(Collection<String> statuses);
+    
+    // 检查本地视频文件是否仍被任务引用
+    boolean existsByVideoUrl(String videoUrl);
+    
     // 统计用户任务数量
     Long countByUserId(Long userId);
     
     // 统计用户成功完成的任务数量
     Long countByUserIdAndStatus(Long userId, String status);
     
-    // 检查故事板是否已有进行中的视频生成任务
-    @Query("SELECT COUNT(vt) > 0 FROM VideoTask vt WHERE vt.storyboardId = :storyboardId AND vt.status IN ('submitting', 'submitted', 'generating')")
-    boolean hasActiveTaskForStoryboard(@Param("storyboardId") Long storyboardId);
+    // 查找故事板进行中的视频生成任务（active_storyboard_key 有唯一约束，最多一个）
+    Optional<VideoTask> findByActiveStoryboardKey(Long storyboardId);
+    
+    // 查找用户在同一批量生成分组中的任务
+    List<VideoTask> findByGroupIdAndUserIdOrderByCreatedAtAsc(String groupId, Long userId);
+    
+    // 按幂等键查找任务
+    Optional<VideoTask> findByIdempotencyKey(String idempotencyKey);
 } 
\ No newline at end of file
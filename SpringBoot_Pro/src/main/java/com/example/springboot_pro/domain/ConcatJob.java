@@ -0,0 +1,184 @@
+package com.example.springboot_pro.domain;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 视频拼接任务（内存态），由拼接工作线程更新，HTTP线程只读取快照
+ */
+public class ConcatJob {
+
+    // 任务状态: queued, downloading, segmenting, concatenating, mixing, saving, packaging, completed, failed, cancelled
+    public static final String STATUS_QUEUED = "queued";
+    public static final String STATUS_COMPLETED = "completed";
+    public static final String STATUS_FAILED = "failed";
+    public static final String STATUS_CANCELLED = "cancelled";
+
+    private final String jobId;
+    private final int clipCount;
+    private final LocalDateTime createdAt;
+
+    private volatile String status;
+    private volatile int progress; // 0-100
+    private volatile String message;
+    private volatile String videoUrl;
+    private volatile String fileName;
+    private volatile Long fileSize;
+    private volatile String hlsUrl;
+    private volatile String errorMessage;
+    private volatile List<String> clipErrors = List.of(); // 获取失败而被跳过的分镜视频
+    private volatile LocalDateTime updatedAt;
+    private volatile LocalDateTime completedAt;
+
+    public ConcatJob(String jobId, int clipCount) {
+        this.jobId = jobId;
+        this.clipCount = clipCount;
+        this.createdAt = LocalDateTime.now();
+        this.updatedAt = createdAt;
+        this.status = STATUS_QUEUED;
+        this.progress = 0;
+        this.message = "等待处理";
+    }
+
+    /**
+     * 更新阶段与进度，进度只增不减
+     */
+    public synchronized boolean updateProgress(String status, int progress, String message) {
+        if (isFinished()) {
+            return false;
+        }
+        int bounded = Math.max(this.progress, Math.min(progress, 99));
+        boolean changed = !status.equals(this.status) || bounded != this.progress;
+        this.status = status;
+        this.progress = bounded;
+        if (message != null) {
+            this.message = message;
+        }
+        this.updatedAt = LocalDateTime.now();
+        return changed;
+    }
+
+    public synchronized void complete(String videoUrl, String fileName, long fileSize, String hlsUrl, List<String> clipErrors) {
+        if (isCancelled()) {
+            return;
+        }
+        this.videoUrl = videoUrl;
+        this.hlsUrl = hlsUrl;
+        this.fileName = fileName;
+        this.fileSize = fileSize;
+        this.clipErrors = List.copyOf(clipErrors);
+        this.status = STATUS_COMPLETED;
+        this.progress = 100;
+        this.message = clipErrors.isEmpty() ? "视频拼接成功" : "视频拼接成功，" + clipErrors.size() + " 个分镜视频获取失败已跳过";
+        this.updatedAt = LocalDateTime.now();
+        this.completedAt = updatedAt;
+    }
+
+    /**
+     * 相同内容的成片已存在，直接以该文件作为结果
+     */
+    public synchronized void completeWithExisting(String videoUrl, String fileName, long fileSize, String hlsUrl) {
+        complete(videoUrl, fileName, fileSize, hlsUrl, List.of());
+        this.message = "已复用相同内容的成片";
+    }
+
+    public synchronized void fail(String errorMessage) {
+        if (isCancelled()) {
+            return;
+        }
+        this.errorMessage = errorMessage;
+        this.status = STATUS_FAILED;
+        this.message = "视频拼接失败";
+        this.updatedAt = LocalDateTime.now();
+        this.completedAt = updatedAt;
+    }
+
+    /**
+     * 取消未结束的任务，已结束时返回false
+     */
+    public synchronized boolean cancel() {
+        if (isFinished()) {
+            return false;
+        }
+        this.status = STATUS_CANCELLED;
+        this.message = "任务已取消";
+        this.updatedAt = LocalDateTime.now();
+        this.completedAt = updatedAt;
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return STATUS_CANCELLED.equals(status);
+    }
+
+    public boolean isFinished() {
+        return STATUS_COMPLETED.equals(status) || STATUS_FAILED.equals(status) || STATUS_CANCELLED.equals(status);
+    }
+
+    // Getters
+    public String getJobId() {
+        return jobId;
+    }
+
+    public int getClipCount() {
+        return clipCount;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public int getProgress() {
+        return progress;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public String getVideoUrl() {
+        return videoUrl;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public Long getFileSize() {
+        return fileSize;
+    }
+
+    public String getHlsUrl() {
+        return hlsUrl;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public List<String> getClipErrors() {
+        return clipErrors;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public LocalDateTime getCompletedAt() {
+        return completedAt;
+    }
+
+    @Override
+    public String toString() {
+        return "ConcatJob{" +
+                "jobId='" + jobId + '\'' +
+                ", status='" + status + '\'' +
+                ", progress=" + progress +
+                ", fileName='" + fileName + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.springboot_pro.domain;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * 视频拼接任务日志（持久化），记录请求参数与已完成的阶段检查点，
+ * 服务重启后据此从最近的检查点继续渲染
+ */
+@Entity
+@Table(name = "render_jobs")
+public class RenderJob {
+
+    // 检查点：created -> segmented（分镜片段已就绪）-> rendered（成片已落盘）
+    public static final String STAGE_CREATED = "created";
+    public static final String STAGE_SEGMENTED = "segmented";
+    public static final String STAGE_RENDERED = "rendered";
+
+    public static final String STATUS_RUNNING = "running";
+    public static final String STATUS_COMPLETED = "completed";
+    public static final String STATUS_FAILED = "failed";
+    public static final String STATUS_CANCELLED = "cancelled";
+
+    @Id
+    @Column(name = "job_id", length = 36)
+    private String jobId;
+
+    @Column(name = "fingerprint", length = 64)
+    private String fingerprint; // 渲染指纹
+
+    @Column(name = "video_urls", nullable = false, columnDefinition = "TEXT")
+    private String videoUrls; // 分镜视频URL，每行一个
+
+    @Column(name = "background_music")
+    private String backgroundMusic;
+
+    @Column(name = "output_name")
+    private String outputName;
+
+    @Column(name = "status", nullable = false)
+    private String status; // 任务状态: running, completed, failed, cancelled
+
+    @Column(name = "stage", nullable = false)
+    private String stage; // 最近完成的检查点
+
+    @Column(name = "segment_paths", columnDefinition = "TEXT")
+    private String segmentPaths; // 分镜片段路径，每行一个
+
+    @Column(name = "failed_clips", columnDefinition = "TEXT")
+    private String failedClips; // 被跳过的分镜，每行 序号\tURL\t错误信息
+
+    @Column(name = "file_name")
+    private String fileName; // 成片文件名
+
+    @Column(name = "error_message", columnDefinition = "TEXT")
+    private String errorMessage;
+
+    @Column(name = "resume_count")
+    private Integer resumeCount; // 重启后恢复的次数
+
+    @Column(name = "subscribers", columnDefinition = "TEXT")
+    private String subscribers; // 提交或加入该任务的用户ID，每行一个
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
+    @Column(name = "completed_at")
+    private LocalDateTime completedAt;
+
+    @PrePersist
+    protected void onCreate() {
+        LocalDateTime now = LocalDateTime.now();
+        createdAt = now;
+        updatedAt = now;
+        if (status == null) {
+            status = STATUS_RUNNING;
+        }
+        if (stage == null) {
+            stage = STAGE_CREATED;
+        }
+        if (resumeCount == null) {
+            resumeCount = 0;
+        }
+    }
+
+    @PreUpdate
+    protected void onUpdate() {
+        updatedAt = LocalDateTime.now();
+        if (!STATUS_RUNNING.equals(status) && completedAt == null) {
+            completedAt = updatedAt;
+        }
+    }
+
+    // Getters and Setters
+    public String getSubscribers() {
+        return subscribers;
+    }
+
+    public void setSubscribers(String subscribers) {
+        this.subscribers = subscribers;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public void setJobId(String jobId) {
+        this.jobId = jobId;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public void setFingerprint(String fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    public String getVideoUrls() {
+        return videoUrls;
+    }
+
+    public void setVideoUrls(String videoUrls) {
+        this.videoUrls = videoUrls;
+    }
+
+    public String getBackgroundMusic() {
+        return backgroundMusic;
+    }
+
+    public void setBackgroundMusic(String backgroundMusic) {
+        this.backgroundMusic = backgroundMusic;
+    }
+
+    public String getOutputName() {
+        return outputName;
+    }
+
+    public void setOutputName(String outputName) {
+        this.outputName = outputName;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public String getStage() {
+        return stage;
+    }
+
+    public void setStage(String stage) {
+        this.stage = stage;
+    }
+
+    public String getSegmentPaths() {
+        return segmentPaths;
+    }
+
+    public void setSegmentPaths(String segmentPaths) {
+        this.segmentPaths = segmentPaths;
+    }
+
+    public String getFailedClips() {
+        return failedClips;
+    }
+
+    public void setFailedClips(String failedClips) {
+        this.failedClips = failedClips;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public void setErrorMessage(String errorMessage) {
+        this.errorMessage = errorMessage;
+    }
+
+    public Integer getResumeCount() {
+        return resumeCount;
+    }
+
+    public void setResumeCount(Integer resumeCount) {
+        this.resumeCount = resumeCount;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public LocalDateTime getCompletedAt() {
+        return completedAt;
+    }
+}
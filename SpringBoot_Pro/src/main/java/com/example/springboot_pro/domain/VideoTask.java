@@ -14,8 +14,8 @@ public class VideoTask {
     @Column(name = "storyboard_id", nullable = false)
     private Long storyboardId;
     
-    @Column(name = "task_id", nullable = false, unique = true)
-    private String taskId; // 山火API返回的任务ID
+    @Column(name = "task_id", unique = true)
+    private String taskId; // 山火API返回的任务ID，排队期间为空
     
     @Column(name = "image_url", nullable = false, columnDefinition = "TEXT")
     private String imageUrl; // 概念图URL
@@ -27,11 +27,17 @@ public class VideoTask {
     private String aspectRatio; // 视频比例
     
     @Column(name = "status", nullable = false)
-    private String status; // 任务状态: submitting, submitted, generating, completed, failed
+    private String status; // 任务状态: queued, submitting, submitted, generating, completed, failed
+    
+    @Column(name = "priority")
+    private String priority; // 提交优先级: preview, final
     
     @Column(name = "video_url", columnDefinition = "TEXT")
     private String videoUrl; // 生成的视频URL
     
+    @Column(name = "thumbnail_url", columnDefinition = "TEXT")
+    private String thumbnailUrl; // 视频封面图URL
+    
     @Column(name = "error_message", columnDefinition = "TEXT")
     private String errorMessage; // 错误信息
     
@@ -44,6 +50,18 @@ public class VideoTask {
     @Column(name = "updated_at")
     private LocalDateTime updatedAt;
     
+    @Column(name = "active_storyboard_key", unique = true)
+    private Long activeStoryboardKey; // 任务进行中时等于storyboardId、结束后清空，由唯一约束保证每个分镜头最多一个进行中的任务
+    
+    @Column(name = "idempotency_key", unique = true)
+    private String idempotencyKey; // 用户ID:客户端Idempotency-Key，重复请求返回同一任务
+    
+    @Column(name = "group_id")
+    private String groupId; // 批量生成时同一批任务共用的分组ID
+    
+    @Column(name = "submitted_at")
+    private LocalDateTime submittedAt; // 提交到山火API的时间，超时从此刻算起
+    
     @Column(name = "completed_at")
     private LocalDateTime completedAt; // 任务完成时间
     
@@ -62,6 +80,7 @@ public class VideoTask {
         if (status == null) {
             status = "submitting";
         }
+        syncActiveStoryboardKey();
     }
     
     @PreUpdate
@@ -73,6 +92,12 @@ public class VideoTask {
                 completedAt = LocalDateTime.now();
             }
         }
+        syncActiveStoryboardKey();
+    }
+    
+    private void syncActiveStoryboardKey() {
+        boolean finished = "completed".equals(status) || "failed".equals(status);
+        activeStoryboardKey = finished ? null : storyboardId;
     }
     
     // 构造函数
@@ -143,6 +168,14 @@ public class VideoTask {
         this.status = status;
     }
     
+    public String getPriority() {
+        return priority;
+    }
+    
+    public void setPriority(String priority) {
+        this.priority = priority;
+    }
+    
     public String getVideoUrl() {
         return videoUrl;
     }
@@ -183,6 +216,42 @@ public class VideoTask {
         this.updatedAt = updatedAt;
     }
     
+    public String getThumbnailUrl() {
+        return thumbnailUrl;
+    }
+    
+    public void setThumbnailUrl(String thumbnailUrl) {
+        this.thumbnailUrl = thumbnailUrl;
+    }
+    
+    public Long getActiveStoryboardKey() {
+        return activeStoryboardKey;
+    }
+    
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+    
+    public void setIdempotencyKey(String idempotencyKey) {
+        this.idempotencyKey = idempotencyKey;
+    }
+    
+    public String getGroupId() {
+        return groupId;
+    }
+    
+    public void setGroupId(String groupId) {
+        this.groupId = groupId;
+    }
+    
+    public LocalDateTime getSubmittedAt() {
+        return submittedAt;
+    }
+    
+    public void setSubmittedAt(LocalDateTime submittedAt) {
+        this.submittedAt = submittedAt;
+    }
+    
     public LocalDateTime getCompletedAt() {
         return completedAt;
     }
@@ -0,0 +1,90 @@
+package com.example.springboot_pro.domain;
+
+import java.time.LocalDateTime;
+
+/**
+ * 图生视频任务状态变更事件，写入数据库后发布，推送给任务所属用户
+ */
+public class VideoTaskStatusEvent {
+
+    private final Long userId;
+    private final Long videoTaskId;
+    private final String taskId;
+    private final Long storyboardId;
+    private final String status;
+    private final String videoUrl;
+    private final String thumbnailUrl;
+    private final String errorMessage;
+    private final LocalDateTime updatedAt;
+    private final Integer queuePosition;
+
+    public VideoTaskStatusEvent(VideoTask task) {
+        this(task, null);
+    }
+
+    /**
+     * @param queuePosition 排队中的任务在提交队列中的位置（从1开始），其他状态为null
+     */
+    public VideoTaskStatusEvent(VideoTask task, Integer queuePosition) {
+        this.userId = task.getUserId();
+        this.videoTaskId = task.getId();
+        this.taskId = task.getTaskId();
+        this.storyboardId = task.getStoryboardId();
+        this.status = task.getStatus();
+        this.videoUrl = task.getVideoUrl();
+        this.thumbnailUrl = task.getThumbnailUrl();
+        this.errorMessage = task.getErrorMessage();
+        this.updatedAt = task.getUpdatedAt();
+        this.queuePosition = queuePosition;
+    }
+
+    // Getters
+    public Long getUserId() {
+        return userId;
+    }
+
+    public Long getVideoTaskId() {
+        return videoTaskId;
+    }
+
+    public String getTaskId() {
+        return taskId;
+    }
+
+    public Long getStoryboardId() {
+        return storyboardId;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public String getVideoUrl() {
+        return videoUrl;
+    }
+
+    public String getThumbnailUrl() {
+        return thumbnailUrl;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public Integer getQueuePosition() {
+        return queuePosition;
+    }
+
+    @Override
+    public String toString() {
+        return "VideoTaskStatusEvent{" +
+                "taskId='" + taskId + '\'' +
+                ", userId=" + userId +
+                ", status='" + status + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.springboot_pro.dto;
+
+import java.util.List;
+
+/**
+ * 视频拼接请求参数
+ */
+public class VideoConcatRequest {
+
+    private List<String> videoUrls;
+    private String outputName;
+    private String backgroundMusic; // 背景音乐文件名
+
+    // 构造函数
+    public VideoConcatRequest() {}
+
+    // Getter 和 Setter 方法
+    public List<String> getVideoUrls() {
+        return videoUrls;
+    }
+
+    public void setVideoUrls(List<String> videoUrls) {
+        this.videoUrls = videoUrls;
+    }
+
+    public String getOutputName() {
+        return outputName;
+    }
+
+    public void setOutputName(String outputName) {
+        this.outputName = outputName;
+    }
+
+    public String getBackgroundMusic() {
+        return backgroundMusic;
+    }
+
+    public void setBackgroundMusic(String backgroundMusic) {
+        this.backgroundMusic = backgroundMusic;
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.springboot_pro.service;
+
+import com.example.springboot_pro.util.Mp4BoxParser;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 拼接前的编码兼容性检查：按视频流参数（编码、分辨率、帧率）分组，以多数分镜的参数为目标，
+ * 只有参数不一致的分镜需要转码，其余分镜保持流拷贝
+ */
+final class ConcatPreflight {
+
+    private ConcatPreflight() {}
+
+    /**
+     * 视频流参数，帧率保留两位小数比较
+     */
+    static final class ClipProfile {
+        final String codec;
+        final int width;
+        final int height;
+        final double frameRate;
+
+        ClipProfile(String codec, int width, int height, double frameRate) {
+            this.codec = codec;
+            this.width = width;
+            this.height = height;
+            this.frameRate = Math.round(frameRate * 100) / 100.0;
+        }
+
+        /**
+         * 可用作文件名的参数标识，如 avc1-1280x720-24
+         */
+        String key() {
+            String fps = frameRate == Math.rint(frameRate) ? String.valueOf((long) frameRate) : String.valueOf(frameRate);
+            return codec + "-" + width + "x" + height + "-" + fps;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ClipProfile other)) {
+                return false;
+            }
+            return width == other.width && height == other.height
+                    && Double.compare(frameRate, other.frameRate) == 0
+                    && codec.equals(other.codec);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(codec, width, height, frameRate);
+        }
+
+        @Override
+        public String toString() {
+            return key();
+        }
+    }
+
+    /**
+     * 读取分镜的视频流参数；非MP4/MOV或参数不完整时返回null，这类分镜总是转码
+     */
+    static ClipProfile probe(Path clip) throws IOException {
+        Mp4BoxParser.Mp4Info info = Mp4BoxParser.parse(clip);
+        if (info == null || !info.hasVideo() || info.getWidth() <= 0 || info.getHeight() <= 0 || info.getFrameRate() <= 0) {
+            return null;
+        }
+        return new ClipProfile(normalizeCodec(info.getVideoCodec()), info.getWidth(), info.getHeight(), info.getFrameRate());
+    }
+
+    /**
+     * 选出目标参数：出现次数最多且可以编码输出的参数，次数相同时取先出现的；
+     * 没有可用参数时返回 fallback
+     */
+    static ClipProfile selectTarget(List<ClipProfile> profiles, ClipProfile fallback) {
+        Map<ClipProfile, Integer> counts = new LinkedHashMap<>();
+        for (ClipProfile profile : profiles) {
+            if (profile != null && encoderFor(profile.codec) != null) {
+                counts.merge(profile, 1, Integer::sum);
+            }
+        }
+        ClipProfile target = fallback;
+        int best = 0;
+        for (Map.Entry<ClipProfile, Integer> entry : counts.entrySet()) {
+            if (entry.getValue() > best) {
+                target = entry.getKey();
+                best = entry.getValue();
+            }
+        }
+        return target;
+    }
+
+    /**
+     * 目标编码对应的FFmpeg编码器，不支持输出的编码返回null
+     */
+    static String encoderFor(String codec) {
+        return switch (codec) {
+            case "avc1" -> "libx264";
+            case "hvc1" -> "libx265";
+            default -> null;
+        };
+    }
+
+    /**
+     * 同一编码的不同 sample entry 视为相同编码（avc3 与 avc1 仅参数集存放位置不同，转成TS后一致）
+     */
+    private static String normalizeCodec(String codec) {
+        return switch (codec) {
+            case "avc1", "avc3" -> "avc1";
+            case "hvc1", "hev1" -> "hvc1";
+            default -> codec;
+        };
+    }
+}
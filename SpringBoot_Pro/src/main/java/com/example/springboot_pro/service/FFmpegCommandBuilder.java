@@ -0,0 +1,71 @@
+package com.example.springboot_pro.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * FFmpeg命令构建：按 输入 -> 滤镜图 -> 流映射 -> 输出参数 的顺序组装参数，
+ * 使拼接、混音等多个步骤可以合并为一次调用
+ */
+public class FFmpegCommandBuilder {
+
+    private final List<String> inputs = new ArrayList<>();
+    private final List<String> filters = new ArrayList<>();
+    private final List<String> maps = new ArrayList<>();
+    private final List<String> outputOptions = new ArrayList<>();
+    private int inputCount;
+
+    /**
+     * 添加输入，options 为作用于该输入的参数（如 "-f", "concat"），返回输入序号
+     */
+    public int input(String path, String... options) {
+        inputs.addAll(List.of(options));
+        inputs.add("-i");
+        inputs.add(path);
+        return inputCount++;
+    }
+
+    /**
+     * 拼接列表输入（concat demuxer），列表中的文件流布局需一致
+     */
+    public int concatInput(String listPath) {
+        return input(listPath, "-f", "concat", "-safe", "0");
+    }
+
+    /**
+     * 添加一条滤镜链，多条链以分号合并为 -filter_complex
+     */
+    public FFmpegCommandBuilder filter(String chain) {
+        filters.add(chain);
+        return this;
+    }
+
+    public FFmpegCommandBuilder map(String stream) {
+        maps.add("-map");
+        maps.add(stream);
+        return this;
+    }
+
+    public FFmpegCommandBuilder outputOptions(String... options) {
+        outputOptions.addAll(List.of(options));
+        return this;
+    }
+
+    /**
+     * 生成完整命令，输出文件已存在时覆盖
+     */
+    public List<String> build(String outputPath) {
+        List<String> command = new ArrayList<>();
+        command.add("ffmpeg");
+        command.addAll(inputs);
+        if (!filters.isEmpty()) {
+            command.add("-filter_complex");
+            command.add(String.join(";", filters));
+        }
+        command.addAll(maps);
+        command.addAll(outputOptions);
+        command.add("-y");
+        command.add(outputPath);
+        return command;
+    }
+}
@@ -0,0 +1,314 @@
+package com.example.springboot_pro.service;
+
+import com.example.springboot_pro.util.Mp4BoxParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * 成片HLS打包：原始码率流拷贝切片，可选生成低码率版本，与MP4一起保存在作品目录
+ *
+ * 目录结构: {作品目录}/hls/{成片名}/master.m3u8，各版本在 source/、{高度}p/ 子目录中
+ */
+@Service
+public class HlsPackagingService {
+
+    private static final Logger logger = LoggerFactory.getLogger(HlsPackagingService.class);
+
+    public static final String HLS_DIR = "hls";
+    public static final String MASTER_PLAYLIST = "master.m3u8";
+    public static final String HLS_ACCESS_URL_BASE = "http://localhost:8080/api/video/hls/";
+
+    private static final String SOURCE_RENDITION = "source";
+
+    // 渲染完成后是否生成HLS
+    @Value("${video.hls.enabled:false}")
+    private boolean enabled;
+
+    @Value("${video.hls.segment-seconds:4}")
+    private int segmentSeconds;
+
+    // 额外的低码率版本，格式为 高度:视频码率，多个以逗号分隔，如 "720:2500k,480:1000k"；不高于原始分辨率的才会生成
+    @Value("${video.hls.renditions:}")
+    private String renditions;
+
+    @Autowired
+    private MediaProcessSupervisor processSupervisor;
+
+    /**
+     * 低码率版本参数
+     */
+    static class Rendition {
+        final int height;
+        final String videoBitrate;
+
+        Rendition(int height, String videoBitrate) {
+            this.height = height;
+            this.videoBitrate = videoBitrate;
+        }
+
+        String name() {
+            return height + "p";
+        }
+
+        /**
+         * 码率字符串转为 bit/s，支持 k/M 后缀
+         */
+        long bitsPerSecond() {
+            String value = videoBitrate.toLowerCase();
+            if (value.endsWith("k")) {
+                return Long.parseLong(value.substring(0, value.length() - 1)) * 1000;
+            }
+            if (value.endsWith("m")) {
+                return Long.parseLong(value.substring(0, value.length() - 1)) * 1_000_000;
+            }
+            return Long.parseLong(value);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 成片对应的HLS目录，文件名不合法时返回null
+     */
+    public static Path hlsDirFor(String videoFileName) {
+        if (videoFileName == null || videoFileName.contains("..") || videoFileName.contains("/") || videoFileName.contains("\\")) {
+            return null;
+        }
+        return Paths.get(VideoConcatService.PERSISTENT_VIDEO_DIR, HLS_DIR, baseName(videoFileName));
+    }
+
+    /**
+     * 主播放列表的访问URL
+     */
+    public static String playlistUrlFor(String videoFileName) {
+        return HLS_ACCESS_URL_BASE + baseName(videoFileName) + "/" + MASTER_PLAYLIST;
+    }
+
+    /**
+     * 为成片生成HLS，成功时返回主播放列表URL；未启用或失败时返回null（不影响MP4成片）
+     */
+    public String packageVideo(String jobId, Path video) {
+        if (!enabled) {
+            return null;
+        }
+        String fileName = video.getFileName().toString();
+        Path targetDir = hlsDirFor(fileName);
+        if (targetDir == null) {
+            return null;
+        }
+        Path workDir = targetDir.resolveSibling("." + targetDir.getFileName() + ".part");
+        try {
+            deleteRecursively(workDir);
+            Files.createDirectories(workDir);
+
+            Mp4BoxParser.Mp4Info info = Mp4BoxParser.parse(video);
+            List<String> variants = new ArrayList<>();
+
+            // 原始版本只做流拷贝切片
+            if (!segment(jobId, video, workDir.resolve(SOURCE_RENDITION), null)) {
+                return null;
+            }
+            long sourceAverage = sourceBandwidth(video, info);
+            // 无法从切片测得峰值时按平均码率的两倍保守估计
+            Bandwidth sourceBandwidth = measureBandwidth(workDir.resolve(SOURCE_RENDITION),
+                    new Bandwidth(sourceAverage * 2, sourceAverage));
+            variants.add(variantEntry(SOURCE_RENDITION, sourceBandwidth,
+                    info != null ? info.getWidth() : 0, info != null ? info.getHeight() : 0));
+
+            for (Rendition rendition : parseRenditions(renditions)) {
+                if (info == null || rendition.height >= info.getHeight()) {
+                    continue;
+                }
+                if (!segment(jobId, video, workDir.resolve(rendition.name()), rendition)) {
+                    logger.warn("HLS低码率版本生成失败，跳过: {} {}", fileName, rendition.name());
+                    deleteRecursively(workDir.resolve(rendition.name()));
+                    continue;
+                }
+                int width = (int) Math.round((double) info.getWidth() * rendition.height / info.getHeight() / 2) * 2;
+                // 转码时 -maxrate 限制了视频码率，测不到时以其加音频码率作为峰值
+                long capped = rendition.bitsPerSecond() + 128_000;
+                Bandwidth bandwidth = measureBandwidth(workDir.resolve(rendition.name()), new Bandwidth(capped, capped));
+                variants.add(variantEntry(rendition.name(), bandwidth, width, rendition.height));
+            }
+
+            StringBuilder master = new StringBuilder("#EXTM3U\n#EXT-X-VERSION:3\n");
+            variants.forEach(master::append);
+            Files.writeString(workDir.resolve(MASTER_PLAYLIST), master.toString(), StandardCharsets.UTF_8);
+
+            deleteRecursively(targetDir);
+            Files.move(workDir, targetDir, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("HLS打包完成: {} ({} 个版本)", targetDir, variants.size());
+            return playlistUrlFor(fileName);
+        } catch (IOException e) {
+            logger.warn("HLS打包失败: {} - {}", fileName, e.getMessage());
+            return null;
+        } finally {
+            try {
+                deleteRecursively(workDir);
+            } catch (IOException e) {
+                logger.warn("清理HLS临时目录失败: {} - {}", workDir, e.getMessage());
+            }
+        }
+    }
+
+    private boolean segment(String jobId, Path video, Path outputDir, Rendition rendition) throws IOException {
+        Files.createDirectories(outputDir);
+        FFmpegCommandBuilder builder = new FFmpegCommandBuilder();
+        builder.input(video.toString());
+        if (rendition == null) {
+            builder.outputOptions("-c", "copy");
+        } else {
+            builder.outputOptions("-vf", "scale=-2:" + rendition.height,
+                    "-c:v", "libx264", "-preset", "veryfast",
+                    "-b:v", rendition.videoBitrate, "-maxrate", rendition.videoBitrate, "-bufsize", rendition.videoBitrate,
+                    // 关键帧与切片时长对齐，保证每个切片可以独立解码
+                    "-force_key_frames", "expr:gte(t,n_forced*" + segmentSeconds + ")",
+                    "-c:a", "aac", "-b:a", "128k");
+        }
+        builder.outputOptions("-f", "hls",
+                "-hls_time", String.valueOf(segmentSeconds),
+                "-hls_playlist_type", "vod",
+                "-hls_segment_filename", outputDir.resolve("seg_%05d.ts").toString());
+        Path playlist = outputDir.resolve("index.m3u8");
+        String label = rendition == null ? "HLS切片" : "HLS转码" + rendition.name();
+        try {
+            MediaProcessSupervisor.ProcessResult result = processSupervisor.run(jobId, label, builder.build(playlist.toString()), 600, null);
+            if (!result.isSuccess()) {
+                if (!result.isCancelled()) {
+                    logger.error("{}失败，退出码: {}\nFFmpeg输出:\n{}", label, result.getExitCode(), result.getOutput());
+                }
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return Files.isRegularFile(playlist);
+    }
+
+    /**
+     * BANDWIDTH 按 RFC 8216 为峰值码率（播放器据此选择版本，用平均值会在码率高的片段卡顿），平均值放在 AVERAGE-BANDWIDTH
+     */
+    private static String variantEntry(String name, Bandwidth bandwidth, int width, int height) {
+        StringBuilder entry = new StringBuilder("#EXT-X-STREAM-INF:BANDWIDTH=").append(Math.max(bandwidth.peak, 1));
+        if (bandwidth.average > 0) {
+            entry.append(",AVERAGE-BANDWIDTH=").append(Math.min(bandwidth.average, Math.max(bandwidth.peak, 1)));
+        }
+        if (width > 0 && height > 0) {
+            entry.append(",RESOLUTION=").append(width).append('x').append(height);
+        }
+        return entry.append('\n').append(name).append("/index.m3u8\n").toString();
+    }
+
+    /**
+     * 版本码率，单位 bit/s
+     */
+    static class Bandwidth {
+        final long peak;
+        final long average;
+
+        Bandwidth(long peak, long average) {
+            this.peak = peak;
+            this.average = average;
+        }
+    }
+
+    /**
+     * 由切片实测码率：峰值为单个切片的最大码率，平均值为全部切片大小除以总时长；播放列表无法解析时返回 fallback
+     */
+    static Bandwidth measureBandwidth(Path renditionDir, Bandwidth fallback) {
+        try {
+            List<String> lines = Files.readAllLines(renditionDir.resolve("index.m3u8"), StandardCharsets.UTF_8);
+            double totalSeconds = 0;
+            long totalBits = 0;
+            long peak = 0;
+            double segmentSeconds = -1;
+            for (String line : lines) {
+                line = line.trim();
+                if (line.startsWith("#EXTINF:")) {
+                    String value = line.substring("#EXTINF:".length());
+                    int comma = value.indexOf(',');
+                    segmentSeconds = Double.parseDouble(comma >= 0 ? value.substring(0, comma) : value);
+                } else if (!line.isEmpty() && !line.startsWith("#") && segmentSeconds > 0) {
+                    long bits = Files.size(renditionDir.resolve(line)) * 8;
+                    peak = Math.max(peak, (long) Math.ceil(bits / segmentSeconds));
+                    totalBits += bits;
+                    totalSeconds += segmentSeconds;
+                    segmentSeconds = -1;
+                }
+            }
+            if (peak <= 0 || totalSeconds <= 0) {
+                return fallback;
+            }
+            return new Bandwidth(peak, Math.round(totalBits / totalSeconds));
+        } catch (IOException | NumberFormatException e) {
+            logger.warn("读取HLS切片码率失败，使用估算值: {} - {}", renditionDir, e.getMessage());
+            return fallback;
+        }
+    }
+
+    /**
+     * 原始版本的平均码率，由文件大小与时长估算
+     */
+    private static long sourceBandwidth(Path video, Mp4BoxParser.Mp4Info info) throws IOException {
+        if (info == null || info.getDurationMicros() <= 0) {
+            return 0;
+        }
+        return Files.size(video) * 8 * 1_000_000L / info.getDurationMicros();
+    }
+
+    static List<Rendition> parseRenditions(String value) {
+        List<Rendition> result = new ArrayList<>();
+        if (value == null || value.isBlank()) {
+            return result;
+        }
+        for (String spec : value.split(",")) {
+            String[] parts = spec.trim().split(":");
+            if (parts.length != 2) {
+                logger.warn("忽略无效的HLS版本配置: {}", spec);
+                continue;
+            }
+            try {
+                Rendition rendition = new Rendition(Integer.parseInt(parts[0].trim()), parts[1].trim());
+                rendition.bitsPerSecond();
+                result.add(rendition);
+            } catch (NumberFormatException e) {
+                logger.warn("忽略无效的HLS版本配置: {}", spec);
+            }
+        }
+        result.sort(Comparator.comparingInt((Rendition rendition) -> rendition.height).reversed());
+        return result;
+    }
+
+    private static String baseName(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot > 0 ? fileName.substring(0, dot) : fileName;
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.springboot_pro.service;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 共享HTTP客户端：复用连接与TLS会话（支持HTTP/2），统一超时并限制每个主机的并发连接数
+ */
+@Service
+public class HttpClientService {
+
+    private static final Logger logger = LoggerFactory.getLogger(HttpClientService.class);
+
+    @Value("${http.client.connect-timeout-ms:10000}")
+    private long connectTimeoutMs;
+
+    // 单次请求从发出到收到完整响应的超时
+    @Value("${http.client.read-timeout-ms:30000}")
+    private long readTimeoutMs;
+
+    // 同一主机同时进行的请求上限，超出时排队等待
+    @Value("${http.client.max-connections-per-route:8}")
+    private int maxConnectionsPerRoute;
+
+    private HttpClient httpClient;
+
+    // host:port -> 并发许可
+    private final Map<String, Semaphore> routePermits = new ConcurrentHashMap<>();
+
+    private final AtomicLong totalRequests = new AtomicLong();
+    private final AtomicLong failedRequests = new AtomicLong();
+    private final AtomicLong http2Responses = new AtomicLong();
+    private final AtomicLong totalLatencyMs = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    /**
+     * 响应状态码与UTF-8解码后的响应体
+     */
+    public static class Response {
+        private final int statusCode;
+        private final String body;
+
+        public Response(int statusCode, String body) {
+            this.statusCode = statusCode;
+            this.body = body;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        public String getBody() {
+            return body;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+        logger.info("共享HTTP客户端已创建: 连接超时={}ms, 读取超时={}ms, 每主机并发={}", connectTimeoutMs, readTimeoutMs, maxConnectionsPerRoute);
+    }
+
+    /**
+     * 发送请求并读取完整响应，headers 中不能包含 Host 等受限请求头（由URI决定）
+     */
+    public Response send(String method, URI uri, Map<String, String> headers, byte[] body) throws IOException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+                .timeout(Duration.ofMillis(readTimeoutMs))
+                .method(method, body == null || body.length == 0
+                        ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofByteArray(body));
+        headers.forEach(builder::header);
+
+        Semaphore permits = routePermits.computeIfAbsent(routeOf(uri), key -> new Semaphore(maxConnectionsPerRoute));
+        waiting.incrementAndGet();
+        try {
+            if (!permits.tryAcquire(readTimeoutMs, TimeUnit.MILLISECONDS)) {
+                failedRequests.incrementAndGet();
+                throw new IOException("等待连接超时: " + routeOf(uri));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("请求被中断", e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+
+        inFlight.incrementAndGet();
+        long start = System.currentTimeMillis();
+        try {
+            HttpResponse<String> response = httpClient.send(builder.build(), HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+            totalRequests.incrementAndGet();
+            if (response.version() == HttpClient.Version.HTTP_2) {
+                http2Responses.incrementAndGet();
+            }
+            return new Response(response.statusCode(), response.body());
+        } catch (IOException e) {
+            failedRequests.incrementAndGet();
+            throw e;
+        } catch (InterruptedException e) {
+            failedRequests.incrementAndGet();
+            Thread.currentThread().interrupt();
+            throw new IOException("请求被中断", e);
+        } finally {
+            totalLatencyMs.addAndGet(System.currentTimeMillis() - start);
+            inFlight.decrementAndGet();
+            permits.release();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long completed = totalRequests.get();
+        long failed = failedRequests.get();
+        stats.put("totalRequests", completed);
+        stats.put("failedRequests", failed);
+        stats.put("http2Responses", http2Responses.get());
+        stats.put("inFlight", inFlight.get());
+        stats.put("waitingForConnection", waiting.get());
+        stats.put("averageLatencyMs", completed + failed == 0 ? 0 : totalLatencyMs.get() / (completed + failed));
+        stats.put("maxConnectionsPerRoute", maxConnectionsPerRoute);
+        Map<String, Integer> routes = new LinkedHashMap<>();
+        routePermits.forEach((route, permits) -> routes.put(route, maxConnectionsPerRoute - permits.availablePermits()));
+        stats.put("activeByRoute", routes);
+        return stats;
+    }
+
+    private static String routeOf(URI uri) {
+        int port = uri.getPort();
+        if (port < 0) {
+            port = "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+        }
+        return uri.getHost() + ":" + port;
+    }
+}
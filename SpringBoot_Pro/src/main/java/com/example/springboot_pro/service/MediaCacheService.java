@@ -0,0 +1,412 @@
+package com.example.springboot_pro.service;
+
+import jakarta.annotation.PostConstruct;
+import org.apache.commons.codec.binary.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 本地媒体缓存：按源URL索引、按内容SHA-256存储，超出容量时按LRU淘汰；未命中时通过可续传的下载管理器获取
+ *
+ * 目录结构: {cacheDir}/blobs/{sha256}.{ext}，{cacheDir}/url-index.properties 记录 URL -> sha256
+ */
+@Service
+public class MediaCacheService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MediaCacheService.class);
+
+    private static final String INDEX_FILE = "url-index.properties";
+
+    @Value("${media.cache.dir:D:/SpringBoot_Pro/cache}")
+    private String cacheDir;
+
+    // 缓存容量上限，默认10GB
+    @Value("${media.cache.max-bytes:10737418240}")
+    private long maxBytes;
+
+    @Autowired
+    private MediaDownloadService mediaDownloadService;
+
+    private Path blobDir;
+    private Path tmpDir;
+
+    // sha256 -> 缓存条目，accessOrder=true 使迭代顺序即LRU顺序
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<String, String> urlIndex = new HashMap<>();
+    private long totalBytes;
+
+    // 同一URL的并发未命中只下载一次：URL -> 正在进行的下载，等待者加入同一次下载
+    private final Map<String, CompletableFuture<Void>> inflightDownloads = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong bytesDownloaded = new AtomicLong();
+    private final AtomicLong bytesServed = new AtomicLong();
+
+    private static class CacheEntry {
+        final String hash;
+        final Path path;
+        final long size;
+        int pins;
+
+        CacheEntry(String hash, Path path, long size) {
+            this.hash = hash;
+            this.path = path;
+            this.size = size;
+        }
+    }
+
+    /**
+     * 缓存文件租约，持有期间对应文件不会被淘汰
+     */
+    public class Lease implements AutoCloseable {
+        private final CacheEntry entry;
+        private boolean released;
+
+        private Lease(CacheEntry entry) {
+            this.entry = entry;
+        }
+
+        public Path getPath() {
+            return entry.path;
+        }
+
+        public String getContentHash() {
+            return entry.hash;
+        }
+
+        @Override
+        public void close() {
+            synchronized (MediaCacheService.this) {
+                if (!released) {
+                    released = true;
+                    entry.pins--;
+                }
+            }
+        }
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        Path root = Paths.get(cacheDir);
+        blobDir = root.resolve("blobs");
+        tmpDir = root.resolve("tmp");
+        // 目录在首次下载时创建
+        if (Files.isDirectory(blobDir)) {
+            loadIndex(root);
+        }
+        logger.info("媒体缓存已加载: 目录={}, 文件数={}, 占用={} 字节, 上限={} 字节", root, entries.size(), totalBytes, maxBytes);
+    }
+
+    /**
+     * 获取URL对应的本地缓存文件，未命中时下载；使用完毕后必须关闭租约
+     */
+    public Lease acquire(String url) throws IOException {
+        Lease lease = lookup(url);
+        if (lease != null) {
+            return lease;
+        }
+
+        while (true) {
+            CompletableFuture<Void> flight = new CompletableFuture<>();
+            CompletableFuture<Void> existing = inflightDownloads.putIfAbsent(url, flight);
+            if (existing != null) {
+                // 同一URL正在由其他线程下载，等待结束后从缓存获取，不会有两个线程同时写同一个临时文件
+                awaitDownload(url, existing);
+                lease = lookup(url);
+                if (lease != null) {
+                    return lease;
+                }
+                // 下载完成后立即被淘汰，重新竞争下载
+                continue;
+            }
+            try {
+                // 成为下载者之前可能刚有其他线程完成下载
+                lease = lookup(url);
+                if (lease == null) {
+                    misses.incrementAndGet();
+                    lease = download(url);
+                }
+                flight.complete(null);
+                return lease;
+            } catch (IOException | RuntimeException e) {
+                flight.completeExceptionally(e);
+                throw e;
+            } finally {
+                // 只由下载者移除，等待者加入的始终是同一次下载
+                inflightDownloads.remove(url, flight);
+            }
+        }
+    }
+
+    private void awaitDownload(String url, CompletableFuture<Void> flight) throws IOException {
+        try {
+            flight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待媒体下载时被中断: " + url);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException("媒体下载失败: " + url, cause);
+        }
+    }
+
+    /**
+     * 将URL对应的内容放到目标路径（优先硬链接，失败时复制），用于需要固定文件名的场景
+     */
+    public Path materialize(String url, Path target) throws IOException {
+        try (Lease lease = acquire(url)) {
+            Files.createDirectories(target.toAbsolutePath().getParent());
+            // 先放到临时文件再原子替换，目标路径上不会出现写了一半的文件
+            Path partPath = target.resolveSibling("." + target.getFileName() + ".part");
+            try {
+                Files.deleteIfExists(partPath);
+                try {
+                    Files.createLink(partPath, lease.getPath());
+                } catch (IOException | UnsupportedOperationException e) {
+                    // 跨磁盘或文件系统不支持硬链接
+                    Files.copy(lease.getPath(), partPath, StandardCopyOption.REPLACE_EXISTING);
+                }
+                Files.move(partPath, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(partPath);
+            }
+            return target;
+        }
+    }
+
+    /**
+     * 移除URL索引（例如缓存内容校验失败），内容文件由LRU淘汰
+     */
+    public synchronized void invalidate(String url) {
+        if (urlIndex.remove(url) != null) {
+            saveIndex();
+        }
+    }
+
+    public Path getCacheDir() {
+        return Paths.get(cacheDir);
+    }
+
+    /**
+     * 按LRU淘汰未在使用的条目，直到释放 bytesToFree 字节或没有可淘汰的条目，返回实际释放的字节数
+     */
+    public synchronized long trim(long bytesToFree) {
+        long before = totalBytes;
+        evictDownTo(Math.min(maxBytes, Math.max(0, totalBytes - bytesToFree)));
+        return before - totalBytes;
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        stats.put("entries", entries.size());
+        stats.put("urls", urlIndex.size());
+        stats.put("totalBytes", totalBytes);
+        stats.put("maxBytes", maxBytes);
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hitRatio", hitCount + missCount == 0 ? 0.0 : (double) hitCount / (hitCount + missCount));
+        stats.put("evictions", evictions.get());
+        stats.put("bytesDownloaded", bytesDownloaded.get());
+        stats.put("bytesServedFromCache", bytesServed.get());
+        return stats;
+    }
+
+    private synchronized Lease lookup(String url) {
+        String hash = urlIndex.get(url);
+        if (hash == null) {
+            return null;
+        }
+        CacheEntry entry = entries.get(hash);
+        if (entry == null || !Files.exists(entry.path)) {
+            // 文件被外部删除
+            if (entry != null) {
+                removeEntry(entry);
+            }
+            urlIndex.remove(url);
+            return null;
+        }
+        hits.incrementAndGet();
+        bytesServed.addAndGet(entry.size);
+        entry.pins++;
+        touch(entry.path);
+        return new Lease(entry);
+    }
+
+    private Lease download(String url) throws IOException {
+        Files.createDirectories(blobDir);
+        Files.createDirectories(tmpDir);
+        // 临时文件名由URL决定，下载中断后再次获取同一URL时可以续传
+        Path partFile = tmpDir.resolve(sha256Hex(url) + ".part");
+
+        logger.info("媒体缓存未命中，开始下载: {}", url);
+        MediaDownloadService.DownloadResult result = mediaDownloadService.download(url, partFile);
+        bytesDownloaded.addAndGet(result.getBytesTransferred());
+
+        String hash = result.getSha256();
+        Path blob = blobDir.resolve(hash + extensionOf(url));
+        try {
+            synchronized (this) {
+                CacheEntry entry = entries.get(hash);
+                if (entry == null) {
+                    // 内容相同的文件只保存一份
+                    Files.move(partFile, blob, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    entry = new CacheEntry(hash, blob, result.getSize());
+                    entries.put(hash, entry);
+                    totalBytes += result.getSize();
+                }
+                urlIndex.put(url, hash);
+                entry.pins++;
+                saveIndex();
+                evictIfNeeded();
+                logger.info("媒体已缓存: {} -> {} ({} 字节)", url, entry.path.getFileName(), result.getSize());
+                return new Lease(entry);
+            }
+        } finally {
+            Files.deleteIfExists(partFile);
+        }
+    }
+
+    /**
+     * 超出容量时从最久未使用的条目开始淘汰，正在使用的条目跳过
+     */
+    private void evictIfNeeded() {
+        evictDownTo(maxBytes);
+    }
+
+    private void evictDownTo(long limit) {
+        if (totalBytes <= limit) {
+            return;
+        }
+        Iterator<CacheEntry> iterator = entries.values().iterator();
+        while (totalBytes > limit && iterator.hasNext()) {
+            CacheEntry entry = iterator.next();
+            if (entry.pins > 0) {
+                continue;
+            }
+            try {
+                Files.deleteIfExists(entry.path);
+            } catch (IOException e) {
+                logger.warn("删除缓存文件失败: {} - {}", entry.path, e.getMessage());
+                continue;
+            }
+            iterator.remove();
+            totalBytes -= entry.size;
+            urlIndex.values().removeIf(entry.hash::equals);
+            evictions.incrementAndGet();
+            logger.info("媒体缓存淘汰: {} ({} 字节)", entry.path.getFileName(), entry.size);
+        }
+        saveIndex();
+    }
+
+    private void removeEntry(CacheEntry entry) {
+        entries.remove(entry.hash);
+        totalBytes -= entry.size;
+        urlIndex.values().removeIf(entry.hash::equals);
+    }
+
+    /**
+     * 启动时按文件修改时间恢复LRU顺序，并加载URL索引
+     */
+    private synchronized void loadIndex(Path root) throws IOException {
+        List<Path> blobs;
+        try (Stream<Path> stream = Files.list(blobDir)) {
+            blobs = stream.filter(Files::isRegularFile)
+                    .sorted(Comparator.comparingLong(this::lastModified))
+                    .toList();
+        }
+        for (Path blob : blobs) {
+            String fileName = blob.getFileName().toString();
+            int dot = fileName.indexOf('.');
+            String hash = dot > 0 ? fileName.substring(0, dot) : fileName;
+            long size = Files.size(blob);
+            entries.put(hash, new CacheEntry(hash, blob, size));
+            totalBytes += size;
+        }
+
+        Path indexFile = root.resolve(INDEX_FILE);
+        if (Files.exists(indexFile)) {
+            Properties properties = new Properties();
+            try (Reader reader = Files.newBufferedReader(indexFile)) {
+                properties.load(reader);
+            }
+            for (String url : properties.stringPropertyNames()) {
+                String hash = properties.getProperty(url);
+                if (entries.containsKey(hash)) {
+                    urlIndex.put(url, hash);
+                }
+            }
+        }
+    }
+
+    private void saveIndex() {
+        Path indexFile = Paths.get(cacheDir, INDEX_FILE);
+        Path tmpIndex = tmpDir.resolve(INDEX_FILE + ".tmp");
+        Properties properties = new Properties();
+        properties.putAll(urlIndex);
+        try (Writer writer = Files.newBufferedWriter(tmpIndex)) {
+            properties.store(writer, "media cache url index");
+            Files.move(tmpIndex, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("保存媒体缓存索引失败: {}", e.getMessage());
+        }
+    }
+
+    private long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0L;
+        }
+    }
+
+    private void touch(Path path) {
+        try {
+            Files.setLastModifiedTime(path, java.nio.file.attribute.FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // 仅影响重启后的LRU顺序
+        }
+    }
+
+    private static String sha256Hex(String value) throws IOException {
+        try {
+            return Hex.encodeHexString(MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (java.security.NoSuchAlgorithmException e) {
+            throw new IOException("无法计算哈希: " + e.getMessage(), e);
+        }
+    }
+
+    private static String extensionOf(String url) {
+        String path = url;
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+        int slash = path.lastIndexOf('/');
+        int dot = path.lastIndexOf('.');
+        if (dot > slash && path.length() - dot <= 6) {
+            String ext = path.substring(dot).toLowerCase();
+            if (ext.matches("\\.[a-z0-9]+")) {
+                return ext;
+            }
+        }
+        return ".bin";
+    }
+}
@@ -0,0 +1,540 @@
+package com.example.springboot_pro.service;
+
+import org.apache.commons.codec.binary.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 媒体文件下载：写入 .part 临时文件，断线后按 HTTP Range 从已下载位置续传，
+ * 大文件拆分为多个区间并行下载，完成后校验长度（及服务端提供的 Content-MD5）并计算SHA-256
+ *
+ * 下载进度保存在 {part}.meta 中，下载失败时保留临时文件，下次下载同一URL时继续
+ */
+@Service
+public class MediaDownloadService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MediaDownloadService.class);
+
+    private static final String USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36";
+    private static final Pattern CONTENT_RANGE_PATTERN = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+    private static final int BUFFER_SIZE = 256 * 1024;
+    // 每写入该字节数保存一次区间进度
+    private static final long CHECKPOINT_BYTES = 16L * 1024 * 1024;
+
+    @Value("${media.download.connect-timeout-ms:30000}")
+    private int connectTimeoutMs;
+
+    // 两次读取之间的最长等待，超过即视为断线并续传
+    @Value("${media.download.read-timeout-ms:60000}")
+    private int readTimeoutMs;
+
+    // 每个区间的最大尝试次数
+    @Value("${media.download.max-attempts:5}")
+    private int maxAttempts;
+
+    // 达到该大小且服务端支持 Range 时拆分并行下载，默认32MB
+    @Value("${media.download.parallel-threshold-bytes:33554432}")
+    private long parallelThresholdBytes;
+
+    @Value("${media.download.parallel-ranges:4}")
+    private int parallelRanges;
+
+    private final AtomicLong downloads = new AtomicLong();
+    private final AtomicLong resumedDownloads = new AtomicLong();
+    private final AtomicLong parallelDownloads = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong verificationFailures = new AtomicLong();
+    private final AtomicLong bytesTransferred = new AtomicLong();
+
+    /**
+     * 下载结果
+     */
+    public static class DownloadResult {
+        private final long size;
+        private final String sha256;
+        private final long bytesTransferred;
+
+        DownloadResult(long size, String sha256, long bytesTransferred) {
+            this.size = size;
+            this.sha256 = sha256;
+            this.bytesTransferred = bytesTransferred;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public String getSha256() {
+            return sha256;
+        }
+
+        /**
+         * 本次实际从网络读取的字节数（续传时小于文件大小）
+         */
+        public long getBytesTransferred() {
+            return bytesTransferred;
+        }
+    }
+
+    /**
+     * 服务端资源在续传期间发生变化
+     */
+    private static class ResourceChangedException extends IOException {
+        ResourceChangedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * 下载状态：资源校验值、总长度与各区间已完成的字节数
+     */
+    private static class DownloadState {
+        String url;
+        String validator; // ETag 或 Last-Modified，用于 If-Range
+        String contentMd5;
+        long length = -1; // -1 表示长度未知
+        boolean rangeSupported;
+        final List<Range> ranges = new ArrayList<>();
+    }
+
+    private static class Range {
+        final long start;
+        final long end; // 包含
+        final AtomicLong done = new AtomicLong();
+
+        Range(long start, long end, long done) {
+            this.start = start;
+            this.end = end;
+            this.done.set(done);
+        }
+
+        long length() {
+            return end - start + 1;
+        }
+
+        boolean isComplete() {
+            return done.get() >= length();
+        }
+    }
+
+    /**
+     * 下载URL到 partFile，返回时文件已完整并通过校验；由调用方原子移动到最终位置
+     */
+    public DownloadResult download(String url, Path partFile) throws IOException {
+        Files.createDirectories(partFile.toAbsolutePath().getParent());
+        Path metaFile = partFile.resolveSibling(partFile.getFileName() + ".meta");
+        AtomicLong transferred = new AtomicLong();
+        downloads.incrementAndGet();
+
+        DownloadState state = loadState(metaFile, url);
+        if (state != null && Files.exists(partFile)) {
+            resumedDownloads.incrementAndGet();
+            logger.info("继续未完成的下载: {} ({}/{} 字节)", url, completedBytes(state), state.length);
+        } else {
+            state = null;
+        }
+
+        // 续传期间资源发生变化时重新下载一次
+        for (int round = 0; ; round++) {
+            if (state == null) {
+                Files.deleteIfExists(partFile);
+                state = probe(url);
+                saveState(metaFile, state);
+            }
+            try {
+                fetch(state, partFile, metaFile, transferred);
+                break;
+            } catch (ResourceChangedException e) {
+                if (round > 0) {
+                    throw e;
+                }
+                logger.warn("资源已变化，重新下载: {}", url);
+                state = null;
+            }
+        }
+
+        try {
+            DownloadResult result = verify(state, partFile, transferred.get());
+            Files.deleteIfExists(metaFile);
+            return result;
+        } catch (IOException e) {
+            // 校验失败的内容不能续传
+            verificationFailures.incrementAndGet();
+            Files.deleteIfExists(partFile);
+            Files.deleteIfExists(metaFile);
+            throw e;
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("downloads", downloads.get());
+        stats.put("resumedDownloads", resumedDownloads.get());
+        stats.put("parallelDownloads", parallelDownloads.get());
+        stats.put("retries", retries.get());
+        stats.put("verificationFailures", verificationFailures.get());
+        stats.put("bytesTransferred", bytesTransferred.get());
+        stats.put("parallelThresholdBytes", parallelThresholdBytes);
+        stats.put("parallelRanges", parallelRanges);
+        return stats;
+    }
+
+    /**
+     * 请求首字节以获取总长度、是否支持 Range 与资源校验值
+     */
+    private DownloadState probe(String url) throws IOException {
+        IOException lastError = null;
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            HttpURLConnection connection = open(url, "bytes=0-0", null);
+            try {
+                int responseCode = connection.getResponseCode();
+                DownloadState state = new DownloadState();
+                state.url = url;
+                state.validator = validatorOf(connection);
+                state.contentMd5 = connection.getHeaderField("Content-MD5");
+                if (responseCode == HttpURLConnection.HTTP_PARTIAL) {
+                    Matcher matcher = CONTENT_RANGE_PATTERN.matcher(String.valueOf(connection.getHeaderField("Content-Range")));
+                    if (matcher.matches()) {
+                        state.length = Long.parseLong(matcher.group(3));
+                        state.rangeSupported = true;
+                    }
+                } else if (responseCode == HttpURLConnection.HTTP_OK) {
+                    state.length = connection.getContentLengthLong();
+                } else if (responseCode >= 500) {
+                    throw new IOException("下载失败，HTTP状态码: " + responseCode);
+                } else {
+                    // 4xx 重试也不会成功
+                    throw new IllegalStateException("下载失败，HTTP状态码: " + responseCode);
+                }
+                if (state.rangeSupported) {
+                    // 206 响应头中的 Content-MD5 只对应请求的区间
+                    state.contentMd5 = null;
+                    splitRanges(state);
+                }
+                return state;
+            } catch (IllegalStateException e) {
+                throw new IOException(e.getMessage());
+            } catch (IOException e) {
+                lastError = e;
+                backoff(url, attempt, e);
+            } finally {
+                connection.disconnect();
+            }
+        }
+        throw lastError;
+    }
+
+    private void splitRanges(DownloadState state) {
+        if (state.length <= 0) {
+            return;
+        }
+        int count = state.length >= parallelThresholdBytes ? Math.max(1, parallelRanges) : 1;
+        long chunk = (state.length + count - 1) / count;
+        for (long start = 0; start < state.length; start += chunk) {
+            state.ranges.add(new Range(start, Math.min(state.length, start + chunk) - 1, 0));
+        }
+    }
+
+    private void fetch(DownloadState state, Path partFile, Path metaFile, AtomicLong transferred) throws IOException {
+        try (FileChannel channel = FileChannel.open(partFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (!state.rangeSupported || state.ranges.isEmpty()) {
+                fetchWhole(state, channel, transferred);
+                return;
+            }
+            List<Range> pending = state.ranges.stream().filter(range -> !range.isComplete()).toList();
+            if (pending.size() == 1) {
+                fetchRange(state, pending.get(0), channel, metaFile, transferred);
+                return;
+            }
+            parallelDownloads.incrementAndGet();
+            try (ExecutorService rangeExecutor = Executors.newVirtualThreadPerTaskExecutor()) {
+                List<Future<?>> futures = new ArrayList<>();
+                for (Range range : pending) {
+                    futures.add(rangeExecutor.submit(() -> {
+                        fetchRange(state, range, channel, metaFile, transferred);
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("下载被中断");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException ioException) {
+                    throw ioException;
+                }
+                throw new IOException(e.getCause().getMessage(), e.getCause());
+            }
+        } finally {
+            saveState(metaFile, state);
+        }
+    }
+
+    /**
+     * 下载一个区间，断线后从该区间已写入的位置继续
+     */
+    private void fetchRange(DownloadState state, Range range, FileChannel channel, Path metaFile,
+                            AtomicLong transferred) throws IOException {
+        for (int attempt = 1; !range.isComplete(); attempt++) {
+            long position = range.start + range.done.get();
+            HttpURLConnection connection = open(state.url, "bytes=" + position + "-" + range.end, state.validator);
+            try {
+                int responseCode = connection.getResponseCode();
+                if (responseCode == HttpURLConnection.HTTP_OK) {
+                    // If-Range 不匹配时服务端返回完整内容
+                    throw new ResourceChangedException("资源已变化: " + state.url);
+                }
+                if (responseCode != HttpURLConnection.HTTP_PARTIAL) {
+                    throw new IOException("下载失败，HTTP状态码: " + responseCode);
+                }
+                try (InputStream in = connection.getInputStream()) {
+                    long sinceCheckpoint = 0;
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int read;
+                    while (!range.isComplete() && (read = in.read(buffer, 0, (int) Math.min(buffer.length, range.length() - range.done.get()))) > 0) {
+                        writeFully(channel, ByteBuffer.wrap(buffer, 0, read), range.start + range.done.get());
+                        range.done.addAndGet(read);
+                        transferred.addAndGet(read);
+                        bytesTransferred.addAndGet(read);
+                        sinceCheckpoint += read;
+                        if (sinceCheckpoint >= CHECKPOINT_BYTES) {
+                            sinceCheckpoint = 0;
+                            channel.force(false);
+                            saveState(metaFile, state);
+                        }
+                    }
+                }
+                if (!range.isComplete()) {
+                    throw new IOException("连接提前结束");
+                }
+            } catch (ResourceChangedException e) {
+                throw e;
+            } catch (IOException e) {
+                if (attempt >= maxAttempts) {
+                    throw new IOException("下载失败（已重试 " + attempt + " 次）: " + e.getMessage(), e);
+                }
+                channel.force(false);
+                saveState(metaFile, state);
+                backoff(state.url, attempt, e);
+            } finally {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * 服务端不支持 Range 时整体下载，失败后从头重试
+     */
+    private void fetchWhole(DownloadState state, FileChannel channel, AtomicLong transferred) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            HttpURLConnection connection = open(state.url, null, null);
+            try {
+                int responseCode = connection.getResponseCode();
+                if (responseCode != HttpURLConnection.HTTP_OK) {
+                    throw new IOException("下载失败，HTTP状态码: " + responseCode);
+                }
+                channel.truncate(0);
+                long position = 0;
+                try (InputStream in = connection.getInputStream()) {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int read;
+                    while ((read = in.read(buffer)) > 0) {
+                        writeFully(channel, ByteBuffer.wrap(buffer, 0, read), position);
+                        position += read;
+                        transferred.addAndGet(read);
+                        bytesTransferred.addAndGet(read);
+                    }
+                }
+                if (state.length >= 0 && position != state.length) {
+                    throw new IOException("连接提前结束: " + position + "/" + state.length);
+                }
+                state.length = position;
+                return;
+            } catch (IOException e) {
+                if (attempt >= maxAttempts) {
+                    throw new IOException("下载失败（已重试 " + attempt + " 次）: " + e.getMessage(), e);
+                }
+                backoff(state.url, attempt, e);
+            } finally {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private DownloadResult verify(DownloadState state, Path partFile, long transferred) throws IOException {
+        long size = Files.size(partFile);
+        if (size <= 0) {
+            throw new IOException("下载的文件为空");
+        }
+        if (state.length >= 0 && size != state.length) {
+            throw new IOException("下载的文件长度不一致: " + size + "/" + state.length);
+        }
+        for (Range range : state.ranges) {
+            if (!range.isComplete()) {
+                throw new IOException("下载区间不完整: " + range.start + "-" + range.end);
+            }
+        }
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            MessageDigest md5 = state.contentMd5 != null ? MessageDigest.getInstance("MD5") : null;
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (InputStream in = Files.newInputStream(partFile)) {
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    sha256.update(buffer, 0, read);
+                    if (md5 != null) {
+                        md5.update(buffer, 0, read);
+                    }
+                }
+            }
+            if (md5 != null && !Base64.getEncoder().encodeToString(md5.digest()).equals(state.contentMd5.trim())) {
+                throw new IOException("下载内容校验失败（Content-MD5不一致）: " + state.url);
+            }
+            return new DownloadResult(size, Hex.encodeHexString(sha256.digest()), transferred);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("无法计算内容哈希: " + e.getMessage(), e);
+        }
+    }
+
+    private HttpURLConnection open(String url, String range, String validator) throws IOException {
+        HttpURLConnection connection;
+        try {
+            connection = (HttpURLConnection) URI.create(url).toURL().openConnection();
+        } catch (IllegalArgumentException e) {
+            throw new IOException("无效的下载地址: " + url, e);
+        }
+        connection.setConnectTimeout(connectTimeoutMs);
+        connection.setReadTimeout(readTimeoutMs);
+        connection.setRequestProperty("User-Agent", USER_AGENT);
+        if (range != null) {
+            connection.setRequestProperty("Range", range);
+        }
+        if (validator != null) {
+            connection.setRequestProperty("If-Range", validator);
+        }
+        return connection;
+    }
+
+    private static String validatorOf(HttpURLConnection connection) {
+        String etag = connection.getHeaderField("ETag");
+        // 弱校验值不能用于 If-Range
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return connection.getHeaderField("Last-Modified");
+    }
+
+    private void backoff(String url, int attempt, IOException cause) throws IOException {
+        retries.incrementAndGet();
+        long delayMs = Math.min(30_000L, 1000L << (attempt - 1));
+        logger.warn("下载出错，{}ms 后重试（第 {} 次）: {} - {}", delayMs, attempt, url, cause.getMessage());
+        try {
+            Thread.sleep(delayMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("下载被中断");
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static long completedBytes(DownloadState state) {
+        return state.ranges.stream().mapToLong(range -> Math.min(range.done.get(), range.length())).sum();
+    }
+
+    private static DownloadState loadState(Path metaFile, String url) {
+        if (!Files.exists(metaFile)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(metaFile)) {
+            properties.load(reader);
+            if (!url.equals(properties.getProperty("url")) || !Boolean.parseBoolean(properties.getProperty("rangeSupported"))) {
+                return null;
+            }
+            DownloadState state = new DownloadState();
+            state.url = url;
+            state.validator = properties.getProperty("validator");
+            state.length = Long.parseLong(properties.getProperty("length", "-1"));
+            state.rangeSupported = true;
+            for (String spec : properties.getProperty("ranges", "").split(",")) {
+                if (spec.isEmpty()) {
+                    continue;
+                }
+                String[] parts = spec.split(":");
+                state.ranges.add(new Range(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2])));
+            }
+            return state.ranges.isEmpty() ? null : state;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("下载进度文件无效，重新下载: {} - {}", metaFile, e.getMessage());
+            return null;
+        }
+    }
+
+    private static synchronized void saveState(Path metaFile, DownloadState state) {
+        Properties properties = new Properties();
+        properties.setProperty("url", state.url);
+        if (state.validator != null) {
+            properties.setProperty("validator", state.validator);
+        }
+        properties.setProperty("length", String.valueOf(state.length));
+        properties.setProperty("rangeSupported", String.valueOf(state.rangeSupported));
+        StringBuilder ranges = new StringBuilder();
+        for (Range range : state.ranges) {
+            if (ranges.length() > 0) {
+                ranges.append(',');
+            }
+            ranges.append(range.start).append(':').append(range.end).append(':').append(Math.min(range.done.get(), range.length()));
+        }
+        properties.setProperty("ranges", ranges.toString());
+        Path tmpMeta = metaFile.resolveSibling(metaFile.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmpMeta)) {
+            properties.store(writer, "download progress");
+        } catch (IOException e) {
+            logger.warn("保存下载进度失败: {} - {}", metaFile, e.getMessage());
+            return;
+        }
+        try {
+            Files.move(tmpMeta, metaFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("保存下载进度失败: {} - {}", metaFile, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.example.springboot_pro.service;
+
+import com.example.springboot_pro.domain.Video;
+import com.example.springboot_pro.util.Mp4BoxParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 成片元数据提取：渲染完成后读取一次文件并按访问URL缓存，
+ * 创建作品时直接写入 Video，列表与统计接口只查询数据库
+ */
+@Service
+public class MediaMetadataService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MediaMetadataService.class);
+
+    // 缓存的成片数量，通常在渲染完成后几分钟内即被创建作品的请求取走
+    @Value("${media.metadata.cache-size:256}")
+    private int cacheSize;
+
+    // videoUrl -> 元数据，accessOrder=true 按LRU淘汰
+    private final LinkedHashMap<String, MediaMetadata> cache = new LinkedHashMap<>(64, 0.75f, true);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * 文件元数据，时长单位为微秒；无法解析的字段为0或null
+     */
+    public static class MediaMetadata {
+        private final long fileSize;
+        private final long durationMicros;
+        private final int width;
+        private final int height;
+        private final String format;
+        private final String videoCodec;
+        private final String audioCodec;
+        private final boolean faststart;
+
+        MediaMetadata(long fileSize, String format, Mp4BoxParser.Mp4Info info) {
+            this.fileSize = fileSize;
+            this.format = format;
+            this.durationMicros = info != null ? info.getDurationMicros() : 0;
+            this.width = info != null ? info.getWidth() : 0;
+            this.height = info != null ? info.getHeight() : 0;
+            this.videoCodec = info != null ? info.getVideoCodec() : null;
+            this.audioCodec = info != null ? info.getAudioCodec() : null;
+            this.faststart = info != null && info.isFaststart();
+        }
+
+        public long getFileSize() {
+            return fileSize;
+        }
+
+        public long getDurationMicros() {
+            return durationMicros;
+        }
+
+        /**
+         * 时长（秒，四舍五入）
+         */
+        public int getDurationSeconds() {
+            return (int) Math.round(durationMicros / 1_000_000.0);
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * 分辨率，如 1920x1080；未知时返回null
+         */
+        public String getResolution() {
+            return width > 0 && height > 0 ? width + "x" + height : null;
+        }
+
+        public String getFormat() {
+            return format;
+        }
+
+        public String getVideoCodec() {
+            return videoCodec;
+        }
+
+        public String getAudioCodec() {
+            return audioCodec;
+        }
+
+        public boolean isFaststart() {
+            return faststart;
+        }
+
+        @Override
+        public String toString() {
+            return "MediaMetadata{" +
+                    "format='" + format + '\'' +
+                    ", fileSize=" + fileSize +
+                    ", durationMicros=" + durationMicros +
+                    ", resolution=" + getResolution() +
+                    ", video='" + videoCodec + '\'' +
+                    ", audio='" + audioCodec + '\'' +
+                    '}';
+        }
+    }
+
+    /**
+     * 读取成片元数据并以访问URL缓存，供渲染流水线在文件落盘后调用
+     */
+    public MediaMetadata extract(String videoUrl, Path file) throws IOException {
+        MediaMetadata metadata = probe(file);
+        synchronized (this) {
+            cache.put(videoUrl, metadata);
+            if (cache.size() > cacheSize) {
+                cache.remove(cache.keySet().iterator().next());
+            }
+        }
+        logger.info("成片元数据: {} -> {}", file.getFileName(), metadata);
+        return metadata;
+    }
+
+    /**
+     * 获取URL对应的元数据：优先使用渲染阶段的缓存，未命中时读取本地文件；
+     * 非本服务URL或文件不存在时返回null
+     */
+    public MediaMetadata getMetadata(String videoUrl) {
+        synchronized (this) {
+            MediaMetadata cached = cache.get(videoUrl);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return cached;
+            }
+        }
+        misses.incrementAndGet();
+
+        Path file = VideoConcatService.resolveOwnMediaUrl(videoUrl);
+        if (file == null || !Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            return extract(videoUrl, file);
+        } catch (IOException e) {
+            logger.warn("读取视频元数据失败: {} - {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 将元数据写入作品记录，未知字段保持原值
+     */
+    public static void applyTo(Video video, MediaMetadata metadata) {
+        video.setFileSize(metadata.getFileSize());
+        video.setVideoFormat(metadata.getFormat());
+        if (metadata.getDurationMicros() > 0) {
+            video.setDuration(metadata.getDurationSeconds());
+        }
+        if (metadata.getResolution() != null) {
+            video.setResolution(metadata.getResolution());
+        }
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("entries", cache.size());
+        stats.put("maxEntries", cacheSize);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        return stats;
+    }
+
+    private static MediaMetadata probe(Path file) throws IOException {
+        long size = Files.size(file);
+        Mp4BoxParser.Mp4Info info = Mp4BoxParser.parse(file);
+        return new MediaMetadata(size, formatOf(file, info), info);
+    }
+
+    /**
+     * 容器格式：ISO-BMFF 按 major brand 区分 mov/mp4，其他按扩展名
+     */
+    private static String formatOf(Path file, Mp4BoxParser.Mp4Info info) {
+        if (info != null) {
+            return "qt".equals(info.getMajorBrand()) ? "mov" : "mp4";
+        }
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(dot + 1).toLowerCase() : null;
+    }
+}
@@ -0,0 +1,325 @@
+package com.example.springboot_pro.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 媒体子进程（ffmpeg/ffprobe）统一管理：全局并发上限、按CPU核数分配 -threads、
+ * 超时强制结束、按任务ID取消，以及运行中进程的指标
+ *
+ * 探测与缩略图这类秒级的短进程使用独立的并发名额，不会排在耗时数分钟的编码之后等到超时
+ */
+@Service
+public class MediaProcessSupervisor {
+
+    private static final Logger logger = LoggerFactory.getLogger(MediaProcessSupervisor.class);
+
+    // 失败时日志中保留的输出长度
+    private static final int MAX_OUTPUT_CHARS = 64 * 1024;
+
+    // 同时运行的媒体进程数，0 表示按CPU核数自动计算（核数/4，至少1个）
+    @Value("${media.process.max-concurrent:0}")
+    private int configuredMaxConcurrent;
+
+    // 每个 ffmpeg 进程的线程数，0 表示 核数/并发数
+    @Value("${media.process.threads-per-process:0}")
+    private int configuredThreadsPerProcess;
+
+    // 同时运行的短进程（ffprobe、截帧）数
+    @Value("${media.process.max-concurrent-probes:2}")
+    private int maxConcurrentProbes;
+
+    private int maxConcurrent;
+    private int threadsPerProcess;
+    private Semaphore permits;
+    private Semaphore probePermits;
+    private ScheduledExecutorService watchdog;
+
+    // pid -> 运行中的进程
+    private final Map<Long, ManagedProcess> running = new ConcurrentHashMap<>();
+    // 已取消的任务ID，任务结束时由调用方清除
+    private final Set<String> cancelledJobs = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+
+    private static class ManagedProcess {
+        final String jobId;
+        final String label;
+        final Process process;
+        final long startedAt = System.currentTimeMillis();
+        volatile boolean cancelled;
+        volatile boolean timedOut;
+
+        ManagedProcess(String jobId, String label, Process process) {
+            this.jobId = jobId;
+            this.label = label;
+            this.process = process;
+        }
+    }
+
+    /**
+     * 进程执行结果
+     */
+    public static class ProcessResult {
+        private final int exitCode;
+        private final String output;
+        private final boolean cancelled;
+        private final boolean timedOut;
+
+        ProcessResult(int exitCode, String output, boolean cancelled, boolean timedOut) {
+            this.exitCode = exitCode;
+            this.output = output;
+            this.cancelled = cancelled;
+            this.timedOut = timedOut;
+        }
+
+        static ProcessResult cancelledBeforeStart() {
+            return new ProcessResult(-1, "", true, false);
+        }
+
+        public boolean isSuccess() {
+            return exitCode == 0 && !cancelled && !timedOut;
+        }
+
+        public int getExitCode() {
+            return exitCode;
+        }
+
+        /**
+         * 合并后的 stdout/stderr，超长时只保留末尾部分
+         */
+        public String getOutput() {
+            return output;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public boolean isTimedOut() {
+            return timedOut;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        maxConcurrent = configuredMaxConcurrent > 0 ? configuredMaxConcurrent : Math.max(1, cores / 4);
+        threadsPerProcess = configuredThreadsPerProcess > 0 ? configuredThreadsPerProcess : Math.max(1, cores / maxConcurrent);
+        permits = new Semaphore(maxConcurrent, true);
+        probePermits = new Semaphore(Math.max(1, maxConcurrentProbes), true);
+        watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "media-process-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.info("媒体进程管理已启动: CPU核数={}, 并发上限={}, 短进程并发上限={}, 每进程线程数={}",
+                cores, maxConcurrent, probePermits.availablePermits(), threadsPerProcess);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        watchdog.shutdownNow();
+        running.values().forEach(managed -> managed.process.destroyForcibly());
+    }
+
+    /**
+     * 运行媒体命令，排队等待并发名额，阻塞直到进程结束
+     *
+     * @param jobId        所属任务ID，用于取消；不属于任何任务时传null
+     * @param lineListener 每行输出的回调，可为null
+     */
+    public ProcessResult run(String jobId, String label, List<String> command, long timeoutSeconds,
+                             Consumer<String> lineListener) throws IOException, InterruptedException {
+        return run(permits, jobId, label, command, timeoutSeconds, lineListener);
+    }
+
+    /**
+     * 运行秒级的短进程（ffprobe、截帧），使用独立的并发名额，不与编码进程排队
+     */
+    public ProcessResult runProbe(String jobId, String label, List<String> command, long timeoutSeconds)
+            throws IOException, InterruptedException {
+        return run(probePermits, jobId, label, command, timeoutSeconds, null);
+    }
+
+    private ProcessResult run(Semaphore pool, String jobId, String label, List<String> command, long timeoutSeconds,
+                              Consumer<String> lineListener) throws IOException, InterruptedException {
+        if (isCancelled(jobId)) {
+            return ProcessResult.cancelledBeforeStart();
+        }
+
+        waiting.incrementAndGet();
+        try {
+            pool.acquire();
+        } finally {
+            waiting.decrementAndGet();
+        }
+
+        try {
+            // 排队期间任务可能已被取消
+            if (isCancelled(jobId)) {
+                return ProcessResult.cancelledBeforeStart();
+            }
+
+            List<String> fullCommand = applyThreadBudget(command);
+            logger.info("执行{}命令: {}", label, String.join(" ", fullCommand));
+
+            ProcessBuilder processBuilder = new ProcessBuilder(fullCommand);
+            processBuilder.redirectErrorStream(true);
+            processBuilder.directory(new File(System.getProperty("java.io.tmpdir")));
+            Process process = processBuilder.start();
+            started.incrementAndGet();
+
+            ManagedProcess managed = new ManagedProcess(jobId, label, process);
+            running.put(process.pid(), managed);
+            // 输出读取会一直阻塞到进程结束，超时由看门狗线程强制结束进程
+            ScheduledFuture<?> timeout = watchdog.schedule(() -> {
+                managed.timedOut = true;
+                process.destroyForcibly();
+            }, timeoutSeconds, TimeUnit.SECONDS);
+
+            // 取消可能发生在注册之前
+            if (isCancelled(jobId)) {
+                managed.cancelled = true;
+                process.destroyForcibly();
+            }
+
+            StringBuilder output = new StringBuilder();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (lineListener != null) {
+                        lineListener.accept(line);
+                    }
+                    output.append(line).append('\n');
+                    if (output.length() > MAX_OUTPUT_CHARS) {
+                        output.delete(0, output.length() - MAX_OUTPUT_CHARS / 2);
+                    }
+                }
+                process.waitFor();
+            } finally {
+                timeout.cancel(false);
+                running.remove(process.pid());
+                if (process.isAlive()) {
+                    process.destroyForcibly();
+                }
+            }
+
+            ProcessResult result = new ProcessResult(process.exitValue(), output.toString(), managed.cancelled, managed.timedOut);
+            if (result.isCancelled()) {
+                cancelled.incrementAndGet();
+                logger.info("{}进程已取消: jobId={}", label, jobId);
+            } else if (result.isTimedOut()) {
+                timedOut.incrementAndGet();
+                logger.error("{}进程超时（{}秒），已强制结束", label, timeoutSeconds);
+            } else if (result.isSuccess()) {
+                succeeded.incrementAndGet();
+            } else {
+                failed.incrementAndGet();
+            }
+            return result;
+        } finally {
+            pool.release();
+        }
+    }
+
+    /**
+     * 取消任务：结束其正在运行的进程，之后该任务提交的进程不再启动；返回被结束的进程数
+     */
+    public int cancel(String jobId) {
+        cancelledJobs.add(jobId);
+        int killed = 0;
+        for (ManagedProcess managed : running.values()) {
+            if (jobId.equals(managed.jobId)) {
+                managed.cancelled = true;
+                managed.process.destroyForcibly();
+                killed++;
+            }
+        }
+        logger.info("任务已取消: jobId={}, 结束进程数={}", jobId, killed);
+        return killed;
+    }
+
+    public boolean isCancelled(String jobId) {
+        return jobId != null && cancelledJobs.contains(jobId);
+    }
+
+    /**
+     * 任务结束后清除取消标记
+     */
+    public void release(String jobId) {
+        cancelledJobs.remove(jobId);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("availableProcessors", Runtime.getRuntime().availableProcessors());
+        stats.put("maxConcurrent", maxConcurrent);
+        stats.put("maxConcurrentProbes", Math.max(1, maxConcurrentProbes));
+        stats.put("threadsPerProcess", threadsPerProcess);
+        stats.put("running", running.size());
+        stats.put("waiting", waiting.get());
+        stats.put("started", started.get());
+        stats.put("succeeded", succeeded.get());
+        stats.put("failed", failed.get());
+        stats.put("cancelled", cancelled.get());
+        stats.put("timedOut", timedOut.get());
+
+        long now = System.currentTimeMillis();
+        List<Map<String, Object>> processes = new ArrayList<>();
+        for (Map.Entry<Long, ManagedProcess> entry : running.entrySet()) {
+            ManagedProcess managed = entry.getValue();
+            Map<String, Object> process = new LinkedHashMap<>();
+            process.put("pid", entry.getKey());
+            process.put("jobId", managed.jobId);
+            process.put("label", managed.label);
+            process.put("elapsedMs", now - managed.startedAt);
+            process.put("cpuMs", managed.process.info().totalCpuDuration().map(Duration::toMillis).orElse(-1L));
+            processes.add(process);
+        }
+        stats.put("processes", processes);
+        return stats;
+    }
+
+    /**
+     * ffmpeg 命令未指定线程数时，在输出文件前加入 -threads，限制编码器占用的核心数
+     */
+    private List<String> applyThreadBudget(List<String> command) {
+        if (command.isEmpty() || !"ffmpeg".equals(command.get(0)) || command.contains("-threads")) {
+            return command;
+        }
+        List<String> budgeted = new ArrayList<>(command);
+        budgeted.addAll(budgeted.size() - 1, List.of("-threads", String.valueOf(threadsPerProcess)));
+        return budgeted;
+    }
+}
@@ -159,7 +159,7 @@ public class QianfanService {
     /**
      * 从AI生成的内容中提取提示词
      */
-    private Map<String, String> extractPromptsFromContent(String content) {
+    Map<String, String> extractPromptsFromContent(String content) {
         Map<String, String> result = new HashMap<>();
         
         try {
@@ -484,7 +484,7 @@ public class QianfanService {
     /**
      * 从AI生成的内容中解析分镜头脚本
      */
-    private List<Map<String, Object>> parseStoryboardContent(String content) {
+    List<Map<String, Object>> parseStoryboardContent(String content) {
         List<Map<String, Object>> storyboards = new ArrayList<>();
         
         try {
@@ -0,0 +1,214 @@
+package com.example.springboot_pro.service;
+
+import com.example.springboot_pro.dao.RenderJobRepository;
+import com.example.springboot_pro.domain.RenderJob;
+import com.example.springboot_pro.dto.VideoConcatRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * 拼接任务日志：任务提交、阶段检查点与结束状态写入数据库，服务重启后用于恢复中断的渲染
+ *
+ * 日志写入失败只记录告警，不影响渲染本身
+ */
+@Service
+public class RenderJournalService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RenderJournalService.class);
+
+    // 已结束任务日志的保留天数
+    @Value("${video.concat.journal-retention-days:7}")
+    private int retentionDays;
+
+    @Autowired
+    private RenderJobRepository renderJobRepository;
+
+    /**
+     * 记录新提交的任务
+     */
+    public void begin(String jobId, String fingerprint, VideoConcatRequest request, Collection<Long> subscribers) {
+        RenderJob renderJob = new RenderJob();
+        renderJob.setSubscribers(joinIds(subscribers));
+        renderJob.setJobId(jobId);
+        renderJob.setFingerprint(fingerprint);
+        renderJob.setVideoUrls(String.join("\n", request.getVideoUrls()));
+        renderJob.setBackgroundMusic(request.getBackgroundMusic());
+        renderJob.setOutputName(request.getOutputName());
+        save(renderJob);
+    }
+
+    /**
+     * 记录加入或退出任务的用户，重启恢复后仍按此校验取消权限
+     */
+    public void updateSubscribers(String jobId, Collection<Long> subscribers) {
+        String ids = joinIds(subscribers);
+        execute(jobId, "更新订阅者", () -> renderJobRepository.updateSubscribers(jobId, ids, LocalDateTime.now()));
+    }
+
+    /**
+     * 检查点：分镜片段已全部就绪
+     */
+    public void checkpointSegmented(String jobId, List<String> segmentPaths, List<VideoConcatService.ClipFetchResult> failedClips) {
+        String paths = String.join("\n", segmentPaths);
+        String failed = encodeFailedClips(failedClips);
+        execute(jobId, "检查点", () -> renderJobRepository.checkpointSegmented(jobId, paths, failed, LocalDateTime.now()));
+    }
+
+    /**
+     * 检查点：成片已移入作品目录
+     */
+    public void checkpointRendered(String jobId, String fileName) {
+        execute(jobId, "检查点", () -> renderJobRepository.checkpointRendered(jobId, fileName, LocalDateTime.now()));
+    }
+
+    public void complete(String jobId, String fileName) {
+        execute(jobId, "完成", () -> renderJobRepository.markCompleted(jobId, fileName, LocalDateTime.now()));
+    }
+
+    public void fail(String jobId, String errorMessage) {
+        execute(jobId, "失败", () -> renderJobRepository.markFailed(jobId, errorMessage, LocalDateTime.now()));
+    }
+
+    public void cancel(String jobId) {
+        execute(jobId, "取消", () -> renderJobRepository.markCancelled(jobId, LocalDateTime.now()));
+    }
+
+    /**
+     * 恢复前递增恢复次数，返回更新后的日志；任务已不在运行中时返回空
+     */
+    public Optional<RenderJob> markResumed(String jobId) {
+        if (!execute(jobId, "恢复", () -> renderJobRepository.incrementResumeCount(jobId, LocalDateTime.now()))) {
+            return Optional.empty();
+        }
+        return find(jobId);
+    }
+
+    public Optional<RenderJob> find(String jobId) {
+        try {
+            return renderJobRepository.findById(jobId);
+        } catch (Exception e) {
+            logger.warn("读取拼接任务日志失败: jobId={} - {}", jobId, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * 上次运行时未结束的任务，按提交顺序排列
+     */
+    public List<RenderJob> findInterrupted() {
+        try {
+            return renderJobRepository.findByStatusOrderByCreatedAtAsc(RenderJob.STATUS_RUNNING);
+        } catch (Exception e) {
+            logger.warn("读取未完成的拼接任务失败: {}", e.getMessage());
+            return List.of();
+        }
+    }
+
+    /**
+     * 清理超过保留期的已结束任务日志
+     */
+    public void purgeExpired() {
+        try {
+            int deleted = renderJobRepository.deleteFinishedBefore(LocalDateTime.now().minusDays(retentionDays));
+            if (deleted > 0) {
+                logger.info("已清理过期的拼接任务日志: {} 条", deleted);
+            }
+        } catch (Exception e) {
+            logger.warn("清理拼接任务日志失败: {}", e.getMessage());
+        }
+    }
+
+    public static Set<Long> decodeSubscribers(RenderJob renderJob) {
+        Set<Long> subscribers = ConcurrentHashMap.newKeySet();
+        for (String line : splitLines(renderJob.getSubscribers())) {
+            try {
+                subscribers.add(Long.parseLong(line.trim()));
+            } catch (NumberFormatException e) {
+                // 忽略损坏的行
+            }
+        }
+        return subscribers;
+    }
+
+    private static String joinIds(Collection<Long> ids) {
+        return ids.stream().map(String::valueOf).collect(Collectors.joining("\n"));
+    }
+
+    /**
+     * 由日志还原拼接请求
+     */
+    public static VideoConcatRequest toRequest(RenderJob renderJob) {
+        VideoConcatRequest request = new VideoConcatRequest();
+        request.setVideoUrls(splitLines(renderJob.getVideoUrls()));
+        request.setBackgroundMusic(renderJob.getBackgroundMusic());
+        request.setOutputName(renderJob.getOutputName());
+        return request;
+    }
+
+    public static List<String> splitLines(String value) {
+        if (value == null || value.isEmpty()) {
+            return List.of();
+        }
+        return Arrays.asList(value.split("\n"));
+    }
+
+    static List<VideoConcatService.ClipFetchResult> decodeFailedClips(String value) {
+        List<VideoConcatService.ClipFetchResult> clips = new ArrayList<>();
+        for (String line : splitLines(value)) {
+            String[] parts = line.split("\t", 3);
+            if (parts.length == 3) {
+                clips.add(VideoConcatService.ClipFetchResult.failure(Integer.parseInt(parts[0]), parts[1], parts[2]));
+            }
+        }
+        return clips;
+    }
+
+    private static String encodeFailedClips(List<VideoConcatService.ClipFetchResult> failedClips) {
+        StringBuilder sb = new StringBuilder();
+        for (VideoConcatService.ClipFetchResult clip : failedClips) {
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            String error = clip.getError() != null ? clip.getError().replaceAll("[\t\r\n]+", " ") : "";
+            sb.append(clip.getIndex()).append('\t').append(clip.getVideoUrl()).append('\t').append(error);
+        }
+        return sb.toString();
+    }
+
+    private void save(RenderJob renderJob) {
+        try {
+            renderJobRepository.save(renderJob);
+        } catch (Exception e) {
+            logger.warn("写入拼接任务日志失败: jobId={} - {}", renderJob.getJobId(), e.getMessage());
+        }
+    }
+
+    /**
+     * 执行条件更新，返回是否更新了日志；任务已结束（例如已被取消）时不覆盖其状态
+     */
+    private boolean execute(String jobId, String action, Supplier<Integer> update) {
+        try {
+            if (update.get() > 0) {
+                return true;
+            }
+            logger.debug("拼接任务日志未更新（任务已结束或不存在）: jobId={}, 操作={}", jobId, action);
+        } catch (Exception e) {
+            logger.warn("写入拼接任务日志失败: jobId={}, 操作={} - {}", jobId, action, e.getMessage());
+        }
+        return false;
+    }
+}
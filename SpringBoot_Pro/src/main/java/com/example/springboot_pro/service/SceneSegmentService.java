@@ -0,0 +1,214 @@
+package com.example.springboot_pro.service;
+
+import org.apache.commons.codec.binary.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分镜中间片段存储：每个分镜规范化为 MPEG-TS 片段，按源文件内容哈希保存，
+ * 重新渲染时未变化的分镜直接复用，成片只需对片段做流拷贝拼接
+ *
+ * 目录结构: {segmentDir}/{sha256}-{profile}.ts，转码的片段为 {sha256}-{profile}-{目标参数}.ts
+ */
+@Service
+public class SceneSegmentService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SceneSegmentService.class);
+
+    // 规范化参数的版本号，修改片段生成命令时需递增，使旧片段自然失效
+    static final String PROFILE = "v1";
+
+    @Value("${video.segment.dir:D:/SpringBoot_Pro/segments}")
+    private String segmentDir;
+
+    // 同一片段的并发请求只生成一次：生成者放入future，其余请求等待它完成
+    private final Map<String, CompletableFuture<Void>> inflightBuilds = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong buildFailures = new AtomicLong();
+
+    /**
+     * 片段生成器：把源文件写成规范化片段到 output，成功返回true
+     */
+    @FunctionalInterface
+    public interface SegmentBuilder {
+        boolean build(Path source, Path output) throws IOException;
+    }
+
+    /**
+     * 片段查询结果
+     */
+    public static class Segment {
+        private final Path path;
+        private final String contentHash;
+        private final boolean reused;
+
+        Segment(Path path, String contentHash, boolean reused) {
+            this.path = path;
+            this.contentHash = contentHash;
+            this.reused = reused;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public String getContentHash() {
+            return contentHash;
+        }
+
+        /**
+         * 是否复用了已有片段（未重新生成）
+         */
+        public boolean isReused() {
+            return reused;
+        }
+    }
+
+    /**
+     * 获取源文件对应的片段，不存在时调用 builder 生成
+     *
+     * @param variant 转码目标参数标识，流拷贝的片段传null
+     */
+    public Segment obtain(Path source, String variant, SegmentBuilder builder) throws IOException {
+        String hash = contentHash(source);
+        Path segment = segmentPath(hash, variant);
+        if (Files.isRegularFile(segment)) {
+            hits.incrementAndGet();
+            touch(segment);
+            return new Segment(segment, hash, true);
+        }
+
+        String flightKey = segment.getFileName().toString();
+        while (true) {
+            CompletableFuture<Void> flight = new CompletableFuture<>();
+            CompletableFuture<Void> existing = inflightBuilds.putIfAbsent(flightKey, flight);
+            if (existing != null) {
+                // 同一片段正在由其他渲染任务生成，等待结束后复用，不会有两个线程同时写同一个临时文件
+                awaitBuild(source, existing);
+                if (Files.isRegularFile(segment)) {
+                    hits.incrementAndGet();
+                    return new Segment(segment, hash, true);
+                }
+                // 生成完成后已被清理，重新竞争生成
+                continue;
+            }
+            try {
+                // 成为生成者之前可能刚有其他渲染任务生成完成
+                if (Files.isRegularFile(segment)) {
+                    hits.incrementAndGet();
+                    flight.complete(null);
+                    return new Segment(segment, hash, true);
+                }
+                Segment built = build(source, hash, segment, builder);
+                flight.complete(null);
+                return built;
+            } catch (IOException | RuntimeException e) {
+                flight.completeExceptionally(e);
+                throw e;
+            } finally {
+                // 只由生成者移除，等待者加入的始终是同一次生成
+                inflightBuilds.remove(flightKey, flight);
+            }
+        }
+    }
+
+    private Segment build(Path source, String hash, Path segment, SegmentBuilder builder) throws IOException {
+        misses.incrementAndGet();
+        Files.createDirectories(segment.getParent());
+        Path partPath = segment.resolveSibling("." + segment.getFileName() + ".part");
+        try {
+            if (!builder.build(source, partPath) || !Files.isRegularFile(partPath)) {
+                buildFailures.incrementAndGet();
+                throw new IOException("分镜片段生成失败: " + source.getFileName());
+            }
+            Files.move(partPath, segment, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(partPath);
+        }
+        logger.info("分镜片段已生成: {} -> {}", source.getFileName(), segment.getFileName());
+        return new Segment(segment, hash, false);
+    }
+
+    private void awaitBuild(Path source, CompletableFuture<Void> flight) throws IOException {
+        try {
+            flight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待分镜片段生成时被中断: " + source.getFileName());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException("分镜片段生成失败: " + source.getFileName(), cause);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        stats.put("directory", segmentDir);
+        stats.put("profile", PROFILE);
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hitRatio", hitCount + missCount == 0 ? 0.0 : (double) hitCount / (hitCount + missCount));
+        stats.put("buildFailures", buildFailures.get());
+        return stats;
+    }
+
+    public Path getSegmentDir() {
+        return Paths.get(segmentDir);
+    }
+
+    Path segmentPath(String contentHash, String variant) {
+        String name = contentHash + "-" + PROFILE + (variant != null ? "-" + variant : "");
+        return Paths.get(segmentDir).resolve(name + ".ts");
+    }
+
+    /**
+     * 源文件内容的SHA-256
+     */
+    static String contentHash(Path file) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[64 * 1024];
+            try (InputStream in = Files.newInputStream(file)) {
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+            return Hex.encodeHexString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("无法计算内容哈希: " + e.getMessage(), e);
+        }
+    }
+
+    private void touch(Path path) {
+        try {
+            // 修改时间即最近使用时间，供存储清理按LRU处理
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // 仅影响清理顺序
+        }
+    }
+}
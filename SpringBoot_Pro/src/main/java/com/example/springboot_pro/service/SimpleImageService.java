@@ -2,11 +2,10 @@ package com.example.springboot_pro.service;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.io.*;
-import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -18,6 +17,9 @@ public class SimpleImageService {
     
     private static final Logger logger = LoggerFactory.getLogger(SimpleImageService.class);
     
+    @Autowired
+    private MediaCacheService mediaCacheService;
+    
     @Value("${image.storage.path:D:/SpringBoot_Pro/pics}")
     private String imageStoragePath;
     
@@ -40,18 +42,15 @@ public class SimpleImageService {
             String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
             String filename = "scene_" + sceneNumber + "_" + timestamp + ".jpg";
             
-            // 下载图片
-            URL url = new URL(imageUrl);
-            try (InputStream inputStream = url.openStream()) {
-                Path filePath = directoryPath.resolve(filename);
-                Files.copy(inputStream, filePath);
-                logger.info("图片保存成功: {}", filePath);
-                
-                // 返回简单的访问URL
-                String accessUrl = "http://localhost:" + serverPort + "/api/simple-images/story_" + storyId + "/" + filename;
-                logger.info("生成访问URL: {}", accessUrl);
-                return accessUrl;
-            }
+            // 下载图片（经由本地媒体缓存，重复的图片URL不再走网络）
+            Path filePath = directoryPath.resolve(filename);
+            mediaCacheService.materialize(imageUrl, filePath);
+            logger.info("图片保存成功: {}", filePath);
+            
+            // 返回简单的访问URL
+            String accessUrl = "http://localhost:" + serverPort + "/api/simple-images/story_" + storyId + "/" + filename;
+            logger.info("生成访问URL: {}", accessUrl);
+            return accessUrl;
             
         } catch (Exception e) {
             logger.error("下载图片失败: {}", e.getMessage(), e);
@@ -0,0 +1,498 @@
+package com.example.springboot_pro.service;
+
+import com.example.springboot_pro.dao.StoryboardRepository;
+import com.example.springboot_pro.dao.VideoTaskRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 存储清理：统计各媒体目录的占用，定期清理超过保留期的遗留文件，磁盘使用率超过高水位时
+ * 依次淘汰可重建的数据（分镜片段、媒体缓存）直到低水位；剩余空间不足时拒绝新的渲染与生成任务
+ */
+@Service
+public class StorageJanitorService {
+
+    private static final Logger logger = LoggerFactory.getLogger(StorageJanitorService.class);
+
+    // 遗留的临时目录与 .part 文件超过该时间后清理
+    @Value("${storage.janitor.orphan-ttl-hours:24}")
+    private long orphanTtlHours;
+
+    // 本地视频目录中不再被任何任务引用的文件超过该时间后清理
+    @Value("${storage.janitor.local-video-ttl-hours:168}")
+    private long localVideoTtlHours;
+
+    // 最近使用过的分镜片段可能属于正在渲染的任务，不淘汰
+    @Value("${storage.janitor.segment-min-idle-minutes:60}")
+    private long segmentMinIdleMinutes;
+
+    // 分镜片段目录容量上限，默认20GB
+    @Value("${storage.segments.max-bytes:21474836480}")
+    private long segmentMaxBytes;
+
+    // 磁盘使用率高于高水位时开始淘汰，直到低于低水位
+    @Value("${storage.janitor.high-watermark:0.90}")
+    private double highWatermark;
+
+    @Value("${storage.janitor.low-watermark:0.80}")
+    private double lowWatermark;
+
+    // 剩余空间低于该值时拒绝新任务，默认2GB
+    @Value("${storage.admission.min-free-bytes:2147483648}")
+    private long minFreeBytes;
+
+    @Value("${storage.admission.retry-after-seconds:120}")
+    private int retryAfterSeconds;
+
+    @Autowired
+    private SceneSegmentService sceneSegmentService;
+
+    @Autowired
+    private MediaCacheService mediaCacheService;
+
+    @Autowired
+    private ThumbnailService thumbnailService;
+
+    @Autowired
+    private VideoTaskRepository videoTaskRepository;
+
+    @Autowired
+    private StoryboardRepository storyboardRepository;
+
+    @Autowired
+    private VideoConcatJobService videoConcatJobService;
+
+    private ExecutorService sweepExecutor;
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+
+    private final AtomicLong sweeps = new AtomicLong();
+    private final AtomicLong orphansDeleted = new AtomicLong();
+    private final AtomicLong segmentsEvicted = new AtomicLong();
+    private final AtomicLong bytesReclaimed = new AtomicLong();
+    private final AtomicLong admissionsRejected = new AtomicLong();
+
+    // 最近一次清理时统计的各目录占用
+    private volatile Map<String, Map<String, Object>> directoryUsage = Map.of();
+    private volatile long lastSweepAt;
+
+    @PostConstruct
+    public void init() {
+        sweepExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "storage-janitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sweepExecutor.shutdownNow();
+    }
+
+    /**
+     * 受管目录：名称 -> 路径
+     */
+    private Map<String, Path> managedDirectories() {
+        Map<String, Path> dirs = new LinkedHashMap<>();
+        dirs.put("works", Paths.get(VideoConcatService.PERSISTENT_VIDEO_DIR));
+        dirs.put("localVideos", Paths.get(VideoConcatService.LOCAL_VIDEO_DIR));
+        dirs.put("segments", sceneSegmentService.getSegmentDir());
+        dirs.put("mediaCache", mediaCacheService.getCacheDir());
+        dirs.put("thumbnails", thumbnailService.getThumbnailDir());
+        dirs.put("temp", Paths.get(VideoConcatService.TEMP_DIR));
+        return dirs;
+    }
+
+    /**
+     * 新的渲染/生成任务是否可以开始：任一受管目录所在磁盘剩余空间不足时返回false，并在后台触发一次清理
+     */
+    public boolean hasCapacity() {
+        for (Map.Entry<String, Path> entry : managedDirectories().entrySet()) {
+            FileStore store = fileStoreOf(entry.getValue());
+            if (store == null) {
+                continue;
+            }
+            try {
+                if (store.getUsableSpace() < minFreeBytes) {
+                    admissionsRejected.incrementAndGet();
+                    logger.warn("磁盘剩余空间不足，拒绝新任务: {} 剩余 {} 字节", entry.getValue(), store.getUsableSpace());
+                    requestSweep();
+                    return false;
+                }
+            } catch (IOException e) {
+                logger.warn("读取磁盘空间失败: {} - {}", entry.getValue(), e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    @Scheduled(fixedDelayString = "${storage.janitor.interval-ms:600000}", initialDelayString = "${storage.janitor.initial-delay-ms:60000}")
+    public void scheduledSweep() {
+        sweep();
+    }
+
+    /**
+     * 在后台执行一次清理，已有清理在进行时忽略
+     */
+    public void requestSweep() {
+        try {
+            sweepExecutor.execute(this::sweep);
+        } catch (RejectedExecutionException e) {
+            // 服务正在关闭
+        }
+    }
+
+    /**
+     * 清理遗留文件、执行分镜片段容量上限与磁盘水位策略，并刷新各目录占用统计
+     */
+    public void sweep() {
+        if (!sweeping.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long orphanCutoff = System.currentTimeMillis() - orphanTtlHours * 3_600_000L;
+            sweepTempDirectories(orphanCutoff);
+            for (Path dir : List.of(Paths.get(VideoConcatService.PERSISTENT_VIDEO_DIR),
+                    Paths.get(VideoConcatService.PERSISTENT_VIDEO_DIR, HlsPackagingService.HLS_DIR),
+                    sceneSegmentService.getSegmentDir(),
+                    mediaCacheService.getCacheDir().resolve("tmp"))) {
+                sweepPartFiles(dir, orphanCutoff);
+            }
+            sweepThumbnailPartFiles(orphanCutoff);
+            sweepUnreferencedLocalVideos(System.currentTimeMillis() - localVideoTtlHours * 3_600_000L);
+
+            long segmentBytes = directorySize(sceneSegmentService.getSegmentDir());
+            if (segmentBytes > segmentMaxBytes) {
+                evictSegments(segmentBytes - segmentMaxBytes);
+            }
+            enforceWatermarks();
+
+            Map<String, Map<String, Object>> usage = new LinkedHashMap<>();
+            for (Map.Entry<String, Path> entry : managedDirectories().entrySet()) {
+                if (!"temp".equals(entry.getKey())) {
+                    usage.put(entry.getKey(), describeDirectory(entry.getValue()));
+                }
+            }
+            directoryUsage = usage;
+            lastSweepAt = System.currentTimeMillis();
+            sweeps.incrementAndGet();
+        } catch (Exception e) {
+            logger.error("存储清理失败", e);
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("highWatermark", highWatermark);
+        stats.put("lowWatermark", lowWatermark);
+        stats.put("minFreeBytes", minFreeBytes);
+        stats.put("segmentMaxBytes", segmentMaxBytes);
+        stats.put("sweeps", sweeps.get());
+        stats.put("lastSweepAt", lastSweepAt);
+        stats.put("orphansDeleted", orphansDeleted.get());
+        stats.put("segmentsEvicted", segmentsEvicted.get());
+        stats.put("bytesReclaimed", bytesReclaimed.get());
+        stats.put("admissionsRejected", admissionsRejected.get());
+
+        Map<String, Object> disks = new LinkedHashMap<>();
+        for (Path dir : managedDirectories().values()) {
+            FileStore store = fileStoreOf(dir);
+            if (store == null || disks.containsKey(store.toString())) {
+                continue;
+            }
+            try {
+                Map<String, Object> disk = new LinkedHashMap<>();
+                disk.put("totalBytes", store.getTotalSpace());
+                disk.put("usableBytes", store.getUsableSpace());
+                disk.put("usage", usageOf(store));
+                disks.put(store.toString(), disk);
+            } catch (IOException e) {
+                // 跳过无法读取的磁盘
+            }
+        }
+        stats.put("disks", disks);
+        stats.put("directories", directoryUsage);
+        return stats;
+    }
+
+    /**
+     * 拼接临时目录（含旧版本遗留的 temp_concat_*、video_output）
+     */
+    private void sweepTempDirectories(long cutoff) {
+        Path tempDir = Paths.get(VideoConcatService.TEMP_DIR);
+        try (Stream<Path> entries = Files.list(tempDir)) {
+            for (Path path : entries.filter(path -> {
+                String name = path.getFileName().toString();
+                return name.startsWith("video_concat_") || name.startsWith("temp_concat_");
+            }).toList()) {
+                if (lastModified(path) < cutoff) {
+                    reclaim(path);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("扫描临时目录失败: {}", e.getMessage());
+        }
+        Path legacyOutput = tempDir.resolve("video_output");
+        if (Files.isDirectory(legacyOutput)) {
+            try (Stream<Path> entries = Files.list(legacyOutput)) {
+                for (Path path : entries.filter(path -> lastModified(path) < cutoff).toList()) {
+                    reclaim(path);
+                }
+            } catch (IOException e) {
+                logger.warn("扫描临时目录失败: {} - {}", legacyOutput, e.getMessage());
+            }
+        }
+    }
+
+    private void sweepPartFiles(Path dir, long cutoff) {
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        try (Stream<Path> entries = Files.list(dir)) {
+            // 包括下载管理器的续传进度文件 *.part.meta
+            for (Path path : entries.filter(path -> {
+                String name = path.getFileName().toString();
+                return (name.endsWith(".part") || name.contains(".part.")) && lastModified(path) < cutoff;
+            }).toList()) {
+                reclaim(path);
+            }
+        } catch (IOException e) {
+            logger.warn("扫描目录失败: {} - {}", dir, e.getMessage());
+        }
+    }
+
+    private void sweepThumbnailPartFiles(long cutoff) {
+        Path dir = thumbnailService.getThumbnailDir();
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        try (Stream<Path> entries = Files.list(dir)) {
+            for (Path keyDir : entries.filter(Files::isDirectory).toList()) {
+                sweepPartFiles(keyDir, cutoff);
+            }
+        } catch (IOException e) {
+            logger.warn("扫描缩略图目录失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 本地视频目录中既不被图生视频任务、分镜头（生成视频与音效视频）引用，也不是排队中或运行中拼接任务输入的文件
+     */
+    private void sweepUnreferencedLocalVideos(long cutoff) {
+        Path dir = Paths.get(VideoConcatService.LOCAL_VIDEO_DIR);
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        Set<Path> activeInputs = videoConcatJobService.getActiveInputFiles();
+        try (Stream<Path> entries = Files.list(dir)) {
+            for (Path path : entries.filter(path -> Files.isRegularFile(path) && lastModified(path) < cutoff).toList()) {
+                if (activeInputs.contains(path.toAbsolutePath().normalize()) || isReferenced(path.getFileName().toString())) {
+                    continue;
+                }
+                reclaim(path);
+            }
+        } catch (IOException e) {
+            logger.warn("扫描本地视频目录失败: {}", e.getMessage());
+        }
+    }
+
+    private boolean isReferenced(String name) {
+        String videoUrl = VideoConcatService.OWN_API_BASE + "files/" + name;
+        String audioVideoUrl = VideoConcatService.OWN_API_BASE + "audio-files/" + name;
+        return videoTaskRepository.existsByVideoUrl(videoUrl)
+                || storyboardRepository.existsByGeneratedVideo(videoUrl)
+                || storyboardRepository.existsByGeneratedVideo(audioVideoUrl)
+                || storyboardRepository.existsByAudioVideo(audioVideoUrl);
+    }
+
+    /**
+     * 磁盘使用率超过高水位时，先淘汰分镜片段，再淘汰媒体缓存，直到低于低水位
+     */
+    private void enforceWatermarks() throws IOException {
+        FileStore segmentStore = fileStoreOf(sceneSegmentService.getSegmentDir());
+        FileStore cacheStore = fileStoreOf(mediaCacheService.getCacheDir());
+        for (FileStore store : new FileStore[]{segmentStore, cacheStore}) {
+            if (store == null || usageOf(store) < highWatermark) {
+                continue;
+            }
+            long bytesToFree = (long) ((usageOf(store) - lowWatermark) * store.getTotalSpace());
+            logger.warn("磁盘使用率 {} 超过高水位 {}，开始淘汰 {} 字节", String.format("%.2f", usageOf(store)), highWatermark, bytesToFree);
+            if (store.equals(segmentStore)) {
+                bytesToFree -= evictSegments(bytesToFree);
+            }
+            if (bytesToFree > 0 && store.equals(cacheStore)) {
+                long freed = mediaCacheService.trim(bytesToFree);
+                bytesReclaimed.addAndGet(freed);
+                bytesToFree -= freed;
+            }
+            if (bytesToFree > 0) {
+                logger.warn("可淘汰的数据不足，磁盘使用率仍高于低水位: {}", store);
+            }
+        }
+    }
+
+    /**
+     * 按最近使用时间淘汰分镜片段（复用片段时会更新修改时间），返回释放的字节数
+     */
+    private long evictSegments(long bytesToFree) {
+        Path dir = sceneSegmentService.getSegmentDir();
+        if (!Files.isDirectory(dir)) {
+            return 0;
+        }
+        long idleCutoff = System.currentTimeMillis() - segmentMinIdleMinutes * 60_000L;
+        List<Path> candidates;
+        try (Stream<Path> entries = Files.list(dir)) {
+            candidates = entries.filter(path -> path.getFileName().toString().endsWith(".ts"))
+                    .filter(path -> lastModified(path) < idleCutoff)
+                    .sorted(Comparator.comparingLong(this::lastModified))
+                    .toList();
+        } catch (IOException e) {
+            logger.warn("扫描分镜片段目录失败: {}", e.getMessage());
+            return 0;
+        }
+        long freed = 0;
+        for (Path segment : candidates) {
+            if (freed >= bytesToFree) {
+                break;
+            }
+            try {
+                long size = Files.size(segment);
+                Files.deleteIfExists(segment);
+                freed += size;
+                segmentsEvicted.incrementAndGet();
+            } catch (IOException e) {
+                logger.warn("删除分镜片段失败: {} - {}", segment, e.getMessage());
+            }
+        }
+        if (freed > 0) {
+            bytesReclaimed.addAndGet(freed);
+            logger.info("已淘汰分镜片段: 释放 {} 字节", freed);
+        }
+        return freed;
+    }
+
+    /**
+     * 删除遗留文件或目录
+     */
+    private void reclaim(Path path) {
+        long size = directorySize(path);
+        List<Path> paths = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(path)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(paths::add);
+        } catch (IOException e) {
+            logger.warn("清理遗留文件失败: {} - {}", path, e.getMessage());
+            return;
+        }
+        for (Path entry : paths) {
+            try {
+                Files.deleteIfExists(entry);
+            } catch (IOException e) {
+                logger.warn("清理遗留文件失败: {} - {}", entry, e.getMessage());
+                return;
+            }
+        }
+        orphansDeleted.incrementAndGet();
+        bytesReclaimed.addAndGet(size);
+        logger.info("已清理遗留文件: {} ({} 字节)", path, size);
+    }
+
+    private Map<String, Object> describeDirectory(Path dir) {
+        Map<String, Object> usage = new LinkedHashMap<>();
+        usage.put("path", dir.toString());
+        long[] totals = new long[2];
+        if (Files.isDirectory(dir)) {
+            try (Stream<Path> walk = Files.walk(dir)) {
+                walk.filter(Files::isRegularFile).forEach(file -> {
+                    totals[0]++;
+                    totals[1] += sizeOf(file);
+                });
+            } catch (IOException e) {
+                logger.warn("统计目录占用失败: {} - {}", dir, e.getMessage());
+            }
+        }
+        usage.put("files", totals[0]);
+        usage.put("bytes", totals[1]);
+        return usage;
+    }
+
+    private long directorySize(Path path) {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        try (Stream<Path> walk = Files.walk(path)) {
+            return walk.filter(Files::isRegularFile).mapToLong(this::sizeOf).sum();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static double usageOf(FileStore store) throws IOException {
+        long total = store.getTotalSpace();
+        return total == 0 ? 0.0 : 1.0 - (double) store.getUsableSpace() / total;
+    }
+
+    /**
+     * 目录所在磁盘，目录尚未创建时取最近的已存在上级目录
+     */
+    private static FileStore fileStoreOf(Path dir) {
+        Path existing = dir.toAbsolutePath();
+        while (existing != null && !Files.exists(existing)) {
+            existing = existing.getParent();
+        }
+        if (existing == null) {
+            return null;
+        }
+        try {
+            return Files.getFileStore(existing);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private long lastModified(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class).lastModifiedTime().toMillis();
+        } catch (IOException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package com.example.springboot_pro.service;
+
+import com.example.springboot_pro.dao.VideoRepository;
+import com.example.springboot_pro.dao.VideoTaskRepository;
+import com.example.springboot_pro.domain.Video;
+import com.example.springboot_pro.domain.VideoTaskStatusEvent;
+import com.example.springboot_pro.util.Mp4BoxParser;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缩略图流水线：为分镜视频和成片生成封面图、拖动预览雪碧图及其 WebVTT 索引，
+ * 在后台线程中执行，不阻塞视频生成与拼接
+ *
+ * 目录结构: {thumbnailDir}/{key}/poster.jpg、sprite.jpg、sprite.vtt
+ */
+@Service
+public class ThumbnailService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ThumbnailService.class);
+
+    public static final String POSTER = "poster.jpg";
+    public static final String SPRITE = "sprite.jpg";
+    public static final String SPRITE_VTT = "sprite.vtt";
+    // 生成完成的标记：时长或尺寸未知时不生成雪碧图，只凭文件是否存在无法判断是否已处理过
+    private static final String COMPLETE_MARKER = ".complete";
+    public static final String THUMBNAIL_ACCESS_URL_BASE = "http://localhost:8080/api/video/thumbnails/";
+
+    private static final int POSTER_WIDTH = 640;
+    private static final int TILE_WIDTH = 160;
+    private static final int SPRITE_COLUMNS = 10;
+    // 雪碧图最多包含的帧数，长视频按比例拉大采样间隔
+    private static final int MAX_TILES = 100;
+
+    @Value("${video.thumbnail.dir:D:/SpringBoot_Pro/thumbnails}")
+    private String thumbnailDir;
+
+    @Value("${video.thumbnail.queue-capacity:100}")
+    private int queueCapacity;
+
+    @Autowired
+    private MediaProcessSupervisor processSupervisor;
+
+    @Autowired
+    private VideoTaskRepository videoTaskRepository;
+
+    @Autowired
+    private VideoRepository videoRepository;
+
+    private ThreadPoolExecutor executor;
+
+    // 已在队列或生成中的key，避免重复提交
+    private final Map<String, Boolean> pending = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        // 单线程即可，FFmpeg并发由进程管理器统一控制
+        executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "thumbnail-worker");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 分镜视频下载到本地后生成缩略图，并回写到图生视频任务
+     */
+    @EventListener
+    public void onTaskStatusChanged(VideoTaskStatusEvent event) {
+        if (!"completed".equals(event.getStatus()) || event.getVideoUrl() == null || event.getThumbnailUrl() != null) {
+            return;
+        }
+        Path video = VideoConcatService.resolveOwnMediaUrl(event.getVideoUrl());
+        if (video == null) {
+            return;
+        }
+        Long videoTaskId = event.getVideoTaskId();
+        submit("task-" + videoTaskId, video, posterUrl -> videoTaskRepository.findById(videoTaskId).ifPresent(task -> {
+            task.setThumbnailUrl(posterUrl);
+            videoTaskRepository.save(task);
+        }));
+    }
+
+    /**
+     * 成片落盘后生成缩略图，并回写到引用该成片的作品记录
+     */
+    public void submitFinalVideo(String videoUrl, Path video) {
+        submit(finalVideoKey(video.getFileName().toString()), video, posterUrl -> {
+            List<Video> videos = videoRepository.findByVideoUrl(videoUrl);
+            for (Video record : videos) {
+                record.setThumbnailUrl(posterUrl);
+            }
+            videoRepository.saveAll(videos);
+        });
+    }
+
+    /**
+     * 成片封面图URL，尚未生成时返回null
+     */
+    public String findFinalVideoPoster(String videoUrl) {
+        Path video = VideoConcatService.resolveOwnMediaUrl(videoUrl);
+        if (video == null) {
+            return null;
+        }
+        String key = finalVideoKey(video.getFileName().toString());
+        return Files.isRegularFile(thumbnailPath(key, POSTER)) ? urlFor(key, POSTER) : null;
+    }
+
+    public Path getThumbnailDir() {
+        return Paths.get(thumbnailDir);
+    }
+
+    /**
+     * 缩略图文件路径，key 或文件名不合法时返回null
+     */
+    public Path thumbnailPath(String key, String file) {
+        if (key.contains("..") || key.contains("/") || key.contains("\\")
+                || !(POSTER.equals(file) || SPRITE.equals(file) || SPRITE_VTT.equals(file))) {
+            return null;
+        }
+        return Paths.get(thumbnailDir, key, file);
+    }
+
+    private void submit(String key, Path video, PosterCallback onGenerated) {
+        if (pending.putIfAbsent(key, Boolean.TRUE) != null) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    if (generate(key, video)) {
+                        onGenerated.accept(urlFor(key, POSTER));
+                    }
+                } catch (Exception e) {
+                    logger.warn("缩略图生成失败: {} - {}", video, e.getMessage());
+                } finally {
+                    pending.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.remove(key);
+            logger.warn("缩略图队列已满，跳过: {}", video);
+        }
+    }
+
+    @FunctionalInterface
+    private interface PosterCallback {
+        void accept(String posterUrl);
+    }
+
+    /**
+     * 生成封面图与雪碧图，已生成过时直接返回true
+     */
+    private boolean generate(String key, Path video) throws IOException, InterruptedException {
+        Path dir = Paths.get(thumbnailDir, key);
+        if (Files.isRegularFile(dir.resolve(POSTER))
+                && (Files.exists(dir.resolve(COMPLETE_MARKER)) || Files.isRegularFile(dir.resolve(SPRITE_VTT)))) {
+            return true;
+        }
+        if (!Files.isRegularFile(video)) {
+            return false;
+        }
+
+        Mp4BoxParser.Mp4Info info = Mp4BoxParser.parse(video);
+        double duration = info != null ? info.getDurationMicros() / 1_000_000.0 : 0;
+        Files.createDirectories(dir);
+
+        // 封面取1秒处（短视频取三分之一处），避开片头黑场
+        double posterAt = duration > 0 ? Math.min(1.0, duration / 3) : 0;
+        FFmpegCommandBuilder poster = new FFmpegCommandBuilder();
+        poster.input(video.toString(), "-ss", seconds(posterAt));
+        poster.outputOptions("-frames:v", "1", "-vf", "scale=" + POSTER_WIDTH + ":-2", "-q:v", "3", "-f", "image2");
+        if (!runToFile(key, "封面图", poster, dir.resolve(POSTER))) {
+            return false;
+        }
+
+        if (info != null && duration > 0 && info.getWidth() > 0 && info.getHeight() > 0) {
+            double interval = Math.max(1.0, Math.ceil(duration / MAX_TILES));
+            int tiles = (int) Math.ceil(duration / interval);
+            int rows = (tiles + SPRITE_COLUMNS - 1) / SPRITE_COLUMNS;
+            int tileHeight = (int) Math.round((double) TILE_WIDTH * info.getHeight() / info.getWidth() / 2) * 2;
+
+            FFmpegCommandBuilder sprite = new FFmpegCommandBuilder();
+            sprite.input(video.toString());
+            sprite.outputOptions("-frames:v", "1",
+                    "-vf", "fps=1/" + seconds(interval) + ",scale=" + TILE_WIDTH + ":" + tileHeight
+                            + ",tile=" + SPRITE_COLUMNS + "x" + rows,
+                    "-q:v", "5", "-f", "image2");
+            if (!runToFile(key, "雪碧图", sprite, dir.resolve(SPRITE))) {
+                // 封面图可用，雪碧图下次提交时重试
+                return true;
+            }
+            writeAtomically(dir.resolve(SPRITE_VTT), buildSpriteVtt(key, duration, interval, tiles, tileHeight));
+        }
+        Files.write(dir.resolve(COMPLETE_MARKER), new byte[0]);
+        logger.info("缩略图已生成: {} -> {}", video.getFileName(), dir);
+        return true;
+    }
+
+    /**
+     * WebVTT 索引：每个时间段对应雪碧图中的一块区域（#xywh 媒体片段）
+     */
+    static String buildSpriteVtt(String key, double duration, double interval, int tiles, int tileHeight) {
+        StringBuilder vtt = new StringBuilder("WEBVTT\n\n");
+        String spriteUrl = THUMBNAIL_ACCESS_URL_BASE + key + "/" + SPRITE;
+        for (int i = 0; i < tiles; i++) {
+            double start = i * interval;
+            double end = Math.min(duration, (i + 1) * interval);
+            int x = (i % SPRITE_COLUMNS) * TILE_WIDTH;
+            int y = (i / SPRITE_COLUMNS) * tileHeight;
+            vtt.append(vttTime(start)).append(" --> ").append(vttTime(end)).append('\n')
+                    .append(spriteUrl).append("#xywh=").append(x).append(',').append(y).append(',')
+                    .append(TILE_WIDTH).append(',').append(tileHeight).append("\n\n");
+        }
+        return vtt.toString();
+    }
+
+    private boolean runToFile(String key, String label, FFmpegCommandBuilder builder, Path target) throws IOException, InterruptedException {
+        Path partPath = target.resolveSibling("." + target.getFileName() + ".part");
+        try {
+            MediaProcessSupervisor.ProcessResult result = processSupervisor.runProbe(null, label, builder.build(partPath.toString()), 120);
+            if (!result.isSuccess() || !Files.isRegularFile(partPath)) {
+                logger.warn("{}生成失败: {}，退出码: {}", label, key, result.getExitCode());
+                return false;
+            }
+            Files.move(partPath, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } finally {
+            Files.deleteIfExists(partPath);
+        }
+    }
+
+    private static void writeAtomically(Path target, String content) throws IOException {
+        Path partPath = target.resolveSibling("." + target.getFileName() + ".part");
+        Files.writeString(partPath, content, StandardCharsets.UTF_8);
+        Files.move(partPath, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String finalVideoKey(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return "work-" + (dot > 0 ? fileName.substring(0, dot) : fileName);
+    }
+
+    private static String urlFor(String key, String file) {
+        return THUMBNAIL_ACCESS_URL_BASE + key + "/" + file;
+    }
+
+    private static String seconds(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static String vttTime(double seconds) {
+        long millis = Math.round(seconds * 1000);
+        return String.format(Locale.ROOT, "%02d:%02d:%02d.%03d",
+                millis / 3_600_000, millis / 60_000 % 60, millis / 1000 % 60, millis % 1000);
+    }
+}
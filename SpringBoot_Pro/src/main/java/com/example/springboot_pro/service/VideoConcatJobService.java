@@ -0,0 +1,561 @@
+package com.example.springboot_pro.service;
+
+import com.example.springboot_pro.domain.ConcatJob;
+import com.example.springboot_pro.domain.RenderJob;
+import com.example.springboot_pro.dto.VideoConcatRequest;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.commons.codec.binary.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 视频拼接异步任务管理：有界工作线程池 + 任务状态查询 + SSE进度推送
+ *
+ * 按渲染指纹（分镜URL列表 + 背景音乐）去重：相同请求在渲染中时加入正在运行的任务，
+ * 已渲染过且成片仍在时直接返回已有文件
+ *
+ * 任务及其阶段检查点写入任务日志，服务重启后未结束的任务以原任务ID从检查点继续
+ */
+@Service
+public class VideoConcatJobService {
+
+    private static final Logger logger = LoggerFactory.getLogger(VideoConcatJobService.class);
+
+    @Autowired
+    private VideoConcatService videoConcatService;
+
+    @Autowired
+    private MediaProcessSupervisor processSupervisor;
+
+    @Autowired
+    private RenderJournalService renderJournalService;
+
+    // 同时运行的拼接任务数，即并发FFmpeg进程上限
+    @Value("${video.concat.max-concurrent:2}")
+    private int maxConcurrent;
+
+    // 排队等待的任务上限，超出时拒绝提交
+    @Value("${video.concat.queue-capacity:20}")
+    private int queueCapacity;
+
+    // 已结束任务在内存中保留的时间
+    @Value("${video.concat.job-retention-minutes:60}")
+    private long jobRetentionMinutes;
+
+    @Value("${video.concat.sse-timeout-ms:1800000}")
+    private long sseTimeoutMs;
+
+    // 渲染指纹索引保留的成片数
+    @Value("${video.concat.render-index-size:500}")
+    private int renderIndexSize;
+
+    // 同一任务重启后最多恢复的次数，避免导致进程崩溃的任务反复执行
+    @Value("${video.concat.max-resume-attempts:3}")
+    private int maxResumeAttempts;
+
+    private static final String RENDER_INDEX_FILE = "render-index.properties";
+
+    private ThreadPoolExecutor executor;
+
+    // 服务关闭时被中断的任务保持未结束状态，重启后恢复
+    private volatile boolean shuttingDown;
+
+    private final Map<String, ConcatJob> jobs = new ConcurrentHashMap<>();
+    private final Map<String, List<SseEmitter>> emitters = new ConcurrentHashMap<>();
+
+    // 未登录的调用者共用的订阅者标识，可加入任务但不能取消
+    private static final Long ANONYMOUS_SUBSCRIBER = 0L;
+
+    // jobId -> 提交或加入该任务的用户，相同内容的请求共用一个任务，取消时按订阅者计数，修改时需持有 inFlight 的锁
+    private final Map<String, Set<Long>> subscribers = new ConcurrentHashMap<>();
+
+    // jobId -> 排队中或运行中任务的分镜视频URL，存储清理据此跳过正在使用的本地视频
+    private final Map<String, List<String>> jobInputs = new ConcurrentHashMap<>();
+
+    // 渲染指纹 -> 正在运行的任务，访问时需持有该Map的锁
+    private final Map<String, ConcatJob> inFlight = new HashMap<>();
+
+    // 渲染指纹 -> 成片文件名，accessOrder=true 按LRU淘汰
+    private final LinkedHashMap<String, String> renderIndex = new LinkedHashMap<>(64, 0.75f, true);
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        executor = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "video-concat-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        loadRenderIndex();
+        logger.info("视频拼接线程池已启动: 并发数={}, 队列容量={}, 已索引成片={}", maxConcurrent, queueCapacity, renderIndex.size());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        shuttingDown = true;
+        executor.shutdownNow();
+    }
+
+    /**
+     * 提交拼接任务，立即返回任务对象；队列已满时抛出RejectedExecutionException
+     *
+     * 相同指纹的任务正在运行时返回该任务，成片已存在时返回一个已完成的任务
+     */
+    public ConcatJob submit(VideoConcatRequest request, Long userId) {
+        purgeExpiredJobs();
+
+        Long subscriber = userId != null ? userId : ANONYMOUS_SUBSCRIBER;
+        String fingerprint = renderFingerprint(request);
+        ConcatJob job;
+        synchronized (inFlight) {
+            ConcatJob running = inFlight.get(fingerprint);
+            if (running != null) {
+                Set<Long> jobSubscribers = subscribers.computeIfAbsent(running.getJobId(), key -> ConcurrentHashMap.newKeySet());
+                if (jobSubscribers.add(subscriber)) {
+                    renderJournalService.updateSubscribers(running.getJobId(), jobSubscribers);
+                }
+                logger.info("相同内容的拼接任务正在运行，加入任务: jobId={}, 订阅者={}", running.getJobId(), jobSubscribers.size());
+                return running;
+            }
+
+            job = new ConcatJob(UUID.randomUUID().toString(), request.getVideoUrls().size());
+            Set<Long> jobSubscribers = ConcurrentHashMap.newKeySet();
+            jobSubscribers.add(subscriber);
+            subscribers.put(job.getJobId(), jobSubscribers);
+            if (completeFromIndex(fingerprint, job)) {
+                jobs.put(job.getJobId(), job);
+                return job;
+            }
+
+            jobs.put(job.getJobId(), job);
+            jobInputs.put(job.getJobId(), List.copyOf(request.getVideoUrls()));
+            renderJournalService.begin(job.getJobId(), fingerprint, request, jobSubscribers);
+            try {
+                executor.execute(() -> runJob(job, request, fingerprint, null));
+            } catch (RejectedExecutionException e) {
+                jobs.remove(job.getJobId());
+                jobInputs.remove(job.getJobId());
+                subscribers.remove(job.getJobId());
+                renderJournalService.fail(job.getJobId(), "拼接队列已满");
+                throw e;
+            }
+            inFlight.put(fingerprint, job);
+        }
+
+        logger.info("视频拼接任务已提交: jobId={}, 视频数={}, 排队数={}", job.getJobId(), job.getClipCount(), executor.getQueue().size());
+        return job;
+    }
+
+    /**
+     * 查询任务，内存中没有时（如服务重启前已结束的任务）由任务日志还原
+     */
+    public Optional<ConcatJob> getJob(String jobId) {
+        ConcatJob job = jobs.get(jobId);
+        if (job != null) {
+            return Optional.of(job);
+        }
+        return renderJournalService.find(jobId)
+                .filter(renderJob -> !RenderJob.STATUS_RUNNING.equals(renderJob.getStatus()))
+                .map(this::restoreFinishedJob);
+    }
+
+    /**
+     * 用户是否提交或加入过该任务，只有订阅者可以取消
+     */
+    public boolean isSubscriber(String jobId, Long userId) {
+        Set<Long> jobSubscribers = subscribers.get(jobId);
+        return userId != null && jobSubscribers != null && jobSubscribers.contains(userId);
+    }
+
+    /**
+     * 取消任务：调用者退出订阅，最后一个订阅者退出时才真正取消——排队中的任务不再执行，运行中的任务结束其FFmpeg进程；
+     * 其他订阅者仍在等待时渲染继续。返回任务的最新状态，调用方需先用 isSubscriber 校验权限
+     */
+    public Optional<ConcatJob> cancel(String jobId, Long userId) {
+        ConcatJob job = jobs.get(jobId);
+        if (job == null) {
+            return Optional.empty();
+        }
+        boolean cancelled;
+        synchronized (inFlight) {
+            Set<Long> jobSubscribers = subscribers.get(jobId);
+            if (jobSubscribers != null && jobSubscribers.remove(userId) && !jobSubscribers.isEmpty()) {
+                renderJournalService.updateSubscribers(jobId, jobSubscribers);
+                logger.info("用户退出拼接任务，其他订阅者仍在等待: jobId={}, userId={}, 剩余订阅者={}", jobId, userId, jobSubscribers.size());
+                return Optional.of(job);
+            }
+            cancelled = job.cancel();
+            if (cancelled) {
+                // 取消后相同内容的请求需重新渲染，不能再加入该任务；在锁内移除，不会有新的订阅者加入已取消的任务
+                inFlight.values().remove(job);
+            }
+        }
+        if (cancelled) {
+            processSupervisor.cancel(jobId);
+            renderJournalService.cancel(jobId);
+            publish(job);
+        }
+        return Optional.of(job);
+    }
+
+    /**
+     * 订阅任务进度，连接建立后立即推送一次当前状态
+     */
+    public SseEmitter subscribe(String jobId) {
+        ConcatJob job = getJob(jobId).orElse(null);
+        if (job == null) {
+            return null;
+        }
+
+        SseEmitter emitter = new SseEmitter(sseTimeoutMs);
+        if (job.isFinished()) {
+            // 已结束的任务不再有进度推送，发送最终状态后直接关闭，不登记到 emitters
+            send(emitter, job);
+            emitter.complete();
+            return emitter;
+        }
+
+        emitters.compute(jobId, (key, jobEmitters) -> {
+            List<SseEmitter> list = jobEmitters != null ? jobEmitters : new CopyOnWriteArrayList<>();
+            list.add(emitter);
+            return list;
+        });
+        emitter.onCompletion(() -> removeEmitter(jobId, emitter));
+        emitter.onTimeout(() -> removeEmitter(jobId, emitter));
+        emitter.onError(e -> removeEmitter(jobId, emitter));
+
+        send(emitter, job);
+        // 登记前后任务可能刚好结束，finishJob 已经移除了该任务的连接列表
+        if (job.isFinished()) {
+            removeEmitter(jobId, emitter);
+            emitter.complete();
+        }
+        return emitter;
+    }
+
+    /**
+     * 移除连接，任务的最后一个连接移除后同时移除Map条目
+     */
+    private void removeEmitter(String jobId, SseEmitter emitter) {
+        emitters.computeIfPresent(jobId, (key, jobEmitters) -> {
+            jobEmitters.remove(emitter);
+            return jobEmitters.isEmpty() ? null : jobEmitters;
+        });
+    }
+
+    /**
+     * 服务启动后恢复上次运行中断的任务，并回收遗留的临时文件
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeInterruptedJobs() {
+        // 此时还没有任务在运行，遗留的临时文件都属于已中断的任务
+        videoConcatService.reclaimOrphanedFiles();
+        renderJournalService.purgeExpired();
+
+        int resumed = 0;
+        for (RenderJob interrupted : renderJournalService.findInterrupted()) {
+            String jobId = interrupted.getJobId();
+            if (interrupted.getResumeCount() >= maxResumeAttempts) {
+                logger.warn("拼接任务已恢复 {} 次仍未完成，不再恢复: jobId={}", interrupted.getResumeCount(), jobId);
+                renderJournalService.fail(jobId, "服务重启后多次恢复失败");
+                continue;
+            }
+            RenderJob checkpoint = renderJournalService.markResumed(jobId).orElse(interrupted);
+            VideoConcatRequest request = RenderJournalService.toRequest(checkpoint);
+            String fingerprint = checkpoint.getFingerprint() != null ? checkpoint.getFingerprint() : renderFingerprint(request);
+            ConcatJob job = new ConcatJob(jobId, request.getVideoUrls().size());
+            synchronized (inFlight) {
+                jobs.put(jobId, job);
+                jobInputs.put(jobId, List.copyOf(request.getVideoUrls()));
+                subscribers.put(jobId, RenderJournalService.decodeSubscribers(checkpoint));
+                try {
+                    executor.execute(() -> runJob(job, request, fingerprint, checkpoint));
+                } catch (RejectedExecutionException e) {
+                    jobs.remove(jobId);
+                    jobInputs.remove(jobId);
+                    subscribers.remove(jobId);
+                    renderJournalService.fail(jobId, "拼接队列已满，无法恢复");
+                    continue;
+                }
+                inFlight.putIfAbsent(fingerprint, job);
+            }
+            resumed++;
+            logger.info("恢复中断的拼接任务: jobId={}, 检查点={}", jobId, checkpoint.getStage());
+        }
+        if (resumed > 0) {
+            logger.info("已恢复 {} 个中断的拼接任务", resumed);
+        }
+    }
+
+    private ConcatJob restoreFinishedJob(RenderJob renderJob) {
+        ConcatJob job = new ConcatJob(renderJob.getJobId(), RenderJournalService.splitLines(renderJob.getVideoUrls()).size());
+        String fileName = renderJob.getFileName();
+        Path file = fileName != null ? Paths.get(VideoConcatService.PERSISTENT_VIDEO_DIR, fileName) : null;
+        if (RenderJob.STATUS_COMPLETED.equals(renderJob.getStatus()) && file != null && Files.isRegularFile(file)) {
+            List<String> clipErrors = RenderJournalService.decodeFailedClips(renderJob.getFailedClips()).stream()
+                    .map(clip -> "第" + (clip.getIndex() + 1) + "个视频: " + clip.getError())
+                    .toList();
+            try {
+                job.complete(VideoConcatService.VIDEO_ACCESS_URL_BASE + fileName, fileName, Files.size(file),
+                        hlsUrlFor(fileName), clipErrors);
+                return job;
+            } catch (IOException e) {
+                logger.warn("读取成片失败: {} - {}", file, e.getMessage());
+            }
+        }
+        if (RenderJob.STATUS_CANCELLED.equals(renderJob.getStatus())) {
+            job.cancel();
+        } else {
+            job.fail(renderJob.getErrorMessage() != null ? renderJob.getErrorMessage() : "成片已不存在");
+        }
+        return job;
+    }
+
+    private void runJob(ConcatJob job, VideoConcatRequest request, String fingerprint, RenderJob checkpoint) {
+        if (job.isCancelled()) {
+            // 排队期间已被取消
+            finishJob(job, fingerprint);
+            return;
+        }
+        logger.info("==================== 视频拼接任务开始: {} ====================", job.getJobId());
+        try {
+            VideoConcatService.ConcatResult result = videoConcatService.concat(request, job.getJobId(), checkpoint,
+                    (status, progress, message) -> {
+                        if (job.updateProgress(status, progress, message)) {
+                            publish(job);
+                        }
+                    });
+            List<String> clipErrors = result.getFailedClips().stream()
+                    .map(clip -> "第" + (clip.getIndex() + 1) + "个视频: " + clip.getError())
+                    .toList();
+            job.complete(result.getVideoUrl(), result.getFileName(), result.getFileSize(), result.getHlsUrl(), clipErrors);
+            renderJournalService.complete(job.getJobId(), result.getFileName());
+            // 有分镜被跳过的成片不完整，不作为后续相同请求的结果
+            if (clipErrors.isEmpty()) {
+                recordRender(fingerprint, result.getFileName());
+            }
+        } catch (Exception e) {
+            if (job.isCancelled()) {
+                logger.info("视频拼接任务已取消: {}", job.getJobId());
+            } else if (shuttingDown) {
+                logger.info("服务关闭，视频拼接任务将在重启后恢复: {}", job.getJobId());
+            } else {
+                logger.error("视频拼接任务失败: " + job.getJobId(), e);
+                job.fail(e.getMessage());
+                renderJournalService.fail(job.getJobId(), e.getMessage());
+            }
+        } finally {
+            finishJob(job, fingerprint);
+            logger.info("==================== 视频拼接任务结束: {} ({}) ====================", job.getJobId(), job.getStatus());
+        }
+    }
+
+    private void finishJob(ConcatJob job, String fingerprint) {
+        synchronized (inFlight) {
+            inFlight.remove(fingerprint, job);
+        }
+        jobInputs.remove(job.getJobId());
+        processSupervisor.release(job.getJobId());
+        publish(job);
+        List<SseEmitter> jobEmitters = emitters.remove(job.getJobId());
+        if (jobEmitters != null) {
+            jobEmitters.forEach(SseEmitter::complete);
+        }
+    }
+
+    /**
+     * 排队中或运行中的任务引用的本服务本地视频文件
+     */
+    public Set<Path> getActiveInputFiles() {
+        Set<Path> files = new HashSet<>();
+        for (List<String> videoUrls : jobInputs.values()) {
+            for (String videoUrl : videoUrls) {
+                Path file = VideoConcatService.resolveOwnMediaUrl(videoUrl);
+                if (file != null) {
+                    files.add(file.toAbsolutePath().normalize());
+                }
+            }
+        }
+        return files;
+    }
+
+    private void publish(ConcatJob job) {
+        List<SseEmitter> jobEmitters = emitters.get(job.getJobId());
+        if (jobEmitters == null) {
+            return;
+        }
+        for (SseEmitter emitter : jobEmitters) {
+            if (!send(emitter, job)) {
+                removeEmitter(job.getJobId(), emitter);
+            }
+        }
+    }
+
+    private boolean send(SseEmitter emitter, ConcatJob job) {
+        try {
+            emitter.send(SseEmitter.event().name("progress").data(job));
+            return true;
+        } catch (IOException e) {
+            // 客户端已断开
+            emitter.completeWithError(e);
+            return false;
+        } catch (IllegalStateException e) {
+            // emitter已超时或已关闭
+            return false;
+        }
+    }
+
+    /**
+     * 渲染指纹：分镜URL顺序与背景音乐决定成片内容，输出文件名不参与计算
+     */
+    static String renderFingerprint(VideoConcatRequest request) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String url : request.getVideoUrls()) {
+                digest.update(url.trim().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '\n');
+            }
+            String music = request.getBackgroundMusic();
+            digest.update(("music=" + (music != null ? music.trim() : "")).getBytes(StandardCharsets.UTF_8));
+            return Hex.encodeHexString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 指纹对应的成片仍存在时，以该文件完成任务
+     */
+    private boolean completeFromIndex(String fingerprint, ConcatJob job) {
+        String fileName;
+        synchronized (renderIndex) {
+            fileName = renderIndex.get(fingerprint);
+        }
+        if (fileName == null) {
+            return false;
+        }
+        Path file = Paths.get(VideoConcatService.PERSISTENT_VIDEO_DIR, fileName);
+        try {
+            if (Files.isRegularFile(file)) {
+                job.completeWithExisting(VideoConcatService.VIDEO_ACCESS_URL_BASE + fileName, fileName, Files.size(file), hlsUrlFor(fileName));
+                logger.info("复用已有成片: jobId={}, 文件={}", job.getJobId(), fileName);
+                return true;
+            }
+        } catch (IOException e) {
+            logger.warn("读取已有成片失败: {} - {}", file, e.getMessage());
+        }
+        // 成片已被删除，重新渲染
+        synchronized (renderIndex) {
+            renderIndex.remove(fingerprint);
+            saveRenderIndex();
+        }
+        return false;
+    }
+
+    /**
+     * 成片已打包的HLS主播放列表URL，未打包时返回null
+     */
+    private static String hlsUrlFor(String fileName) {
+        Path hlsDir = HlsPackagingService.hlsDirFor(fileName);
+        return hlsDir != null && Files.isRegularFile(hlsDir.resolve(HlsPackagingService.MASTER_PLAYLIST))
+                ? HlsPackagingService.playlistUrlFor(fileName) : null;
+    }
+
+    private void recordRender(String fingerprint, String fileName) {
+        synchronized (renderIndex) {
+            renderIndex.put(fingerprint, fileName);
+            if (renderIndex.size() > renderIndexSize) {
+                renderIndex.remove(renderIndex.keySet().iterator().next());
+            }
+            saveRenderIndex();
+        }
+    }
+
+    private void loadRenderIndex() {
+        Path indexFile = Paths.get(VideoConcatService.PERSISTENT_VIDEO_DIR, RENDER_INDEX_FILE);
+        if (!Files.exists(indexFile)) {
+            return;
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(indexFile)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            logger.warn("加载渲染指纹索引失败: {}", e.getMessage());
+            return;
+        }
+        synchronized (renderIndex) {
+            for (String fingerprint : properties.stringPropertyNames()) {
+                renderIndex.put(fingerprint, properties.getProperty(fingerprint));
+            }
+        }
+    }
+
+    /**
+     * 调用方需持有 renderIndex 的锁
+     */
+    private void saveRenderIndex() {
+        Path dir = Paths.get(VideoConcatService.PERSISTENT_VIDEO_DIR);
+        Path indexFile = dir.resolve(RENDER_INDEX_FILE);
+        Path tmpIndex = dir.resolve("." + RENDER_INDEX_FILE + ".tmp");
+        Properties properties = new Properties();
+        properties.putAll(renderIndex);
+        try {
+            Files.createDirectories(dir);
+            try (Writer writer = Files.newBufferedWriter(tmpIndex)) {
+                properties.store(writer, "render fingerprint -> file name");
+            }
+            Files.move(tmpIndex, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("保存渲染指纹索引失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 清理超过保留期的已结束任务
+     */
+    private void purgeExpiredJobs() {
+        LocalDateTime expireBefore = LocalDateTime.now().minusMinutes(jobRetentionMinutes);
+        jobs.values().removeIf(job -> job.isFinished()
+                && job.getCompletedAt() != null
+                && job.getCompletedAt().isBefore(expireBefore));
+        subscribers.keySet().retainAll(jobs.keySet());
+    }
+}
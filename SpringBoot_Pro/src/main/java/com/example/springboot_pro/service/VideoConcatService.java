@@ -0,0 +1,879 @@
+package com.example.springboot_pro.service;
+
+import com.example.springboot_pro.domain.RenderJob;
+import com.example.springboot_pro.dto.VideoConcatRequest;
+import com.example.springboot_pro.util.Mp4BoxParser;
+import com.example.springboot_pro.util.Mp4Faststart;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.DoubleConsumer;
+import java.util.function.IntConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * 视频拼接流水线：下载分镜视频 -> 规范化为可复用的分镜片段 -> 一次FFmpeg调用完成拼接与背景音乐混音 -> 原子移入作品目录
+ */
+@Service
+public class VideoConcatService {
+
+    private static final Logger logger = LoggerFactory.getLogger(VideoConcatService.class);
+
+    public static final String TEMP_DIR = System.getProperty("java.io.tmpdir");
+
+    // 持久化视频存储目录
+    public static final String PERSISTENT_VIDEO_DIR = "D:" + File.separator + "video_works";
+    public static final String VIDEO_ACCESS_URL_BASE = "http://localhost:8080/api/video/works/";
+
+    private static final String MUSIC_DIR = "D:/SpringBoot_Pro/musics/";
+    public static final String LOCAL_VIDEO_DIR = "D:/SpringBoot_Pro/videos";
+    public static final String OWN_API_BASE = "http://localhost:8080/api/video/";
+
+    // FFmpeg日志中输入文件时长，例如 "Duration: 00:00:05.04"
+    private static final Pattern DURATION_PATTERN = Pattern.compile("Duration: (\\d+):(\\d{2}):(\\d{2}(?:\\.\\d+)?)");
+    // -progress 输出的 key=value 行
+    private static final Pattern PROGRESS_LINE_PATTERN = Pattern.compile("^[a-z0-9_]+=\\S*$");
+
+    // 本地视频文件路径映射（与VideoController.getLocalVideo保持一致）
+    private static final Map<String, String> LOCAL_SCENE_VIDEOS = Map.of(
+            "scene1-1", "D:\\courses\\场景设计\\杭州的未来\\镜头1.1.mp4",
+            "scene1-2", "D:\\courses\\场景设计\\杭州的未来\\镜头1.2.mp4",
+            "scene1-transition", "D:\\courses\\场景设计\\杭州的未来\\镜头1转换.mp4",
+            "scene2-1", "D:\\courses\\场景设计\\杭州的未来\\镜头2.1.mp4",
+            "scene6-1", "D:\\courses\\场景设计\\杭州的未来\\镜头6 (1).mp4",
+            "scene6-2", "D:\\courses\\场景设计\\杭州的未来\\镜头6 (2).mp4",
+            "scene7-1", "D:\\courses\\场景设计\\杭州的未来\\镜头7 (1).mp4",
+            "scene7-2", "D:\\courses\\场景设计\\杭州的未来\\镜头7 (2).mp4",
+            "scene7-3", "D:\\courses\\场景设计\\杭州的未来\\镜头7 (3).mp4");
+
+    // 同时下载的分镜视频数（所有拼接任务共享）
+    @Value("${video.concat.fetch-concurrency:4}")
+    private int fetchConcurrency;
+
+    private Semaphore fetchPermits;
+
+    // 没有可流拷贝的分镜时使用的目标参数
+    @Value("${video.segment.fallback-width:1280}")
+    private int fallbackWidth;
+
+    @Value("${video.segment.fallback-height:720}")
+    private int fallbackHeight;
+
+    @Value("${video.segment.fallback-fps:24}")
+    private double fallbackFrameRate;
+
+    @Autowired
+    private MediaCacheService mediaCacheService;
+
+    @Autowired
+    private MediaMetadataService mediaMetadataService;
+
+    @Autowired
+    private SceneSegmentService sceneSegmentService;
+
+    @Autowired
+    private MediaProcessSupervisor processSupervisor;
+
+    @Autowired
+    private HlsPackagingService hlsPackagingService;
+
+    @Autowired
+    private ThumbnailService thumbnailService;
+
+    @Autowired
+    private RenderJournalService renderJournalService;
+
+    @PostConstruct
+    public void init() {
+        fetchPermits = new Semaphore(fetchConcurrency);
+    }
+
+    /**
+     * 拼接进度回调：阶段、总体进度(0-100)、提示信息
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+        void onProgress(String status, int progress, String message);
+    }
+
+    /**
+     * 拼接结果
+     */
+    public static class ConcatResult {
+        private final String fileName;
+        private final String videoUrl;
+        private final long fileSize;
+        private final String hlsUrl;
+        private final List<ClipFetchResult> failedClips;
+
+        public ConcatResult(String fileName, String videoUrl, long fileSize, String hlsUrl, List<ClipFetchResult> failedClips) {
+            this.fileName = fileName;
+            this.videoUrl = videoUrl;
+            this.fileSize = fileSize;
+            this.hlsUrl = hlsUrl;
+            this.failedClips = failedClips;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public String getVideoUrl() {
+            return videoUrl;
+        }
+
+        public long getFileSize() {
+            return fileSize;
+        }
+
+        /**
+         * HLS主播放列表URL，未生成时为null
+         */
+        public String getHlsUrl() {
+            return hlsUrl;
+        }
+
+        public List<ClipFetchResult> getFailedClips() {
+            return failedClips;
+        }
+    }
+
+    /**
+     * 单个分镜视频的获取结果
+     */
+    public static class ClipFetchResult {
+        private final int index;
+        private final String videoUrl;
+        private final String localPath;
+        private final String error;
+
+        private ClipFetchResult(int index, String videoUrl, String localPath, String error) {
+            this.index = index;
+            this.videoUrl = videoUrl;
+            this.localPath = localPath;
+            this.error = error;
+        }
+
+        static ClipFetchResult success(int index, String videoUrl, String localPath) {
+            return new ClipFetchResult(index, videoUrl, localPath, null);
+        }
+
+        static ClipFetchResult failure(int index, String videoUrl, String error) {
+            return new ClipFetchResult(index, videoUrl, null, error);
+        }
+
+        public boolean isSuccess() {
+            return localPath != null;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public String getVideoUrl() {
+            return videoUrl;
+        }
+
+        public String getLocalPath() {
+            return localPath;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+
+    /**
+     * 执行完整的拼接流水线，失败时抛出异常
+     *
+     * @param checkpoint 服务重启前记录的任务日志，从其最近完成的阶段继续；新任务传null
+     */
+    public ConcatResult concat(VideoConcatRequest request, String sessionId, RenderJob checkpoint,
+                               ProgressListener listener) throws IOException {
+        Path tempDir = Paths.get(TEMP_DIR, "video_concat_" + sessionId);
+        boolean hasMusic = request.getBackgroundMusic() != null && !request.getBackgroundMusic().trim().isEmpty();
+        Queue<MediaCacheService.Lease> leases = new ConcurrentLinkedQueue<>();
+
+        try {
+            List<ClipFetchResult> failedClips = checkpoint != null
+                    ? RenderJournalService.decodeFailedClips(checkpoint.getFailedClips()) : List.of();
+            String persistentFileName = renderedFileFrom(checkpoint);
+            if (persistentFileName != null) {
+                logger.info("从检查点恢复: 成片已生成 {}", persistentFileName);
+                listener.onProgress("saving", 95, "已恢复渲染完成的成片");
+            } else {
+                List<String> segmentPaths = segmentsFrom(checkpoint);
+                if (segmentPaths != null) {
+                    logger.info("从检查点恢复: {} 个分镜片段已就绪", segmentPaths.size());
+                    listener.onProgress("segmenting", 80, "已恢复分镜片段");
+                } else {
+                    failedClips = new ArrayList<>();
+                    segmentPaths = fetchAndSegment(request, sessionId, leases, failedClips, listener);
+                    renderJournalService.checkpointSegmented(sessionId, segmentPaths, failedClips);
+                }
+
+                // 创建临时目录
+                Files.createDirectories(tempDir);
+                persistentFileName = render(request, sessionId, segmentPaths, tempDir, hasMusic, listener);
+                renderJournalService.checkpointRendered(sessionId, persistentFileName);
+            }
+            Path persistentPath = Paths.get(PERSISTENT_VIDEO_DIR).resolve(persistentFileName);
+
+            // 成片落盘后读取一次元数据，创建作品时直接使用缓存结果
+            String videoUrl = VIDEO_ACCESS_URL_BASE + persistentFileName;
+            long fileSize;
+            try {
+                fileSize = mediaMetadataService.extract(videoUrl, persistentPath).getFileSize();
+            } catch (IOException e) {
+                logger.warn("读取成片元数据失败: {} - {}", persistentPath, e.getMessage());
+                fileSize = Files.size(persistentPath);
+            }
+
+            // 封面图与雪碧图在后台生成
+            thumbnailService.submitFinalVideo(videoUrl, persistentPath);
+
+            // 可选的HLS打包，失败时仍返回MP4成片
+            String hlsUrl = null;
+            if (hlsPackagingService.isEnabled()) {
+                listener.onProgress("packaging", 96, "正在生成HLS切片...");
+                hlsUrl = hlsPackagingService.packageVideo(sessionId, persistentPath);
+            }
+
+            return new ConcatResult(persistentFileName, videoUrl, fileSize, hlsUrl, failedClips);
+
+        } finally {
+            // 释放缓存租约并清理临时文件（缓存文件本身保留供下次渲染复用）
+            leases.forEach(MediaCacheService.Lease::close);
+            cleanupTempFiles(tempDir);
+        }
+    }
+
+    /**
+     * 下载分镜视频并规范化为片段（占总进度的0-80%），获取失败的分镜加入 failedClips
+     */
+    private List<String> fetchAndSegment(VideoConcatRequest request, String sessionId, Collection<MediaCacheService.Lease> leases,
+                                         List<ClipFetchResult> failedClips, ProgressListener listener) throws IOException {
+        // 并行下载视频文件（占总进度的0-30%）
+        listener.onProgress("downloading", 0, "正在下载场景视频...");
+        List<String> videoUrls = request.getVideoUrls();
+        List<ClipFetchResult> clips = fetchClips(videoUrls, leases, done ->
+                listener.onProgress("downloading", done * 30 / videoUrls.size(),
+                        "已处理场景视频 " + done + "/" + videoUrls.size()));
+
+        List<String> localVideoPaths = new ArrayList<>();
+        for (ClipFetchResult clip : clips) {
+            if (clip.isSuccess()) {
+                localVideoPaths.add(clip.getLocalPath());
+            } else {
+                failedClips.add(clip);
+            }
+        }
+
+        if (localVideoPaths.isEmpty()) {
+            throw new IllegalStateException("没有成功下载到任何视频文件: " + describeFailures(failedClips));
+        }
+
+        logger.info("成功下载 {} 个视频文件，失败 {} 个", localVideoPaths.size(), failedClips.size());
+
+        // 各分镜规范化为片段（占总进度的30-80%），未变化的分镜直接复用已有片段
+        listener.onProgress("segmenting", 30, "正在检查分镜编码参数...");
+        return buildSegments(localVideoPaths, sessionId, done ->
+                listener.onProgress("segmenting", 30 + done * 50 / localVideoPaths.size(),
+                        "已准备分镜片段 " + done + "/" + localVideoPaths.size()));
+    }
+
+    /**
+     * 拼接片段并混入背景音乐（占总进度的80-95%），成片原子移入作品目录，返回成片文件名
+     */
+    private String render(VideoConcatRequest request, String sessionId, List<String> segmentPaths, Path tempDir,
+                          boolean hasMusic, ProgressListener listener) throws IOException {
+        // 生成拼接列表文件
+        String concatListPath = createConcatList(segmentPaths, tempDir);
+
+        String musicPath = null;
+        if (hasMusic) {
+            musicPath = MUSIC_DIR + request.getBackgroundMusic();
+            if (!Files.exists(Paths.get(musicPath))) {
+                throw new IllegalStateException("背景音乐文件不存在: " + request.getBackgroundMusic());
+            }
+        }
+
+        // 直接输出到作品目录下的临时文件，完成后原子重命名，避免再复制一遍成片
+        String outputFileName = request.getOutputName() != null ?
+                request.getOutputName() : ("concat_video_" + sessionId + ".mp4");
+        String persistentFileName = System.currentTimeMillis() + "_" + outputFileName;
+        Path persistentDir = Paths.get(PERSISTENT_VIDEO_DIR);
+        Files.createDirectories(persistentDir);
+        Path persistentPath = persistentDir.resolve(persistentFileName);
+        Path partPath = persistentDir.resolve("." + persistentFileName + ".part");
+
+        // 拼接与混音在一次FFmpeg调用中完成
+        String status = hasMusic ? "mixing" : "concatenating";
+        String message = hasMusic ? "正在拼接视频并添加背景音乐..." : "正在拼接视频...";
+        listener.onProgress(status, 80, message);
+        List<String> command = buildRenderCommand(concatListPath, musicPath, partPath.toString());
+        try {
+            if (!runFFmpeg(sessionId, command, partPath.toString(), "视频渲染", stageProgress(listener, status, 80, 95, message))) {
+                throw new IllegalStateException("视频拼接失败");
+            }
+
+            listener.onProgress("saving", 95, "正在保存视频作品...");
+            moveMoovToFront(partPath);
+            Files.move(partPath, persistentPath, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(partPath);
+        }
+        logger.info("视频已保存到持久化目录: {}", persistentPath);
+        return persistentFileName;
+    }
+
+    /**
+     * 检查点中已落盘且仍存在的成片文件名
+     */
+    private static String renderedFileFrom(RenderJob checkpoint) {
+        if (checkpoint == null || !RenderJob.STAGE_RENDERED.equals(checkpoint.getStage()) || checkpoint.getFileName() == null) {
+            return null;
+        }
+        return Files.isRegularFile(Paths.get(PERSISTENT_VIDEO_DIR, checkpoint.getFileName())) ? checkpoint.getFileName() : null;
+    }
+
+    /**
+     * 检查点中的分镜片段，任一片段已被清理时返回null（需重新下载和生成）
+     */
+    private static List<String> segmentsFrom(RenderJob checkpoint) {
+        if (checkpoint == null || RenderJob.STAGE_CREATED.equals(checkpoint.getStage())) {
+            return null;
+        }
+        List<String> segmentPaths = RenderJournalService.splitLines(checkpoint.getSegmentPaths());
+        if (segmentPaths.isEmpty() || !segmentPaths.stream().allMatch(path -> Files.isRegularFile(Paths.get(path)))) {
+            return null;
+        }
+        return segmentPaths;
+    }
+
+    /**
+     * 启动时回收上次运行遗留的临时文件：拼接临时目录、作品目录中未完成的成片与HLS目录
+     */
+    public void reclaimOrphanedFiles() {
+        int reclaimed = 0;
+        try (Stream<Path> entries = Files.list(Paths.get(TEMP_DIR))) {
+            for (Path dir : entries.filter(path -> path.getFileName().toString().startsWith("video_concat_")).toList()) {
+                cleanupTempFiles(dir);
+                reclaimed++;
+            }
+        } catch (IOException e) {
+            logger.warn("扫描临时目录失败: {}", e.getMessage());
+        }
+        for (Path dir : List.of(Paths.get(PERSISTENT_VIDEO_DIR), Paths.get(PERSISTENT_VIDEO_DIR, HlsPackagingService.HLS_DIR))) {
+            if (!Files.isDirectory(dir)) {
+                continue;
+            }
+            try (Stream<Path> entries = Files.list(dir)) {
+                for (Path part : entries.filter(path -> {
+                    String name = path.getFileName().toString();
+                    return name.startsWith(".") && name.endsWith(".part");
+                }).toList()) {
+                    cleanupTempFiles(part);
+                    reclaimed++;
+                }
+            } catch (IOException e) {
+                logger.warn("扫描作品目录失败: {} - {}", dir, e.getMessage());
+            }
+        }
+        if (reclaimed > 0) {
+            logger.info("已回收上次运行遗留的临时文件: {} 个", reclaimed);
+        }
+    }
+
+    /**
+     * 编码参数预检并并行生成分镜片段，结果与输入顺序一致
+     *
+     * 与多数分镜参数一致的分镜流拷贝，其余分镜转码到该参数，保证拼接时可以直接流拷贝
+     */
+    List<String> buildSegments(List<String> clipPaths, String jobId, IntConsumer onSegmentDone) throws IOException {
+        List<ConcatPreflight.ClipProfile> profiles = new ArrayList<>(clipPaths.size());
+        for (String clipPath : clipPaths) {
+            profiles.add(ConcatPreflight.probe(Paths.get(clipPath)));
+        }
+        ConcatPreflight.ClipProfile target = ConcatPreflight.selectTarget(profiles,
+                new ConcatPreflight.ClipProfile("avc1", fallbackWidth, fallbackHeight, fallbackFrameRate));
+        long outliers = profiles.stream().filter(profile -> !target.equals(profile)).count();
+        logger.info("分镜编码预检: 目标参数={}, 需转码 {}/{} 个", target, outliers, clipPaths.size());
+
+        List<String> results = new ArrayList<>(clipPaths.size());
+        try (ExecutorService segmentExecutor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<SceneSegmentService.Segment>> futures = new ArrayList<>(clipPaths.size());
+            AtomicInteger done = new AtomicInteger();
+            for (int i = 0; i < clipPaths.size(); i++) {
+                Path clip = Paths.get(clipPaths.get(i));
+                boolean transcode = !target.equals(profiles.get(i));
+                futures.add(segmentExecutor.submit(() -> {
+                    SceneSegmentService.Segment segment = buildSegment(clip, jobId, transcode ? target : null);
+                    onSegmentDone.accept(done.incrementAndGet());
+                    return segment;
+                }));
+            }
+            int reused = 0;
+            for (Future<SceneSegmentService.Segment> future : futures) {
+                SceneSegmentService.Segment segment = future.get();
+                results.add(segment.getPath().toString());
+                if (segment.isReused()) {
+                    reused++;
+                }
+            }
+            logger.info("分镜片段就绪: 共 {} 个，复用 {} 个", results.size(), reused);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("分镜片段生成被中断");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+        return results;
+    }
+
+    private SceneSegmentService.Segment buildSegment(Path clip, String jobId, ConcatPreflight.ClipProfile transcodeTarget) throws IOException {
+        String variant = transcodeTarget != null ? transcodeTarget.key() : null;
+        return sceneSegmentService.obtain(clip, variant, (source, output) ->
+                runFFmpeg(jobId, buildSegmentCommand(source.toString(), output.toString(), transcodeTarget),
+                        output.toString(), transcodeTarget != null ? "分镜转码" : "分镜片段", fraction -> { }));
+    }
+
+    private static String describeFailures(List<ClipFetchResult> failedClips) {
+        StringBuilder sb = new StringBuilder();
+        for (ClipFetchResult clip : failedClips) {
+            if (sb.length() > 0) {
+                sb.append("; ");
+            }
+            sb.append("第").append(clip.getIndex() + 1).append("个视频 ").append(clip.getError());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 把FFmpeg单步的完成比例(0-1)映射到总体进度区间[from, to]
+     */
+    private DoubleConsumer stageProgress(ProgressListener listener, String status, int from, int to, String message) {
+        return fraction -> listener.onProgress(status, from + (int) Math.round((to - from) * fraction), message);
+    }
+
+    /**
+     * 并行获取所有分镜视频，结果与输入顺序一致；单个视频失败不影响其他视频
+     */
+    List<ClipFetchResult> fetchClips(List<String> videoUrls, Collection<MediaCacheService.Lease> leases,
+                                     IntConsumer onClipDone) throws IOException {
+        List<ClipFetchResult> results = new ArrayList<>(videoUrls.size());
+        try (ExecutorService fetchExecutor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<ClipFetchResult>> futures = new ArrayList<>(videoUrls.size());
+            AtomicInteger done = new AtomicInteger();
+            for (int i = 0; i < videoUrls.size(); i++) {
+                int index = i;
+                String videoUrl = videoUrls.get(i);
+                futures.add(fetchExecutor.submit(() -> {
+                    ClipFetchResult result = fetchClip(videoUrl, index, leases);
+                    onClipDone.accept(done.incrementAndGet());
+                    return result;
+                }));
+            }
+            for (Future<ClipFetchResult> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("视频下载被中断");
+        } catch (ExecutionException e) {
+            throw new IOException("视频下载失败: " + e.getCause().getMessage(), e.getCause());
+        }
+        return results;
+    }
+
+    private ClipFetchResult fetchClip(String videoUrl, int index, Collection<MediaCacheService.Lease> leases) throws InterruptedException {
+        // 限制同时进行的下载数，避免大量分镜同时占满带宽
+        fetchPermits.acquire();
+        try {
+            return ClipFetchResult.success(index, videoUrl, downloadVideo(videoUrl, index, leases));
+        } catch (java.net.SocketTimeoutException e) {
+            return failed(index, videoUrl, "下载超时: " + e.getMessage());
+        } catch (java.net.MalformedURLException e) {
+            return failed(index, videoUrl, "无效的URL: " + e.getMessage());
+        } catch (IOException e) {
+            return failed(index, videoUrl, e.getMessage());
+        } catch (Exception e) {
+            logger.error("下载视频时发生未知错误: " + videoUrl, e);
+            return failed(index, videoUrl, "未知错误: " + e.getMessage());
+        } finally {
+            fetchPermits.release();
+        }
+    }
+
+    private ClipFetchResult failed(int index, String videoUrl, String error) {
+        logger.error("第 {} 个视频获取失败: {} - {}", index + 1, videoUrl, error);
+        return ClipFetchResult.failure(index, videoUrl, error);
+    }
+
+    /**
+     * 下载视频文件或处理本地文件，返回可用于拼接的本地路径
+     */
+    private String downloadVideo(String videoUrl, int index, Collection<MediaCacheService.Lease> leases) throws IOException {
+        logger.info("正在处理视频 {}: {}", index + 1, videoUrl);
+
+        // 检查是否为本地视频API
+        if (videoUrl.contains("/api/video/local/")) {
+            // 提取文件名
+            String filename = videoUrl.substring(videoUrl.lastIndexOf("/") + 1);
+            String localPath = LOCAL_SCENE_VIDEOS.get(filename);
+            if (localPath == null) {
+                throw new FileNotFoundException("未找到对应的本地视频文件: " + filename);
+            }
+            return resolveLocalFile(localPath);
+        }
+
+        // 检查是否为直接的本地文件路径
+        if (videoUrl.startsWith("file://") || (videoUrl.contains(":\\") && !videoUrl.startsWith("http"))) {
+            String localPath = videoUrl.startsWith("file://") ? videoUrl.substring(7) : videoUrl;
+            return resolveLocalFile(localPath);
+        }
+
+        // 本服务自身提供的文件直接读磁盘，不走HTTP
+        Path ownFile = resolveOwnMediaUrl(videoUrl);
+        if (ownFile != null) {
+            return resolveLocalFile(ownFile.toString());
+        }
+
+        // 处理网络URL：通过本地媒体缓存获取，缓存文件在拼接结束前保持租约
+        MediaCacheService.Lease lease = mediaCacheService.acquire(videoUrl);
+        if (!isValidVideoFile(lease.getPath())) {
+            lease.close();
+            mediaCacheService.invalidate(videoUrl);
+            throw new IOException("下载的文件不是有效的视频文件");
+        }
+        leases.add(lease);
+
+        logger.info("视频已就绪: {} -> {}", videoUrl, lease.getPath());
+        return lease.getPath().toString();
+    }
+
+    /**
+     * 将本服务的视频访问URL映射为本地文件路径，非本服务URL返回null
+     */
+    public static Path resolveOwnMediaUrl(String videoUrl) {
+        String fileName = videoUrl.substring(videoUrl.lastIndexOf('/') + 1);
+        if (fileName.isEmpty() || fileName.contains("..")) {
+            return null;
+        }
+        if (videoUrl.startsWith(OWN_API_BASE + "files/") || videoUrl.startsWith(OWN_API_BASE + "audio-files/")) {
+            return Paths.get(LOCAL_VIDEO_DIR, fileName);
+        }
+        if (videoUrl.startsWith(VIDEO_ACCESS_URL_BASE)) {
+            return Paths.get(PERSISTENT_VIDEO_DIR, fileName);
+        }
+        return null;
+    }
+
+    /**
+     * 校验本地视频文件，返回可直接用于拼接的路径
+     */
+    private String resolveLocalFile(String localPath) throws IOException {
+        Path originalFile = Paths.get(localPath);
+        if (!Files.exists(originalFile)) {
+            throw new FileNotFoundException("本地视频文件不存在: " + localPath);
+        }
+
+        // 验证是否为有效的视频文件
+        if (!isValidVideoFile(originalFile)) {
+            throw new IOException("本地文件不是有效的视频文件: " + localPath);
+        }
+
+        logger.info("本地视频文件验证成功: {}", originalFile);
+        return originalFile.toString();
+    }
+
+    /**
+     * 验证是否为有效的视频文件：MP4/MOV 需解析出视频轨道，WebM/AVI 按文件头识别
+     */
+    boolean isValidVideoFile(Path filePath) {
+        try {
+            Mp4BoxParser.Mp4Info info = Mp4BoxParser.parse(filePath);
+            if (info != null) {
+                if (!info.hasVideo()) {
+                    logger.warn("MP4文件中没有视频轨道: {}", filePath);
+                }
+                return info.hasVideo();
+            }
+
+            byte[] header = new byte[12];
+            try (InputStream is = Files.newInputStream(filePath)) {
+                if (is.readNBytes(header, 0, header.length) < header.length) {
+                    return false;
+                }
+            }
+
+            // WebM: starts with 0x1A 0x45 0xDF 0xA3
+            if (header[0] == 0x1A && header[1] == 0x45 && header[2] == (byte) 0xDF && header[3] == (byte) 0xA3) {
+                return true;
+            }
+
+            // AVI: starts with "RIFF" and contains "AVI "
+            String riff = new String(header, 0, 4, StandardCharsets.US_ASCII);
+            String avi = new String(header, 8, 4, StandardCharsets.US_ASCII);
+            if (riff.equals("RIFF") && avi.equals("AVI ")) {
+                return true;
+            }
+
+            logger.warn("未识别的视频文件格式: {}", filePath);
+            return false;
+
+        } catch (IOException e) {
+            logger.warn("验证视频文件时发生错误: {} - {}", filePath, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 创建FFmpeg拼接列表文件
+     */
+    private String createConcatList(List<String> videoPaths, Path tempDir) throws IOException {
+        Path concatListPath = tempDir.resolve("concat_list.txt");
+
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(concatListPath, StandardCharsets.UTF_8))) {
+            for (String videoPath : videoPaths) {
+                // 使用绝对路径，Windows下FFmpeg支持反斜杠，但要确保路径正确
+                Path path = Paths.get(videoPath).toAbsolutePath().normalize();
+                writer.println("file '" + path.toString().replace("'", "\\'") + "'");
+                logger.info("添加到拼接列表: {}", path);
+            }
+        }
+
+        logger.info("拼接列表文件创建成功: {}", concatListPath);
+        return concatListPath.toString();
+    }
+
+    /**
+     * 生成分镜片段命令：音频统一编码为 AAC 48kHz 双声道，没有音轨的分镜补一条静音音轨；
+     * transcodeTarget 为null时视频流直接拷贝，否则缩放补边并转码到目标参数
+     */
+    private List<String> buildSegmentCommand(String sourcePath, String outputPath, ConcatPreflight.ClipProfile transcodeTarget) {
+        FFmpegCommandBuilder builder = new FFmpegCommandBuilder();
+        int source = builder.input(sourcePath);
+        builder.map(source + ":v:0");
+        if (checkVideoHasAudio(sourcePath)) {
+            builder.map(source + ":a:0");
+        } else {
+            int silence = builder.input("anullsrc=r=48000:cl=stereo", "-f", "lavfi");
+            builder.map(silence + ":a").outputOptions("-shortest");
+        }
+        if (transcodeTarget == null) {
+            builder.outputOptions("-c:v", "copy");
+        } else {
+            int width = transcodeTarget.width;
+            int height = transcodeTarget.height;
+            builder.outputOptions(
+                    "-vf", "scale=" + width + ":" + height + ":force_original_aspect_ratio=decrease,"
+                            + "pad=" + width + ":" + height + ":(ow-iw)/2:(oh-ih)/2,setsar=1,fps=" + transcodeTarget.frameRate,
+                    "-c:v", ConcatPreflight.encoderFor(transcodeTarget.codec),
+                    "-preset", "veryfast", "-crf", "20", "-pix_fmt", "yuv420p");
+        }
+        builder.outputOptions("-c:a", "aac", "-ar", "48000", "-ac", "2", "-f", "mpegts");
+        return builder.build(outputPath);
+    }
+
+    /**
+     * 生成成片命令：流拷贝拼接所有分镜片段，有背景音乐时只重新编码音频
+     */
+    private List<String> buildRenderCommand(String concatListPath, String musicPath, String outputPath) {
+        FFmpegCommandBuilder builder = new FFmpegCommandBuilder();
+        int video = builder.concatInput(concatListPath);
+
+        if (musicPath == null) {
+            // 直接拷贝，不重新编码；TS中的ADTS音频需转换为MP4封装的格式
+            builder.outputOptions("-c", "copy", "-bsf:a", "aac_adtstoasc");
+        } else {
+            // 片段均带音轨，混合原音效与背景音乐
+            int music = builder.input(musicPath);
+            builder.filter("[" + video + ":a][" + music + ":a]amix=inputs=2:duration=shortest:weights=0.7 0.4[aout]")
+                    .map(video + ":v")
+                    .map("[aout]")
+                    .outputOptions("-c:v", "copy", "-c:a", "aac", "-shortest");
+        }
+        // 临时文件扩展名不是.mp4，需显式指定封装格式
+        builder.outputOptions("-f", "mp4");
+        return builder.build(outputPath);
+    }
+
+    /**
+     * 通过进程管理器运行FFmpeg，并解析 -progress 输出上报完成比例；任务被取消时返回false
+     */
+    private boolean runFFmpeg(String jobId, List<String> command, String outputPath, String label, DoubleConsumer onProgress) {
+        try {
+            // 进度信息以 key=value 形式写到stdout，关闭默认的stats刷屏
+            List<String> fullCommand = new ArrayList<>(command);
+            fullCommand.addAll(1, List.of("-progress", "pipe:1", "-nostats"));
+
+            long[] totalMicros = {-1};
+            MediaProcessSupervisor.ProcessResult result = processSupervisor.run(jobId, "FFmpeg" + label, fullCommand,
+                    300, line -> { // 5分钟超时
+                        if (PROGRESS_LINE_PATTERN.matcher(line).matches()) {
+                            if (line.startsWith("out_time_us=") || line.startsWith("out_time_ms=")) {
+                                // out_time_ms 实际单位也是微秒（FFmpeg历史遗留命名）
+                                long outMicros = parseLongOrNegative(line.substring(line.indexOf('=') + 1));
+                                if (totalMicros[0] > 0 && outMicros >= 0) {
+                                    onProgress.accept(Math.min(1.0, (double) outMicros / totalMicros[0]));
+                                }
+                            } else if (line.equals("progress=end")) {
+                                onProgress.accept(1.0);
+                            }
+                            return;
+                        }
+                        if (totalMicros[0] < 0) {
+                            totalMicros[0] = parseDurationMicros(line);
+                        }
+                        logger.debug("FFmpeg{}输出: {}", label, line);
+                    });
+
+            if (result.isCancelled() || result.isTimedOut()) {
+                return false;
+            }
+            if (!result.isSuccess()) {
+                logger.error("FFmpeg{}失败，退出码: {}\nFFmpeg输出:\n{}", label, result.getExitCode(), result.getOutput());
+                return false;
+            }
+
+            // 验证输出文件
+            Path outputFilePath = Paths.get(outputPath);
+            if (!Files.exists(outputFilePath)) {
+                logger.error("输出文件不存在: {}", outputPath);
+                return false;
+            }
+            long fileSize = Files.size(outputFilePath);
+            logger.info("FFmpeg{}成功，输出文件: {} ({} 字节)", label, outputPath, fileSize);
+            return fileSize > 0;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            logger.error("执行FFmpeg" + label + "命令时发生错误", e);
+            return false;
+        }
+    }
+
+    private static long parseDurationMicros(String line) {
+        Matcher matcher = DURATION_PATTERN.matcher(line);
+        if (!matcher.find()) {
+            return -1;
+        }
+        double seconds = Long.parseLong(matcher.group(1)) * 3600
+                + Long.parseLong(matcher.group(2)) * 60
+                + Double.parseDouble(matcher.group(3));
+        return (long) (seconds * 1_000_000);
+    }
+
+    private static long parseLongOrNegative(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1; // N/A
+        }
+    }
+
+    /**
+     * 检查视频是否包含音频轨道，MP4/MOV 直接解析，其他格式才调用 ffprobe
+     */
+    private boolean checkVideoHasAudio(String videoPath) {
+        try {
+            Mp4BoxParser.Mp4Info info = Mp4BoxParser.parse(Paths.get(videoPath));
+            if (info != null) {
+                logger.info("音频轨道检查结果 - 文件: {}, 有音频: {}", videoPath, info.hasAudio());
+                return info.hasAudio();
+            }
+        } catch (IOException e) {
+            logger.warn("解析视频文件失败，改用ffprobe检查: {} - {}", videoPath, e.getMessage());
+        }
+
+        try {
+            List<String> command = new ArrayList<>();
+            command.add("ffprobe");
+            command.add("-v");
+            command.add("quiet");
+            command.add("-show_streams");
+            command.add("-select_streams");
+            command.add("a"); // 只检查音频流
+            command.add("-of");
+            command.add("csv=p=0");
+            command.add(videoPath);
+
+            MediaProcessSupervisor.ProcessResult result = processSupervisor.runProbe(null, "ffprobe", command, 30);
+            if (result.isTimedOut()) {
+                logger.error("检查视频音频轨道超时");
+                return false;
+            }
+
+            // 如果有音频流，ffprobe会返回音频流信息；如果没有，则输出为空
+            boolean hasAudio = result.isSuccess() && !result.getOutput().trim().isEmpty();
+            logger.info("音频轨道检查结果 - 文件: {}, 有音频: {}", videoPath, hasAudio);
+            return hasAudio;
+
+        } catch (Exception e) {
+            logger.error("检查视频音频轨道时发生错误", e);
+            // 出错时默认假设有音频，采用混合模式更安全
+            return true;
+        }
+    }
+
+    /**
+     * 把 moov 移到文件前部，浏览器无需先请求文件末尾即可开始播放；失败时保留原文件
+     */
+    public static void moveMoovToFront(Path video) {
+        try {
+            if (Mp4Faststart.rewrite(video)) {
+                logger.info("已将moov移至文件头部: {}", video.getFileName());
+            }
+        } catch (IOException e) {
+            logger.warn("faststart改写失败，保留原文件: {} - {}", video, e.getMessage());
+        }
+    }
+
+    /**
+     * 清理临时文件
+     */
+    private void cleanupTempFiles(Path tempDir) {
+        if (!Files.exists(tempDir)) {
+            return;
+        }
+        try (var paths = Files.walk(tempDir)) {
+            paths.sorted((a, b) -> b.compareTo(a)) // 先删除文件，再删除目录
+                    .forEach(path -> {
+                        try {
+                            Files.delete(path);
+                        } catch (IOException e) {
+                            logger.warn("删除临时文件失败: {} - {}", path, e.getMessage());
+                        }
+                    });
+        } catch (Exception e) {
+            logger.error("清理临时文件时发生错误", e);
+        }
+    }
+}
@@ -7,6 +7,8 @@ import com.example.springboot_pro.domain.Video;
 import com.example.springboot_pro.domain.Story;
 import com.example.springboot_pro.domain.Storyboard;
 import com.example.springboot_pro.util.SecurityUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -22,6 +24,8 @@ import java.util.Optional;
 @Transactional
 public class VideoServiceImpl implements VideoService {
     
+    private static final Logger logger = LoggerFactory.getLogger(VideoServiceImpl.class);
+    
     @Autowired
     private VideoRepository videoRepository;
     
@@ -31,6 +35,12 @@ public class VideoServiceImpl implements VideoService {
     @Autowired
     private StoryboardRepository storyboardRepository;
     
+    @Autowired
+    private MediaMetadataService mediaMetadataService;
+    
+    @Autowired
+    private ThumbnailService thumbnailService;
+    
     @Override
     public Video saveVideo(Video video) {
         return videoRepository.save(video);
@@ -88,6 +98,12 @@ public class VideoServiceImpl implements VideoService {
         Long weeklyVideos = videoRepository.countByUserIdAndCreatedAtAfter(currentUserId, weekStart);
         stats.put("weeklyVideos", weeklyVideos != null ? weeklyVideos : 0L);
         
+        // 总时长（秒）与总占用空间（字节），来自创建作品时写入的元数据
+        Long totalDuration = videoRepository.getTotalDurationByUserId(currentUserId);
+        stats.put("totalDuration", totalDuration != null ? totalDuration : 0L);
+        Long totalFileSize = videoRepository.getTotalFileSizeByUserId(currentUserId);
+        stats.put("totalFileSize", totalFileSize != null ? totalFileSize : 0L);
+        
         return stats;
     }
     
@@ -119,9 +135,15 @@ public class VideoServiceImpl implements VideoService {
         video.setStoryId(storyId);
         video.setVideoUrl(finalVideoUrl);
         video.setSceneCount(storyboards.size());
-        video.setVideoFormat("mp4");
-        video.setResolution("1920x1080");
         video.setStatus("completed");
+        MediaMetadataService.MediaMetadata metadata = mediaMetadataService.getMetadata(finalVideoUrl);
+        if (metadata != null) {
+            MediaMetadataService.applyTo(video, metadata);
+        } else {
+            logger.warn("成片不在本地，无法读取元数据: {}", finalVideoUrl);
+        }
+        // 封面图尚未生成时，生成完成后会回写
+        video.setThumbnailUrl(thumbnailService.findFinalVideoPoster(finalVideoUrl));
         
         return videoRepository.save(video);
     }
@@ -0,0 +1,454 @@
+package com.example.springboot_pro.service;
+
+import com.example.springboot_pro.dao.VideoTaskRepository;
+import com.example.springboot_pro.domain.VideoTask;
+import com.example.springboot_pro.domain.VideoTaskStatusEvent;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 图生视频提交队列：点击生成只入队，由调度线程在山火并发配额内逐个提交
+ *
+ * 不同优先级严格分层（preview 先于 final），同一优先级内按用户加权公平排队（WFQ），
+ * 一个用户一次提交大量场景不会挡住其他用户。遇到限流时收缩并发上限并退避，之后逐步恢复。
+ */
+@Service
+public class VideoSubmissionScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(VideoSubmissionScheduler.class);
+
+    public static final String PRIORITY_PREVIEW = "preview";
+    public static final String PRIORITY_FINAL = "final";
+
+    // 正在提交或已提交到山火、占用并发配额的状态
+    private static final Set<String> IN_FLIGHT_STATUSES = Set.of("submitting", "submitted", "generating");
+
+    @Autowired
+    private VideoTaskRepository videoTaskRepository;
+
+    @Autowired
+    private VolcEngineVideoService volcEngineVideoService;
+
+    @Autowired
+    private StoryboardService storyboardService;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    // 山火账号的并发任务配额
+    @Value("${volcengine.submit.max-concurrent:2}")
+    private int maxConcurrent;
+
+    // 用户权重，格式 userId:weight,userId:weight，未列出的用户权重为1
+    @Value("${volcengine.submit.user-weights:}")
+    private String userWeightsConfig;
+
+    // 首次限流后的退避时间，连续限流时翻倍
+    @Value("${volcengine.submit.throttle-backoff-ms:5000}")
+    private long throttleBackoffMs;
+
+    @Value("${volcengine.submit.max-throttle-backoff-ms:120000}")
+    private long maxThrottleBackoffMs;
+
+    private final Map<Long, Double> userWeights = new HashMap<>();
+
+    // 以下状态只在持有本对象锁时访问
+    private final TreeSet<QueuedSubmission> queue = new TreeSet<>(Comparator
+            .comparingInt((QueuedSubmission s) -> s.priorityRank)
+            .thenComparingDouble(s -> s.finishTag)
+            .thenComparingLong(s -> s.sequence));
+    private final Map<Long, QueuedSubmission> queuedByTaskId = new HashMap<>();
+    // 每个优先级的虚拟时间与各用户最后一个任务的完成标签
+    private final double[] virtualTime = new double[2];
+    private final Map<Long, double[]> lastFinishTags = new HashMap<>();
+    private long nextSequence;
+    // 限流后收缩的实际并发上限，成功提交足够多次后逐个恢复到 maxConcurrent
+    private int effectiveLimit;
+    private int successesSinceThrottle;
+    private int consecutiveThrottles;
+    private long cooldownUntil;
+
+    private final ExecutorService dispatchExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "video-submit-dispatcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean dispatchPending = new AtomicBoolean();
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        effectiveLimit = Math.max(1, maxConcurrent);
+        if (userWeightsConfig == null || userWeightsConfig.isBlank()) {
+            return;
+        }
+        for (String entry : userWeightsConfig.split(",")) {
+            String[] parts = entry.trim().split(":");
+            if (parts.length != 2) {
+                logger.warn("忽略无效的用户权重配置: {}", entry);
+                continue;
+            }
+            try {
+                double weight = Double.parseDouble(parts[1].trim());
+                if (weight > 0) {
+                    userWeights.put(Long.parseLong(parts[0].trim()), weight);
+                }
+            } catch (NumberFormatException e) {
+                logger.warn("忽略无效的用户权重配置: {}", entry);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        dispatchExecutor.shutdownNow();
+    }
+
+    /**
+     * 重启后把数据库中仍在排队的任务按原提交顺序放回队列
+     *
+     * submitting 状态的任务在调用山火期间进程退出，上游可能已经受理；山火不支持按客户端标识查询任务，
+     * 无法核对，重新提交可能产生重复的付费生成，因此标记为失败，由用户确认后重新生成
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void restoreQueue() {
+        for (VideoTask task : videoTaskRepository.findByStatusOrderByCreatedAtAsc("submitting")) {
+            logger.warn("任务提交结果未知，标记为失败: videoTaskId={}", task.getId());
+            markFailed(task, "服务重启时任务提交结果未知，请确认后重新生成");
+        }
+        List<VideoTask> queuedTasks = videoTaskRepository.findByStatusOrderByCreatedAtAsc("queued");
+        if (queuedTasks.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            for (VideoTask task : queuedTasks) {
+                add(task);
+            }
+        }
+        logger.info("恢复图生视频提交队列: {} 个任务", queuedTasks.size());
+        requestDispatch();
+    }
+
+    /**
+     * 保存并入队；同一幂等键或同一分镜头已有进行中的任务时直接返回已有任务，不会再次提交到山火
+     */
+    public SubmitResult submitOnce(VideoTask task, String idempotencyKey) {
+        task.setIdempotencyKey(idempotencyKey);
+        Optional<VideoTask> existing = findExisting(idempotencyKey, task.getStoryboardId());
+        if (existing.isPresent()) {
+            return duplicateOf(existing.get());
+        }
+        try {
+            VideoTask saved = videoTaskRepository.saveAndFlush(task);
+            return new SubmitResult(saved, enqueue(saved), false);
+        } catch (DataIntegrityViolationException e) {
+            // 并发请求同时通过了上面的检查，由唯一约束决定哪一个生效
+            VideoTask winner = findExisting(idempotencyKey, task.getStoryboardId()).orElseThrow(() -> e);
+            return duplicateOf(winner);
+        }
+    }
+
+    /**
+     * 任务已以 queued 状态保存后调用，返回当前排队位置（从1开始）
+     */
+    public int enqueue(VideoTask task) {
+        int position;
+        synchronized (this) {
+            position = positionOf(add(task));
+        }
+        eventPublisher.publishEvent(new VideoTaskStatusEvent(task, position));
+        requestDispatch();
+        return position;
+    }
+
+    /**
+     * 排队中的任务返回位置（从1开始），不在队列中返回null
+     */
+    public synchronized Integer getQueuePosition(Long videoTaskId) {
+        QueuedSubmission submission = queuedByTaskId.get(videoTaskId);
+        return submission == null ? null : positionOf(submission);
+    }
+
+    /**
+     * 任务结束后释放了并发配额，尽快提交下一个
+     */
+    @EventListener
+    public void onTaskStatusChanged(VideoTaskStatusEvent event) {
+        if ("completed".equals(event.getStatus()) || "failed".equals(event.getStatus())) {
+            requestDispatch();
+        }
+    }
+
+    /**
+     * 兜底：退避结束或任务状态变化未触发事件时也能继续提交
+     */
+    @Scheduled(fixedDelayString = "${volcengine.submit.dispatch-interval-ms:5000}")
+    public void dispatchPeriodically() {
+        if (!isQueueEmpty()) {
+            requestDispatch();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (this) {
+            stats.put("queued", queue.size());
+            Map<Long, Long> queuedPerUser = new LinkedHashMap<>();
+            for (QueuedSubmission submission : queue) {
+                queuedPerUser.merge(submission.userId, 1L, Long::sum);
+            }
+            stats.put("queuedPerUser", queuedPerUser);
+            stats.put("maxConcurrent", maxConcurrent);
+            stats.put("effectiveLimit", effectiveLimit);
+            stats.put("cooldownRemainingMs", Math.max(0, cooldownUntil - System.currentTimeMillis()));
+        }
+        stats.put("inFlight", videoTaskRepository.countByStatusIn(IN_FLIGHT_STATUSES));
+        stats.put("submitted", submitted.get());
+        stats.put("throttled", throttled.get());
+        stats.put("rejected", rejected.get());
+        return stats;
+    }
+
+    /**
+     * 合并短时间内的多次触发，提交始终在调度线程中串行执行
+     */
+    private void requestDispatch() {
+        if (dispatchPending.compareAndSet(false, true)) {
+            dispatchExecutor.execute(() -> {
+                dispatchPending.set(false);
+                try {
+                    dispatch();
+                } catch (Exception e) {
+                    logger.error("图生视频任务提交调度失败", e);
+                }
+            });
+        }
+    }
+
+    private void dispatch() {
+        boolean dequeued = false;
+        while (true) {
+            if (isQueueEmpty()) {
+                break;
+            }
+            // 数据库查询放在锁外，避免入队与查询排队位置等待JDBC往返；提交只在本线程进行，计数不会在比较前变大
+            long inFlight = videoTaskRepository.countByStatusIn(IN_FLIGHT_STATUSES);
+            QueuedSubmission next;
+            synchronized (this) {
+                if (queue.isEmpty() || System.currentTimeMillis() < cooldownUntil) {
+                    break;
+                }
+                if (inFlight >= effectiveLimit) {
+                    break;
+                }
+                next = queue.pollFirst();
+                queuedByTaskId.remove(next.videoTaskId);
+                virtualTime[next.priorityRank] = Math.max(virtualTime[next.priorityRank], next.startTag);
+                dequeued = true;
+            }
+
+            VideoTask task = videoTaskRepository.findById(next.videoTaskId).orElse(null);
+            if (task == null || !"queued".equals(task.getStatus())) {
+                // 排队期间被删除或已处理
+                continue;
+            }
+            if (!submit(task, next)) {
+                break;
+            }
+        }
+        if (dequeued) {
+            publishQueuePositions();
+        }
+    }
+
+    /**
+     * 提交单个任务；被限流时放回队首并返回false，本轮停止提交
+     */
+    private boolean submit(VideoTask task, QueuedSubmission submission) {
+        // 先落库再调用上游，进程在两者之间退出时重启后不会把已受理的任务当作排队任务再次提交
+        task.setStatus("submitting");
+        task = videoTaskRepository.save(task);
+
+        VolcEngineVideoService.VideoTaskResponse response = volcEngineVideoService.submitVideoTask(
+                task.getImageUrl(), task.getPrompt(), task.getAspectRatio());
+
+        if (response.isSuccess()) {
+            task.setTaskId(response.getTaskId());
+            task.setStatus("submitted");
+            task.setSubmittedAt(LocalDateTime.now());
+            VideoTask saved = videoTaskRepository.save(task);
+            eventPublisher.publishEvent(new VideoTaskStatusEvent(saved));
+            submitted.incrementAndGet();
+            synchronized (this) {
+                consecutiveThrottles = 0;
+                // 加性恢复：以当前上限成功提交一轮后放宽一个名额
+                if (effectiveLimit < maxConcurrent && ++successesSinceThrottle >= effectiveLimit) {
+                    effectiveLimit++;
+                    successesSinceThrottle = 0;
+                }
+            }
+            logger.info("图生视频任务已提交: videoTaskId={}, taskId={}", task.getId(), response.getTaskId());
+            return true;
+        }
+
+        if (response.isThrottled()) {
+            throttled.incrementAndGet();
+            task.setStatus("queued");
+            videoTaskRepository.save(task);
+            long inFlight = videoTaskRepository.countByStatusIn(IN_FLIGHT_STATUSES);
+            synchronized (this) {
+                queue.add(submission);
+                queuedByTaskId.put(submission.videoTaskId, submission);
+                // 乘性收缩：上游实际能承受的并发不超过当前在途数
+                effectiveLimit = (int) Math.max(1, Math.min(effectiveLimit, inFlight));
+                successesSinceThrottle = 0;
+                long backoff = Math.min(maxThrottleBackoffMs, throttleBackoffMs << Math.min(consecutiveThrottles, 10));
+                consecutiveThrottles++;
+                cooldownUntil = System.currentTimeMillis() + backoff;
+                logger.warn("山火API限流，暂停提交 {}ms，并发上限调整为 {}: {}", backoff, effectiveLimit, response.getMessage());
+            }
+            return false;
+        }
+
+        rejected.incrementAndGet();
+        logger.warn("图生视频任务提交失败: videoTaskId={}, message={}", task.getId(), response.getMessage());
+        markFailed(task, "提交视频生成任务失败: " + response.getMessage());
+        return true;
+    }
+
+    private void markFailed(VideoTask task, String errorMessage) {
+        task.setStatus("failed");
+        task.setErrorMessage(errorMessage);
+        VideoTask saved = videoTaskRepository.save(task);
+        eventPublisher.publishEvent(new VideoTaskStatusEvent(saved));
+        try {
+            storyboardService.updateVideoInfo(task.getStoryboardId(), null, "failed");
+        } catch (Exception e) {
+            // 分镜头可能已被删除
+            logger.warn("更新分镜头视频信息失败: storyboardId={}, {}", task.getStoryboardId(), e.getMessage());
+        }
+    }
+
+    /**
+     * 队列前移后通知仍在排队的任务新的位置
+     */
+    private void publishQueuePositions() {
+        Map<Long, Integer> positions = new LinkedHashMap<>();
+        synchronized (this) {
+            int position = 1;
+            for (QueuedSubmission submission : queue) {
+                positions.put(submission.videoTaskId, position++);
+            }
+        }
+        if (positions.isEmpty()) {
+            return;
+        }
+        for (VideoTask task : videoTaskRepository.findAllById(positions.keySet())) {
+            if ("queued".equals(task.getStatus())) {
+                eventPublisher.publishEvent(new VideoTaskStatusEvent(task, positions.get(task.getId())));
+            }
+        }
+    }
+
+    /**
+     * 计算WFQ标签：开始标签取虚拟时间与该用户上一个任务完成标签的较大者，完成标签再加上 1/权重
+     */
+    private QueuedSubmission add(VideoTask task) {
+        QueuedSubmission existing = queuedByTaskId.get(task.getId());
+        if (existing != null) {
+            return existing;
+        }
+        int rank = PRIORITY_FINAL.equals(task.getPriority()) ? 1 : 0;
+        double[] userTags = lastFinishTags.computeIfAbsent(task.getUserId(), key -> new double[2]);
+        QueuedSubmission submission = new QueuedSubmission();
+        submission.videoTaskId = task.getId();
+        submission.userId = task.getUserId();
+        submission.priorityRank = rank;
+        submission.startTag = Math.max(virtualTime[rank], userTags[rank]);
+        submission.finishTag = submission.startTag + 1.0 / userWeights.getOrDefault(task.getUserId(), 1.0);
+        submission.sequence = nextSequence++;
+        userTags[rank] = submission.finishTag;
+        queue.add(submission);
+        queuedByTaskId.put(submission.videoTaskId, submission);
+        return submission;
+    }
+
+    private Optional<VideoTask> findExisting(String idempotencyKey, Long storyboardId) {
+        Optional<VideoTask> byKey = idempotencyKey == null ? Optional.empty()
+                : videoTaskRepository.findByIdempotencyKey(idempotencyKey);
+        return byKey.isPresent() ? byKey : videoTaskRepository.findByActiveStoryboardKey(storyboardId);
+    }
+
+    private SubmitResult duplicateOf(VideoTask existing) {
+        logger.info("重复的视频生成请求，返回已有任务: videoTaskId={}, status={}", existing.getId(), existing.getStatus());
+        return new SubmitResult(existing, getQueuePosition(existing.getId()), true);
+    }
+
+    private int positionOf(QueuedSubmission submission) {
+        return queue.headSet(submission).size() + 1;
+    }
+
+    private synchronized boolean isQueueEmpty() {
+        return queue.isEmpty();
+    }
+
+    public static class SubmitResult {
+        private final VideoTask task;
+        private final Integer queuePosition;
+        private final boolean duplicate;
+
+        SubmitResult(VideoTask task, Integer queuePosition, boolean duplicate) {
+            this.task = task;
+            this.queuePosition = queuePosition;
+            this.duplicate = duplicate;
+        }
+
+        public VideoTask getTask() {
+            return task;
+        }
+
+        public Integer getQueuePosition() {
+            return queuePosition;
+        }
+
+        public boolean isDuplicate() {
+            return duplicate;
+        }
+    }
+
+    private static class QueuedSubmission {
+        long videoTaskId;
+        Long userId;
+        int priorityRank;
+        double startTag;
+        double finishTag;
+        long sequence;
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.springboot_pro.service;
+
+import com.example.springboot_pro.dao.UserRepository;
+import com.example.springboot_pro.dao.VideoTaskRepository;
+import com.example.springboot_pro.domain.VideoTask;
+import com.example.springboot_pro.domain.VideoTaskStatusEvent;
+import com.example.springboot_pro.util.JwtUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 按用户推送图生视频任务状态：每个页面只保持一条SSE长连接，代替逐个场景轮询
+ */
+@Service
+public class VideoTaskEventService {
+
+    private static final Logger logger = LoggerFactory.getLogger(VideoTaskEventService.class);
+
+    private static final Set<String> ACTIVE_STATUSES = Set.of("queued", "submitting", "submitted", "generating");
+
+    @Autowired
+    private VideoTaskRepository videoTaskRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private JwtUtil jwtUtil;
+
+    @Autowired
+    private VideoSubmissionScheduler videoSubmissionScheduler;
+
+    @Value("${video.task.sse-timeout-ms:3600000}")
+    private long sseTimeoutMs;
+
+    // userId -> 该用户打开的所有连接
+    private final Map<Long, List<SseEmitter>> emitters = new ConcurrentHashMap<>();
+
+    /**
+     * 从token解析用户ID（EventSource无法设置请求头，token通过查询参数传递），无效时返回null
+     */
+    public Long resolveUserId(String token) {
+        if (token == null || token.isBlank() || !jwtUtil.validateToken(token)) {
+            return null;
+        }
+        String username = jwtUtil.getUsernameFromToken(token);
+        return userRepository.findByUsername(username).map(user -> user.getId()).orElse(null);
+    }
+
+    /**
+     * 建立连接后先推送该用户所有进行中的任务，客户端重连后可据此补齐断线期间的变化
+     */
+    public SseEmitter subscribe(Long userId) {
+        SseEmitter emitter = new SseEmitter(sseTimeoutMs);
+        // 与heartbeat中的空列表清理在同一key上原子执行
+        List<SseEmitter> userEmitters = emitters.compute(userId, (key, list) -> {
+            List<SseEmitter> result = list != null ? list : new CopyOnWriteArrayList<>();
+            result.add(emitter);
+            return result;
+        });
+        emitter.onCompletion(() -> userEmitters.remove(emitter));
+        emitter.onTimeout(() -> userEmitters.remove(emitter));
+        emitter.onError(e -> userEmitters.remove(emitter));
+
+        for (VideoTask task : videoTaskRepository.findByUserIdOrderByCreatedAtDesc(userId)) {
+            if (ACTIVE_STATUSES.contains(task.getStatus())) {
+                send(emitter, new VideoTaskStatusEvent(task, videoSubmissionScheduler.getQueuePosition(task.getId())));
+            }
+        }
+        logger.debug("任务状态订阅: userId={}, 连接数={}", userId, userEmitters.size());
+        return emitter;
+    }
+
+    @EventListener
+    public void onTaskStatusChanged(VideoTaskStatusEvent event) {
+        List<SseEmitter> userEmitters = emitters.get(event.getUserId());
+        if (userEmitters == null) {
+            return;
+        }
+        for (SseEmitter emitter : userEmitters) {
+            if (!send(emitter, event)) {
+                userEmitters.remove(emitter);
+            }
+        }
+    }
+
+    /**
+     * 定时发送注释行保活，同时及时发现已断开的连接
+     */
+    @Scheduled(fixedDelayString = "${video.task.sse-heartbeat-ms:25000}")
+    public void heartbeat() {
+        for (Long userId : emitters.keySet()) {
+            List<SseEmitter> userEmitters = emitters.getOrDefault(userId, List.of());
+            for (SseEmitter emitter : userEmitters) {
+                try {
+                    emitter.send(SseEmitter.event().comment("ping"));
+                } catch (IOException | IllegalStateException e) {
+                    userEmitters.remove(emitter);
+                }
+            }
+            emitters.computeIfPresent(userId, (key, list) -> list.isEmpty() ? null : list);
+        }
+    }
+
+    private boolean send(SseEmitter emitter, VideoTaskStatusEvent event) {
+        try {
+            emitter.send(SseEmitter.event().name("task").data(event));
+            return true;
+        } catch (IOException e) {
+            // 客户端已断开
+            emitter.completeWithError(e);
+            return false;
+        } catch (IllegalStateException e) {
+            // emitter已超时或已关闭
+            return false;
+        }
+    }
+}
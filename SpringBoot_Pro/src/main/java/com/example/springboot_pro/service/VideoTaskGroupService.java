@@ -0,0 +1,155 @@
+package com.example.springboot_pro.service;
+
+import com.example.springboot_pro.dao.VideoTaskRepository;
+import com.example.springboot_pro.domain.Storyboard;
+import com.example.springboot_pro.domain.VideoTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 按故事批量生成分镜头视频：一次请求为所有有概念图的分镜头创建任务，以分组ID整体跟踪
+ *
+ * 任务统一进入提交队列，向山火提交的并发由 VideoSubmissionScheduler 控制
+ */
+@Service
+public class VideoTaskGroupService {
+
+    private static final Logger logger = LoggerFactory.getLogger(VideoTaskGroupService.class);
+
+    @Autowired
+    private VideoTaskRepository videoTaskRepository;
+
+    @Autowired
+    private StoryboardService storyboardService;
+
+    @Autowired
+    private VideoSubmissionScheduler videoSubmissionScheduler;
+
+    /**
+     * 为故事中尚未生成视频的分镜头创建任务；带幂等键时分组ID由键确定，重试返回同一分组
+     */
+    public GroupSubmission submitStory(List<Storyboard> storyboards, String aspectRatio, String priority, String scopedKey) {
+        String groupId = scopedKey == null ? UUID.randomUUID().toString()
+                : UUID.nameUUIDFromBytes(scopedKey.getBytes(StandardCharsets.UTF_8)).toString();
+        GroupSubmission result = new GroupSubmission(groupId);
+
+        for (Storyboard storyboard : storyboards) {
+            String imageUrl = isBlank(storyboard.getNetworkImageUrl()) ? storyboard.getConceptImage() : storyboard.getNetworkImageUrl();
+            if (isBlank(imageUrl)) {
+                result.skipped.add(skip(storyboard, "缺少概念图"));
+                continue;
+            }
+            if (!isBlank(storyboard.getGeneratedVideo())) {
+                result.skipped.add(skip(storyboard, "已有视频"));
+                continue;
+            }
+
+            VideoTask task = new VideoTask(storyboard.getId(), imageUrl.trim(), storyboard.getVideoPrompt(), aspectRatio);
+            task.setStatus("queued");
+            task.setPriority(priority);
+            task.setGroupId(groupId);
+            VideoSubmissionScheduler.SubmitResult submission = videoSubmissionScheduler.submitOnce(
+                    task, scopedKey == null ? null : scopedKey + ":" + storyboard.getId());
+            if (!submission.isDuplicate()) {
+                try {
+                    storyboardService.updateVideoInfo(storyboard.getId(), null, "generating");
+                } catch (Exception e) {
+                    logger.warn("更新分镜头视频信息失败: storyboardId={}, {}", storyboard.getId(), e.getMessage());
+                }
+            }
+
+            Map<String, Object> item = taskItem(submission.getTask(), submission.getQueuePosition());
+            item.put("scene", storyboard.getScene());
+            item.put("duplicate", submission.isDuplicate());
+            result.tasks.add(item);
+        }
+        logger.info("批量生成视频: groupId={}, 任务={}, 跳过={}", groupId, result.tasks.size(), result.skipped.size());
+        return result;
+    }
+
+    /**
+     * 分组整体进度，只统计该用户的任务；已有进行中任务而未加入本组的分镜头不计入。分组不属于该用户时返回null
+     */
+    public Map<String, Object> getGroupStatus(String groupId, Long userId) {
+        if (userId == null) {
+            return null;
+        }
+        List<VideoTask> tasks = videoTaskRepository.findByGroupIdAndUserIdOrderByCreatedAtAsc(groupId, userId);
+        if (tasks.isEmpty()) {
+            return null;
+        }
+        Map<String, Long> counts = new LinkedHashMap<>();
+        List<Map<String, Object>> items = new ArrayList<>();
+        for (VideoTask task : tasks) {
+            counts.merge(task.getStatus(), 1L, Long::sum);
+            items.add(taskItem(task, videoSubmissionScheduler.getQueuePosition(task.getId())));
+        }
+        long completed = counts.getOrDefault("completed", 0L);
+        long failed = counts.getOrDefault("failed", 0L);
+
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("groupId", groupId);
+        status.put("total", tasks.size());
+        status.put("completed", completed);
+        status.put("failed", failed);
+        status.put("finished", completed + failed == tasks.size());
+        status.put("statusCounts", counts);
+        status.put("tasks", items);
+        return status;
+    }
+
+    private static Map<String, Object> taskItem(VideoTask task, Integer queuePosition) {
+        Map<String, Object> item = new LinkedHashMap<>();
+        item.put("storyboardId", task.getStoryboardId());
+        item.put("videoTaskId", task.getId());
+        item.put("taskId", task.getTaskId());
+        item.put("status", task.getStatus());
+        item.put("queuePosition", queuePosition);
+        item.put("videoUrl", task.getVideoUrl());
+        item.put("errorMessage", task.getErrorMessage());
+        return item;
+    }
+
+    private static Map<String, Object> skip(Storyboard storyboard, String reason) {
+        Map<String, Object> item = new LinkedHashMap<>();
+        item.put("storyboardId", storyboard.getId());
+        item.put("scene", storyboard.getScene());
+        item.put("reason", reason);
+        return item;
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+
+    public static class GroupSubmission {
+        private final String groupId;
+        private final List<Map<String, Object>> tasks = new ArrayList<>();
+        private final List<Map<String, Object>> skipped = new ArrayList<>();
+
+        GroupSubmission(String groupId) {
+            this.groupId = groupId;
+        }
+
+        public String getGroupId() {
+            return groupId;
+        }
+
+        public List<Map<String, Object>> getTasks() {
+            return tasks;
+        }
+
+        public List<Map<String, Object>> getSkipped() {
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.example.springboot_pro.service;
+
+import com.example.springboot_pro.dao.VideoTaskRepository;
+import com.example.springboot_pro.domain.VideoTask;
+import com.example.springboot_pro.domain.VideoTaskStatusEvent;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * 图生视频任务后台轮询：统一批量查询进行中的任务并写回数据库，前端只读取数据库状态
+ *
+ * 查询间隔随任务运行时间递增，所有查询共享一个全局限速，避免浏览器标签数放大上游调用量。
+ * 调度线程只负责挑选到期任务，查询、限速等待与视频下载都在独立的有界线程池中执行：
+ * Spring默认的调度线程只有一个，SSE心跳、提交调度和存储清理也依赖它，不能被慢下载阻塞。
+ */
+@Service
+public class VideoTaskPollingService {
+
+    private static final Logger logger = LoggerFactory.getLogger(VideoTaskPollingService.class);
+
+    @Autowired
+    private VideoTaskRepository videoTaskRepository;
+
+    @Autowired
+    private VolcEngineVideoService volcEngineVideoService;
+
+    @Autowired
+    private StoryboardService storyboardService;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    // 每秒最多向山火API发起的查询次数
+    @Value("${video.task.poll.max-queries-per-second:2}")
+    private double maxQueriesPerSecond;
+
+    // 单轮最多查询的任务数，其余顺延到下一轮
+    @Value("${video.task.poll.max-queries-per-cycle:20}")
+    private int maxQueriesPerCycle;
+
+    // 任务超过该时间仍未完成则标记为失败
+    @Value("${video.task.timeout-minutes:30}")
+    private long timeoutMinutes;
+
+    // 连续查询失败次数上限，网络抖动不直接判定任务失败
+    @Value("${video.task.poll.max-consecutive-errors:3}")
+    private int maxConsecutiveErrors;
+
+    // 执行查询与下载的线程数，下载较慢时其余线程仍可继续查询
+    @Value("${video.task.poll.worker-threads:4}")
+    private int workerThreads;
+
+    // taskId -> 下次允许查询的时间（毫秒）
+    private final Map<String, Long> nextPollAt = new ConcurrentHashMap<>();
+    private final Map<String, Integer> consecutiveErrors = new ConcurrentHashMap<>();
+    // 已交给工作线程、尚未处理完的任务，避免同一任务被重复查询或下载
+    private final Set<String> inProgress = ConcurrentHashMap.newKeySet();
+
+    // 下一次允许发起查询的时间（毫秒），各工作线程依次预约
+    private final AtomicLong nextQuerySlot = new AtomicLong();
+
+    private ThreadPoolExecutor pollExecutor;
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        pollExecutor = new ThreadPoolExecutor(workerThreads, workerThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, maxQueriesPerCycle)),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "video-task-poll-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pollExecutor.shutdownNow();
+    }
+
+    @Scheduled(fixedDelayString = "${video.task.poll.interval-ms:5000}", initialDelayString = "${video.task.poll.initial-delay-ms:10000}")
+    public void pollPendingTasks() {
+        try {
+            failTimedOutTasks();
+
+            List<VideoTask> pendingTasks = videoTaskRepository.findPendingTasks();
+            Set<String> pendingIds = pendingTasks.stream().map(VideoTask::getTaskId).collect(Collectors.toSet());
+            nextPollAt.keySet().retainAll(pendingIds);
+            consecutiveErrors.keySet().retainAll(pendingIds);
+            if (pendingTasks.isEmpty()) {
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            // 上一轮尚未处理完的任务不再重复提交，线程池队列满时剩余任务顺延到下一轮
+            List<VideoTask> dueTasks = pendingTasks.stream()
+                    .filter(task -> !inProgress.contains(task.getTaskId()))
+                    .filter(task -> nextPollAt.getOrDefault(task.getTaskId(), 0L) <= now)
+                    .sorted(Comparator.comparingLong(task -> nextPollAt.getOrDefault(task.getTaskId(), 0L)))
+                    .limit(Math.max(0, pollExecutor.getQueue().remainingCapacity()))
+                    .toList();
+
+            for (VideoTask task : dueTasks) {
+                inProgress.add(task.getTaskId());
+                pollExecutor.execute(() -> {
+                    try {
+                        acquireQueryPermit();
+                        pollTask(task);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (Exception e) {
+                        logger.error("视频任务查询失败: taskId={}", task.getTaskId(), e);
+                    } finally {
+                        inProgress.remove(task.getTaskId());
+                    }
+                });
+            }
+            if (!dueTasks.isEmpty()) {
+                logger.debug("视频任务轮询: 进行中={}, 本轮查询={}", pendingTasks.size(), dueTasks.size());
+            }
+        } catch (Exception e) {
+            logger.error("视频任务轮询失败", e);
+        }
+    }
+
+    private void pollTask(VideoTask task) {
+        String taskId = task.getTaskId();
+        VolcEngineVideoService.VideoTaskResponse response = volcEngineVideoService.queryVideoTask(taskId);
+
+        if (!response.isSuccess()) {
+            int errors = consecutiveErrors.merge(taskId, 1, Integer::sum);
+            if (errors >= maxConsecutiveErrors) {
+                logger.warn("视频任务连续查询失败，标记为失败: taskId={}, message={}", taskId, response.getMessage());
+                markFailed(task, "查询任务状态失败: " + response.getMessage());
+            } else {
+                scheduleNextPoll(task);
+            }
+            return;
+        }
+        consecutiveErrors.remove(taskId);
+
+        String status = response.getStatus();
+        if ("done".equals(status)) {
+            String localVideoUrl;
+            try {
+                localVideoUrl = volcEngineVideoService.downloadVideoToLocal(response.getVideoUrl(), taskId);
+            } catch (IOException e) {
+                // 下次轮询时从已下载的位置续传，超过任务超时时间仍未成功时由超时检查标记失败
+                logger.warn("视频下载失败，稍后重试: taskId={} - {}", taskId, e.getMessage());
+                scheduleNextPoll(task);
+                return;
+            }
+            task.setStatus("completed");
+            task.setVideoUrl(localVideoUrl);
+            saveAndPublish(task);
+            updateStoryboard(task.getStoryboardId(), localVideoUrl, "completed");
+            nextPollAt.remove(taskId);
+            logger.info("视频任务已完成: taskId={}, videoUrl={}", taskId, localVideoUrl);
+        } else if ("not_found".equals(status) || "expired".equals(status)) {
+            markFailed(task, "视频生成任务" + ("expired".equals(status) ? "已过期" : "不存在"));
+        } else {
+            if (!"generating".equals(task.getStatus())) {
+                task.setStatus("generating");
+                saveAndPublish(task);
+            }
+            scheduleNextPoll(task);
+        }
+    }
+
+    /**
+     * 按任务提交后的运行时间决定下次查询间隔：刚提交的任务查得勤，长时间未完成的任务逐步放缓
+     */
+    private void scheduleNextPoll(VideoTask task) {
+        LocalDateTime startedAt = task.getSubmittedAt() != null ? task.getSubmittedAt() : task.getCreatedAt();
+        long ageSeconds = startedAt == null ? 0
+                : Duration.between(startedAt, LocalDateTime.now()).getSeconds();
+        long delaySeconds;
+        if (ageSeconds < 60) {
+            delaySeconds = 5;
+        } else if (ageSeconds < 300) {
+            delaySeconds = 10;
+        } else if (ageSeconds < 900) {
+            delaySeconds = 30;
+        } else {
+            delaySeconds = 60;
+        }
+        nextPollAt.put(task.getTaskId(), System.currentTimeMillis() + delaySeconds * 1000);
+    }
+
+    private void failTimedOutTasks() {
+        List<VideoTask> timedOut = videoTaskRepository.findTimeoutTasks(LocalDateTime.now().minusMinutes(timeoutMinutes));
+        for (VideoTask task : timedOut) {
+            if (inProgress.contains(task.getTaskId())) {
+                // 正在查询或下载，下一轮再判断
+                continue;
+            }
+            logger.warn("视频任务超时: taskId={}, submittedAt={}", task.getTaskId(), task.getSubmittedAt());
+            markFailed(task, "视频生成超时");
+        }
+    }
+
+    /**
+     * 条件更新为失败：超时检查读取任务后，工作线程可能已把任务保存为完成，此时不能用旧快照覆盖
+     */
+    private void markFailed(VideoTask task, String errorMessage) {
+        nextPollAt.remove(task.getTaskId());
+        consecutiveErrors.remove(task.getTaskId());
+        if (videoTaskRepository.failIfPending(task.getId(), errorMessage, LocalDateTime.now()) == 0) {
+            logger.info("视频任务状态已变更，跳过标记失败: taskId={}", task.getTaskId());
+            return;
+        }
+        videoTaskRepository.findById(task.getId())
+                .ifPresent(failed -> eventPublisher.publishEvent(new VideoTaskStatusEvent(failed)));
+        updateStoryboard(task.getStoryboardId(), null, "failed");
+    }
+
+    /**
+     * 保存状态变更并通知订阅了该用户任务的前端连接
+     */
+    private void saveAndPublish(VideoTask task) {
+        VideoTask saved = videoTaskRepository.save(task);
+        eventPublisher.publishEvent(new VideoTaskStatusEvent(saved));
+    }
+
+    private void updateStoryboard(Long storyboardId, String videoUrl, String status) {
+        try {
+            storyboardService.updateVideoInfo(storyboardId, videoUrl, status);
+        } catch (Exception e) {
+            // 分镜头可能已被删除
+            logger.warn("更新分镜头视频信息失败: storyboardId={}, {}", storyboardId, e.getMessage());
+        }
+    }
+
+    /**
+     * 全局限速：两次查询之间至少间隔 1/maxQueriesPerSecond 秒；各工作线程原子地预约时间片，只阻塞工作线程自身
+     */
+    private void acquireQueryPermit() throws InterruptedException {
+        long minIntervalMs = (long) (1000 / maxQueriesPerSecond);
+        long now = System.currentTimeMillis();
+        long slot = nextQuerySlot.accumulateAndGet(now, (next, current) -> Math.max(next, current) + minIntervalMs) - minIntervalMs;
+        long waitMs = slot - now;
+        if (waitMs > 0) {
+            Thread.sleep(waitMs);
+        }
+    }
+}
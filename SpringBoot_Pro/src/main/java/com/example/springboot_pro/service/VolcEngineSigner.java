@@ -0,0 +1,105 @@
+package com.example.springboot_pro.service;
+
+import org.apache.commons.codec.binary.Hex;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 山火引擎 HMAC-SHA256 请求签名
+ *
+ * 派生签名密钥需要四次链式HMAC，但结果只随日期/区域/服务变化，因此按天缓存；
+ * Mac 与 MessageDigest 按线程复用，避免每次签名都经过 getInstance 的算法提供者查找
+ */
+@Component
+public class VolcEngineSigner {
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    // 缓存最多保留的派生密钥数，跨天后旧日期的密钥被清理
+    private static final int MAX_CACHED_KEYS = 16;
+
+    private static final ThreadLocal<Mac> MAC = ThreadLocal.withInitial(() -> {
+        try {
+            return Mac.getInstance(HMAC_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    // date/region/service -> 派生密钥
+    private final Map<String, CachedKey> signingKeys = new ConcurrentHashMap<>();
+
+    private static class CachedKey {
+        final String secretKey;
+        final byte[] key;
+
+        CachedKey(String secretKey, byte[] key) {
+            this.secretKey = secretKey;
+            this.key = key;
+        }
+    }
+
+    /**
+     * 计算签名串的签名（十六进制），shortDate 格式为 yyyyMMdd
+     */
+    public String sign(String secretKey, String shortDate, String region, String service, String stringToSign) {
+        return Hex.encodeHexString(hmacSHA256(getSigningKey(secretKey, shortDate, region, service), stringToSign));
+    }
+
+    /**
+     * 获取派生签名密钥，同一天同一区域/服务只计算一次；返回值不可修改
+     */
+    byte[] getSigningKey(String secretKey, String shortDate, String region, String service) {
+        String cacheKey = shortDate + "/" + region + "/" + service;
+        CachedKey cached = signingKeys.get(cacheKey);
+        if (cached != null && cached.secretKey.equals(secretKey)) {
+            return cached.key;
+        }
+
+        byte[] key = deriveSigningKey(secretKey, shortDate, region, service);
+        if (signingKeys.size() >= MAX_CACHED_KEYS) {
+            signingKeys.keySet().removeIf(existing -> !existing.startsWith(shortDate));
+        }
+        signingKeys.put(cacheKey, new CachedKey(secretKey, key));
+        return key;
+    }
+
+    static byte[] deriveSigningKey(String secretKey, String shortDate, String region, String service) {
+        byte[] kDate = hmacSHA256(secretKey.getBytes(StandardCharsets.UTF_8), shortDate);
+        byte[] kRegion = hmacSHA256(kDate, region);
+        byte[] kService = hmacSHA256(kRegion, service);
+        return hmacSHA256(kService, "request");
+    }
+
+    public static byte[] hmacSHA256(byte[] key, String content) {
+        Mac mac = MAC.get();
+        try {
+            mac.init(new SecretKeySpec(key, HMAC_ALGORITHM));
+        } catch (InvalidKeyException e) {
+            throw new IllegalArgumentException("Unable to calculate a request signature: " + e.getMessage(), e);
+        }
+        return mac.doFinal(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static String hashSHA256(byte[] content) {
+        MessageDigest digest = SHA256.get();
+        digest.reset();
+        return Hex.encodeHexString(digest.digest(content));
+    }
+}
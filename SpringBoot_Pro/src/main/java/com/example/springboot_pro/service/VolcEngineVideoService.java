@@ -1,26 +1,22 @@
 package com.example.springboot_pro.service;
 
 import com.alibaba.fastjson.JSONObject;
-import org.apache.commons.codec.binary.Hex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 import java.io.*;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.net.URI;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
-import java.security.MessageDigest;
-import java.text.SimpleDateFormat;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
 
 @Service
@@ -28,9 +24,22 @@ public class VolcEngineVideoService {
     
     private static final Logger logger = LoggerFactory.getLogger(VolcEngineVideoService.class);
     
+    @Autowired
+    private MediaCacheService mediaCacheService;
+
+    @Autowired
+    private HttpClientService httpClientService;
+
+    @Autowired
+    private VolcEngineSigner volcEngineSigner;
+    
     private static final BitSet URLENCODER = new BitSet(256);
     private static final String CONST_ENCODE = "0123456789ABCDEF";
     public static final Charset UTF_8 = StandardCharsets.UTF_8;
+    // DateTimeFormatter 线程安全，可在并发请求间共享
+    private static final DateTimeFormatter X_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+    // 视觉服务的限流业务码：50429 QPS超限，50430 并发任务数超限
+    private static final Set<Integer> THROTTLED_CODES = Set.of(50429, 50430);
     
     // 配置信息
     @Value("${volcengine.access-key-id:}")
@@ -110,18 +119,27 @@ public class VolcEngineVideoService {
             JSONObject responseObj = JSONObject.parseObject(response);
             VideoTaskResponse result = new VideoTaskResponse();
             
-            if (responseObj.getInteger("code") == 10000) {
+            int code = responseObj.getInteger("code");
+            if (code == 10000) {
                 JSONObject data = responseObj.getJSONObject("data");
                 result.setSuccess(true);
                 result.setTaskId(data.getString("task_id"));
                 result.setMessage("任务提交成功");
             } else {
                 result.setSuccess(false);
+                result.setThrottled(THROTTLED_CODES.contains(code));
                 result.setMessage(responseObj.getString("message"));
             }
             
             return result;
             
+        } catch (ThrottledException e) {
+            logger.warn("山火API限流: {}", e.getMessage());
+            VideoTaskResponse result = new VideoTaskResponse();
+            result.setSuccess(false);
+            result.setThrottled(true);
+            result.setMessage(e.getMessage());
+            return result;
         } catch (Exception e) {
             logger.error("提交视频生成任务失败", e);
             VideoTaskResponse result = new VideoTaskResponse();
@@ -199,14 +217,25 @@ public class VolcEngineVideoService {
         }
         
         String path = "/";
-        String xContentSha256 = hashSHA256(body);
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'");
-        sdf.setTimeZone(TimeZone.getTimeZone("GMT"));
-        String xDate = sdf.format(date);
-        String shortXDate = xDate.substring(0, 8);
-        String contentType = "application/json";
-        String signHeader = "host;x-date;x-content-sha256;content-type";
+        String query = canonicalQueryString(queryList, action, version);
+        Map<String, String> headers = signRequestHeaders(method, path, query, body, date);
+        URI uri = URI.create(schema + "://" + endpoint + path + "?" + query);
+
+        HttpClientService.Response response = httpClientService.send(method, uri, headers, body);
+        if (response.getStatusCode() == 429) {
+            throw new ThrottledException("HTTP请求被限流，状态码: 429, 响应: " + response.getBody());
+        }
+        if (response.getStatusCode() != 200) {
+            throw new Exception("HTTP请求失败，状态码: " + response.getStatusCode() + ", 响应: " + response.getBody());
+        }
+
+        return response.getBody();
+    }
 
+    /**
+     * 按参数名排序并编码的查询字符串，同时用于签名与请求URL
+     */
+    static String canonicalQueryString(Map<String, String> queryList, String action, String version) {
         SortedMap<String, String> realQueryList = new TreeMap<>(queryList);
         realQueryList.put("Action", action);
         realQueryList.put("Version", version);
@@ -215,8 +244,20 @@ public class VolcEngineVideoService {
             querySB.append(signStringEncoder(key)).append("=").append(signStringEncoder(realQueryList.get(key))).append("&");
         }
         querySB.deleteCharAt(querySB.length() - 1);
+        return querySB.toString();
+    }
+
+    /**
+     * 计算签名并返回需要附加的请求头（Host 由URI决定，与签名中的 host 一致）
+     */
+    Map<String, String> signRequestHeaders(String method, String path, String query, byte[] body, Date date) throws Exception {
+        String xContentSha256 = hashSHA256(body);
+        String xDate = X_DATE_FORMAT.format(date.toInstant());
+        String shortXDate = xDate.substring(0, 8);
+        String contentType = "application/json";
+        String signHeader = "host;x-date;x-content-sha256;content-type";
 
-        String canonicalStringBuilder = method + "\n" + path + "\n" + querySB + "\n" +
+        String canonicalStringBuilder = method + "\n" + path + "\n" + query + "\n" +
                 "host:" + endpoint + "\n" +
                 "x-date:" + xDate + "\n" +
                 "x-content-sha256:" + xContentSha256 + "\n" +
@@ -225,56 +266,24 @@ public class VolcEngineVideoService {
                 signHeader + "\n" +
                 xContentSha256;
 
-        String hashcanonicalString = hashSHA256(canonicalStringBuilder.getBytes());
+        String hashcanonicalString = hashSHA256(canonicalStringBuilder.getBytes(UTF_8));
         String credentialScope = shortXDate + "/" + region + "/" + service + "/request";
         String signString = "HMAC-SHA256" + "\n" + xDate + "\n" + credentialScope + "\n" + hashcanonicalString;
 
-        byte[] signKey = genSigningSecretKeyV4(secretAccessKey, shortXDate, region, service);
-        String signature = Hex.encodeHexString(hmacSHA256(signKey, signString));
+        String signature = volcEngineSigner.sign(secretAccessKey, shortXDate, region, service, signString);
 
-        URL url = new URL(schema + "://" + endpoint + path + "?" + querySB);
-
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod(method);
-        conn.setRequestProperty("Host", endpoint);
-        conn.setRequestProperty("X-Date", xDate);
-        conn.setRequestProperty("X-Content-Sha256", xContentSha256);
-        conn.setRequestProperty("Content-Type", contentType);
-        conn.setRequestProperty("Authorization", "HMAC-SHA256" +
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("X-Date", xDate);
+        headers.put("X-Content-Sha256", xContentSha256);
+        headers.put("Content-Type", contentType);
+        headers.put("Authorization", "HMAC-SHA256" +
                 " Credential=" + accessKeyId + "/" + credentialScope +
                 ", SignedHeaders=" + signHeader +
                 ", Signature=" + signature);
-        
-        if (!Objects.equals(conn.getRequestMethod(), "GET")) {
-            conn.setDoOutput(true);
-            OutputStream os = conn.getOutputStream();
-            os.write(body);
-            os.flush();
-            os.close();
-        }
-        conn.connect();
-
-        int responseCode = conn.getResponseCode();
-
-        InputStream is;
-        if (responseCode == 200) {
-            is = conn.getInputStream();
-        } else {
-            is = conn.getErrorStream();
-        }
-        
-        byte[] responseBytes = is.readAllBytes();
-        String responseBody = new String(responseBytes);
-        is.close();
-
-        if (responseCode != 200) {
-            throw new Exception("HTTP请求失败，状态码: " + responseCode + ", 响应: " + responseBody);
-        }
-
-        return responseBody;
+        return headers;
     }
     
-    private String signStringEncoder(String source) {
+    static String signStringEncoder(String source) {
         if (source == null) {
             return null;
         }
@@ -298,81 +307,44 @@ public class VolcEngineVideoService {
     }
 
     public static String hashSHA256(byte[] content) throws Exception {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            return Hex.encodeHexString(md.digest(content));
-        } catch (Exception e) {
-            throw new Exception("Unable to compute hash while signing request: " + e.getMessage(), e);
-        }
+        return VolcEngineSigner.hashSHA256(content);
     }
 
     public static byte[] hmacSHA256(byte[] key, String content) throws Exception {
-        try {
-            Mac mac = Mac.getInstance("HmacSHA256");
-            mac.init(new SecretKeySpec(key, "HmacSHA256"));
-            return mac.doFinal(content.getBytes());
-        } catch (Exception e) {
-            throw new Exception("Unable to calculate a request signature: " + e.getMessage(), e);
-        }
+        return VolcEngineSigner.hmacSHA256(key, content);
     }
-
-    private byte[] genSigningSecretKeyV4(String secretKey, String date, String region, String service) throws Exception {
-        byte[] kDate = hmacSHA256((secretKey).getBytes(), date);
-        byte[] kRegion = hmacSHA256(kDate, region);
-        byte[] kService = hmacSHA256(kRegion, service);
-        return hmacSHA256(kService, "request");
+    
+    /**
+     * 下载视频到本地并返回本地URL，下载或校验失败时抛出异常（未完成的部分保留，下次调用时续传）
+     */
+    public String downloadVideoToLocal(String videoUrl, String taskId) throws IOException {
+        // 确保目录存在
+        Path videoDir = Paths.get(LOCAL_VIDEO_DIR);
+        Files.createDirectories(videoDir);
+        
+        // 生成本地文件名
+        String fileName = "video_" + taskId + "_" + System.currentTimeMillis() + ".mp4";
+        Path localFilePath = videoDir.resolve(fileName);
+        
+        logger.info("开始下载视频: {} -> {}", videoUrl, localFilePath);
+        
+        // 通过本地媒体缓存获取，同一视频不会重复下载
+        mediaCacheService.materialize(videoUrl, localFilePath);
+        logger.info("视频下载完成: {} bytes -> {}", Files.size(localFilePath), localFilePath);
+        
+        // 替换的是硬链接本身，缓存中的文件保持不变
+        VideoConcatService.moveMoovToFront(localFilePath);
+        
+        // 返回本地访问URL
+        return VIDEO_URL_PREFIX + fileName;
     }
     
     /**
-     * 下载视频到本地并返回本地URL
+     * 上游返回429或限流业务码，请求本身没有问题，稍后重试即可
      */
-    public String downloadVideoToLocal(String videoUrl, String taskId) {
-        try {
-            // 确保目录存在
-            Path videoDir = Paths.get(LOCAL_VIDEO_DIR);
-            Files.createDirectories(videoDir);
-            
-            // 生成本地文件名
-            String fileName = "video_" + taskId + "_" + System.currentTimeMillis() + ".mp4";
-            Path localFilePath = videoDir.resolve(fileName);
-            
-            logger.info("开始下载视频: {} -> {}", videoUrl, localFilePath);
-            
-            // 下载视频文件
-            URL url = new URL(videoUrl);
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("GET");
-            connection.setConnectTimeout(30000); // 30秒连接超时
-            connection.setReadTimeout(300000);   // 5分钟读取超时
-            
-            int responseCode = connection.getResponseCode();
-            if (responseCode == 200) {
-                try (InputStream inputStream = connection.getInputStream();
-                     FileOutputStream outputStream = new FileOutputStream(localFilePath.toFile())) {
-                    
-                    byte[] buffer = new byte[8192];
-                    int bytesRead;
-                    long totalBytes = 0;
-                    
-                    while ((bytesRead = inputStream.read(buffer)) != -1) {
-                        outputStream.write(buffer, 0, bytesRead);
-                        totalBytes += bytesRead;
-                    }
-                    
-                    logger.info("视频下载完成: {} bytes -> {}", totalBytes, localFilePath);
-                }
-                
-                // 返回本地访问URL
-                return VIDEO_URL_PREFIX + fileName;
-                
-            } else {
-                throw new Exception("下载视频失败，HTTP状态码: " + responseCode);
-            }
-            
-        } catch (Exception e) {
-            logger.error("下载视频到本地失败: " + videoUrl, e);
-            // 下载失败时返回原始URL，作为降级方案
-            return videoUrl;
+    private static class ThrottledException extends Exception {
+        ThrottledException(String message) {
+            super(message);
         }
     }
     
@@ -381,6 +353,7 @@ public class VolcEngineVideoService {
      */
     public static class VideoTaskResponse {
         private boolean success;
+        private boolean throttled; // 被限流（QPS或并发任务数超限），未真正提交
         private String taskId;
         private String status;
         private String videoUrl;
@@ -395,6 +368,14 @@ public class VolcEngineVideoService {
             this.success = success;
         }
         
+        public boolean isThrottled() {
+            return throttled;
+        }
+        
+        public void setThrottled(boolean throttled) {
+            this.throttled = throttled;
+        }
+        
         public String getTaskId() {
             return taskId;
         }
@@ -0,0 +1,392 @@
+package com.example.springboot_pro.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * ISO-BMFF (MP4/MOV) 元数据读取，代替 ffprobe 子进程
+ *
+ * 顶层只读取各box头部定位 moov，再把 moov 读入内存解析 mvhd/trak/tkhd/mdhd/hdlr/stsd/stts，
+ * 不读取 mdat 中的媒体数据
+ */
+public final class Mp4BoxParser {
+
+    // moov 超过该大小视为文件异常
+    private static final long MAX_MOOV_SIZE = 64L * 1024 * 1024;
+
+    // moov 不超过该大小时读入堆内存，超过时才映射文件
+    private static final long HEAP_MOOV_SIZE = 4L * 1024 * 1024;
+
+    private Mp4BoxParser() {}
+
+    /**
+     * 解析结果，时长单位为微秒
+     */
+    public static class Mp4Info {
+        private String majorBrand;
+        private long durationMicros;
+        private int width;
+        private int height;
+        private String videoCodec;
+        private String audioCodec;
+        private double frameRate;
+        private boolean faststart;
+
+        public String getMajorBrand() {
+            return majorBrand;
+        }
+
+        public long getDurationMicros() {
+            return durationMicros;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public String getVideoCodec() {
+            return videoCodec;
+        }
+
+        public String getAudioCodec() {
+            return audioCodec;
+        }
+
+        /**
+         * 视频平均帧率，由 stts 计算；无法计算时为0
+         */
+        public double getFrameRate() {
+            return frameRate;
+        }
+
+        public boolean hasVideo() {
+            return videoCodec != null;
+        }
+
+        public boolean hasAudio() {
+            return audioCodec != null;
+        }
+
+        /**
+         * moov 位于 mdat 之前，播放器无需读到文件末尾即可开始播放
+         */
+        public boolean isFaststart() {
+            return faststart;
+        }
+
+        @Override
+        public String toString() {
+            return "Mp4Info{" +
+                    "brand='" + majorBrand + '\'' +
+                    ", durationMicros=" + durationMicros +
+                    ", " + width + "x" + height +
+                    ", video='" + videoCodec + '\'' +
+                    ", audio='" + audioCodec + '\'' +
+                    ", fps=" + frameRate +
+                    ", faststart=" + faststart +
+                    '}';
+        }
+    }
+
+    /**
+     * 解析文件；不是ISO-BMFF文件或缺少 moov 时返回null
+     */
+    public static Mp4Info parse(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(16).order(ByteOrder.BIG_ENDIAN);
+
+            Mp4Info info = new Mp4Info();
+            long moovOffset = -1;
+            long moovSize = 0;
+            long mdatOffset = -1;
+            boolean firstBox = true;
+
+            long position = 0;
+            while (position + 8 <= fileSize) {
+                header.clear();
+                channel.read(header, position);
+                header.flip();
+                if (header.remaining() < 8) {
+                    break;
+                }
+                long size = header.getInt() & 0xFFFFFFFFL;
+                String type = fourcc(header);
+                int headerSize = 8;
+                if (size == 1) {
+                    if (header.remaining() < 8) {
+                        return null;
+                    }
+                    size = header.getLong();
+                    headerSize = 16;
+                } else if (size == 0) {
+                    size = fileSize - position;
+                }
+                if (size < headerSize || !isPrintable(type)) {
+                    return null;
+                }
+                if (firstBox && !isKnownTopLevel(type)) {
+                    return null;
+                }
+                firstBox = false;
+
+                switch (type) {
+                    case "ftyp" -> {
+                        ByteBuffer brand = ByteBuffer.allocate(4);
+                        channel.read(brand, position + headerSize);
+                        brand.flip();
+                        if (brand.remaining() == 4) {
+                            info.majorBrand = fourcc(brand).trim();
+                        }
+                    }
+                    case "moov" -> {
+                        moovOffset = position + headerSize;
+                        moovSize = size - headerSize;
+                    }
+                    case "mdat" -> {
+                        if (mdatOffset < 0) {
+                            mdatOffset = position;
+                        }
+                    }
+                    default -> {
+                    }
+                }
+                position += size;
+            }
+
+            if (moovOffset < 0 || moovSize > MAX_MOOV_SIZE || moovOffset + moovSize > fileSize) {
+                return null;
+            }
+            info.faststart = mdatOffset < 0 || moovOffset < mdatOffset;
+
+            parseMoov(readMoov(channel, moovOffset, moovSize), info);
+            return info;
+        }
+    }
+
+    /**
+     * 读取 moov 内容。MappedByteBuffer 没有显式释放的接口，映射要等到GC回收才解除，
+     * Windows 上映射存在期间文件无法删除或移动，会影响缓存淘汰和下载完成后的原子移动。
+     * 因此常规大小的 moov 直接读入堆内存，parse 返回后不再持有文件的任何引用；
+     * 只有超过 HEAP_MOOV_SIZE 的 moov（数小时的长视频）才映射，本服务生成的分镜视频 moov 只有几十KB
+     */
+    private static ByteBuffer readMoov(FileChannel channel, long offset, long size) throws IOException {
+        if (size > HEAP_MOOV_SIZE) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+        }
+        ByteBuffer moov = ByteBuffer.allocate((int) size);
+        while (moov.hasRemaining()) {
+            if (channel.read(moov, offset + moov.position()) < 0) {
+                throw new IOException("读取 moov 时文件意外结束");
+            }
+        }
+        return moov.flip();
+    }
+
+    private static void parseMoov(ByteBuffer moov, Mp4Info info) {
+        forEachChild(moov, (type, body) -> {
+            if (type.equals("mvhd")) {
+                long[] timing = readTiming(body, 12, 20);
+                if (timing[0] > 0) {
+                    info.durationMicros = timing[1] * 1_000_000L / timing[0];
+                }
+            } else if (type.equals("trak")) {
+                parseTrak(body, info);
+            }
+        });
+    }
+
+    private static void parseTrak(ByteBuffer trak, Mp4Info info) {
+        Track track = new Track();
+        forEachChild(trak, (type, body) -> {
+            if (type.equals("tkhd")) {
+                // width/height 为 16.16 定点数，位于 tkhd 末尾
+                if (body.remaining() >= 8) {
+                    track.width = body.getInt(body.limit() - 8) >>> 16;
+                    track.height = body.getInt(body.limit() - 4) >>> 16;
+                }
+            } else if (type.equals("mdia")) {
+                parseMdia(body, track);
+            }
+        });
+
+        if ("vide".equals(track.handler) && info.videoCodec == null) {
+            info.videoCodec = track.codec;
+            info.width = track.width > 0 ? track.width : track.sampleWidth;
+            info.height = track.height > 0 ? track.height : track.sampleHeight;
+            if (track.sampleCount > 0 && track.sampleDurationTotal > 0 && track.timescale > 0) {
+                info.frameRate = (double) track.sampleCount * track.timescale / track.sampleDurationTotal;
+            }
+        } else if ("soun".equals(track.handler) && info.audioCodec == null) {
+            info.audioCodec = track.codec;
+        }
+        if (info.durationMicros == 0 && track.timescale > 0) {
+            info.durationMicros = track.duration * 1_000_000L / track.timescale;
+        }
+    }
+
+    private static void parseMdia(ByteBuffer mdia, Track track) {
+        forEachChild(mdia, (type, body) -> {
+            switch (type) {
+                case "mdhd" -> {
+                    long[] timing = readTiming(body, 12, 20);
+                    track.timescale = timing[0];
+                    track.duration = timing[1];
+                }
+                case "hdlr" -> {
+                    // version/flags(4) + pre_defined(4) + handler_type(4)
+                    if (body.remaining() >= 12) {
+                        body.position(body.position() + 8);
+                        track.handler = fourcc(body);
+                    }
+                }
+                case "minf" -> forEachChild(body, (minfType, minfBody) -> {
+                    if (minfType.equals("stbl")) {
+                        forEachChild(minfBody, (stblType, stblBody) -> {
+                            if (stblType.equals("stsd")) {
+                                parseStsd(stblBody, track);
+                            } else if (stblType.equals("stts")) {
+                                parseStts(stblBody, track);
+                            }
+                        });
+                    }
+                });
+                default -> {
+                }
+            }
+        });
+    }
+
+    private static void parseStsd(ByteBuffer stsd, Track track) {
+        // version/flags(4) + entry_count(4)，随后第一个 sample entry: size(4) + format(4)
+        if (stsd.remaining() < 16) {
+            return;
+        }
+        int start = stsd.position();
+        stsd.position(start + 12);
+        track.codec = fourcc(stsd);
+        // VisualSampleEntry: reserved(6) + data_reference_index(2) + pre_defined/reserved(16) + width(2) + height(2)
+        int dimensions = start + 16 + 24;
+        if (stsd.limit() >= dimensions + 4) {
+            track.sampleWidth = stsd.getShort(dimensions) & 0xFFFF;
+            track.sampleHeight = stsd.getShort(dimensions + 2) & 0xFFFF;
+        }
+    }
+
+    private static void parseStts(ByteBuffer stts, Track track) {
+        // version/flags(4) + entry_count(4)，每个条目为 sample_count(4) + sample_delta(4)
+        if (stts.remaining() < 8) {
+            return;
+        }
+        int start = stts.position();
+        long entryCount = stts.getInt(start + 4) & 0xFFFFFFFFL;
+        long available = (stts.limit() - start - 8) / 8;
+        for (int i = 0; i < Math.min(entryCount, available); i++) {
+            int offset = start + 8 + i * 8;
+            long count = stts.getInt(offset) & 0xFFFFFFFFL;
+            long delta = stts.getInt(offset + 4) & 0xFFFFFFFFL;
+            track.sampleCount += count;
+            track.sampleDurationTotal += count * delta;
+        }
+    }
+
+    /**
+     * 读取 mvhd/mdhd 的 timescale 与 duration，version 1 使用64位时间字段
+     */
+    private static long[] readTiming(ByteBuffer body, int v0Offset, int v1Offset) {
+        int start = body.position();
+        if (body.remaining() < 4) {
+            return new long[]{0, 0};
+        }
+        int version = body.get(start) & 0xFF;
+        if (version == 1) {
+            if (body.remaining() < v1Offset + 12) {
+                return new long[]{0, 0};
+            }
+            return new long[]{body.getInt(start + v1Offset) & 0xFFFFFFFFL, body.getLong(start + v1Offset + 4)};
+        }
+        if (body.remaining() < v0Offset + 8) {
+            return new long[]{0, 0};
+        }
+        return new long[]{body.getInt(start + v0Offset) & 0xFFFFFFFFL, body.getInt(start + v0Offset + 4) & 0xFFFFFFFFL};
+    }
+
+    @FunctionalInterface
+    private interface BoxVisitor {
+        void visit(String type, ByteBuffer body);
+    }
+
+    /**
+     * 遍历容器box的子box，每个子box的内容以独立的切片传给visitor
+     */
+    private static void forEachChild(ByteBuffer container, BoxVisitor visitor) {
+        ByteBuffer buffer = container.slice().order(ByteOrder.BIG_ENDIAN);
+        while (buffer.remaining() >= 8) {
+            int start = buffer.position();
+            long size = buffer.getInt() & 0xFFFFFFFFL;
+            String type = fourcc(buffer);
+            int headerSize = 8;
+            if (size == 1) {
+                if (buffer.remaining() < 8) {
+                    return;
+                }
+                size = buffer.getLong();
+                headerSize = 16;
+            } else if (size == 0) {
+                size = buffer.limit() - start;
+            }
+            if (size < headerSize || start + size > buffer.limit()) {
+                return;
+            }
+            ByteBuffer body = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+            body.position(start + headerSize).limit((int) (start + size));
+            visitor.visit(type, body.slice().order(ByteOrder.BIG_ENDIAN));
+            buffer.position((int) (start + size));
+        }
+    }
+
+    private static String fourcc(ByteBuffer buffer) {
+        byte[] bytes = new byte[4];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private static boolean isPrintable(String type) {
+        for (int i = 0; i < type.length(); i++) {
+            char c = type.charAt(i);
+            if (c < 0x20 || c > 0x7E) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isKnownTopLevel(String type) {
+        return switch (type) {
+            case "ftyp", "moov", "mdat", "free", "skip", "wide", "pnot", "uuid", "styp" -> true;
+            default -> false;
+        };
+    }
+
+    private static class Track {
+        String handler;
+        String codec;
+        long timescale;
+        long duration;
+        int width;
+        int height;
+        int sampleWidth;
+        int sampleHeight;
+        long sampleCount;
+        long sampleDurationTotal;
+    }
+}
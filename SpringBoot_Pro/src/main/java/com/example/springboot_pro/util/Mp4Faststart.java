@@ -0,0 +1,265 @@
+package com.example.springboot_pro.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * MP4 faststart 改写：把位于 mdat 之后的 moov 移到文件前部，并修正 stco/co64 中的块偏移，
+ * 媒体数据通过 FileChannel.transferTo 原样拷贝，不重新编码
+ */
+public final class Mp4Faststart {
+
+    // 与 Mp4BoxParser 一致，超过该大小的 moov 视为异常
+    private static final long MAX_MOOV_SIZE = 64L * 1024 * 1024;
+
+    private Mp4Faststart() {}
+
+    /**
+     * 顶层box的位置
+     */
+    private static class TopLevelBox {
+        final String type;
+        final long offset;
+        final long size;
+        long newOffset;
+
+        TopLevelBox(String type, long offset, long size) {
+            this.type = type;
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+
+    /**
+     * 需要时原地改写文件（写临时文件后原子替换），返回是否发生了改写；
+     * 已是 faststart、不是ISO-BMFF文件或结构无法处理时原样保留并返回false
+     */
+    public static boolean rewrite(Path file) throws IOException {
+        Path partPath = file.resolveSibling("." + file.getFileName() + ".faststart.part");
+        try {
+            if (!writeFaststartCopy(file, partPath)) {
+                return false;
+            }
+            // 源文件关闭后再替换（Windows下无法替换仍被打开的文件）
+            Files.move(partPath, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } finally {
+            Files.deleteIfExists(partPath);
+        }
+    }
+
+    private static boolean writeFaststartCopy(Path file, Path partPath) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            List<TopLevelBox> boxes = readTopLevelBoxes(channel);
+            if (boxes == null) {
+                return false;
+            }
+            TopLevelBox moovBox = null;
+            int firstMdat = -1;
+            for (int i = 0; i < boxes.size(); i++) {
+                TopLevelBox box = boxes.get(i);
+                if (box.type.equals("moov")) {
+                    if (moovBox != null) {
+                        return false;
+                    }
+                    moovBox = box;
+                } else if (box.type.equals("mdat") && firstMdat < 0) {
+                    firstMdat = i;
+                }
+            }
+            if (moovBox == null || firstMdat < 0 || moovBox.offset < boxes.get(firstMdat).offset
+                    || moovBox.size > MAX_MOOV_SIZE) {
+                return false;
+            }
+
+            // 新布局：第一个 mdat 之前的box、moov、其余box（保持原顺序）
+            List<TopLevelBox> layout = new ArrayList<>(boxes.subList(0, firstMdat));
+            layout.add(moovBox);
+            for (TopLevelBox box : boxes.subList(firstMdat, boxes.size())) {
+                if (box != moovBox) {
+                    layout.add(box);
+                }
+            }
+            long position = 0;
+            for (TopLevelBox box : layout) {
+                box.newOffset = position;
+                position += box.size;
+            }
+
+            ByteBuffer moov = ByteBuffer.allocate((int) moovBox.size).order(ByteOrder.BIG_ENDIAN);
+            readFully(channel, moov, moovBox.offset);
+            moov.flip();
+            if (!patchChunkOffsets(moov, boxes)) {
+                return false;
+            }
+
+            try (FileChannel out = FileChannel.open(partPath, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                for (TopLevelBox box : layout) {
+                    if (box == moovBox) {
+                        moov.rewind();
+                        while (moov.hasRemaining()) {
+                            out.write(moov);
+                        }
+                    } else {
+                        transferFully(channel, box.offset, box.size, out);
+                    }
+                }
+                out.force(false);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 读取所有顶层box；结构不完整或不是ISO-BMFF文件时返回null
+     */
+    private static List<TopLevelBox> readTopLevelBoxes(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(16).order(ByteOrder.BIG_ENDIAN);
+        List<TopLevelBox> boxes = new ArrayList<>();
+        long position = 0;
+        while (position < fileSize) {
+            if (position + 8 > fileSize) {
+                return null;
+            }
+            header.clear();
+            channel.read(header, position);
+            header.flip();
+            long size = header.getInt() & 0xFFFFFFFFL;
+            byte[] typeBytes = new byte[4];
+            header.get(typeBytes);
+            String type = new String(typeBytes, StandardCharsets.ISO_8859_1);
+            if (size == 1) {
+                if (header.remaining() < 8) {
+                    return null;
+                }
+                size = header.getLong();
+            } else if (size == 0) {
+                size = fileSize - position;
+            }
+            if (size < 8 || position + size > fileSize) {
+                return null;
+            }
+            if (boxes.isEmpty() && !type.equals("ftyp")) {
+                return null;
+            }
+            boxes.add(new TopLevelBox(type, position, size));
+            position += size;
+        }
+        return boxes;
+    }
+
+    /**
+     * 遍历 moov 中的 trak/mdia/minf/stbl，修正每个块偏移；新偏移超出 stco 的32位范围时返回false
+     */
+    private static boolean patchChunkOffsets(ByteBuffer moov, List<TopLevelBox> boxes) {
+        int headerSize = moov.getInt(0) == 1 ? 16 : 8;
+        return patchChildren(moov, headerSize, moov.limit(), boxes);
+    }
+
+    private static boolean patchChildren(ByteBuffer buffer, int start, int end, List<TopLevelBox> boxes) {
+        int position = start;
+        while (position + 8 <= end) {
+            long size = buffer.getInt(position) & 0xFFFFFFFFL;
+            String type = fourcc(buffer, position + 4);
+            int headerSize = 8;
+            if (size == 1) {
+                size = buffer.getLong(position + 8);
+                headerSize = 16;
+            } else if (size == 0) {
+                size = end - position;
+            }
+            if (size < headerSize || position + size > end) {
+                return false;
+            }
+            int bodyStart = position + headerSize;
+            int bodyEnd = (int) (position + size);
+            switch (type) {
+                case "trak", "mdia", "minf", "stbl" -> {
+                    if (!patchChildren(buffer, bodyStart, bodyEnd, boxes)) {
+                        return false;
+                    }
+                }
+                case "stco" -> {
+                    int count = buffer.getInt(bodyStart + 4);
+                    if (count < 0 || bodyStart + 8 + (long) count * 4 > bodyEnd) {
+                        return false;
+                    }
+                    for (int i = 0; i < count; i++) {
+                        int index = bodyStart + 8 + i * 4;
+                        long newOffset = relocate(buffer.getInt(index) & 0xFFFFFFFFL, boxes);
+                        if (newOffset > 0xFFFFFFFFL) {
+                            return false;
+                        }
+                        buffer.putInt(index, (int) newOffset);
+                    }
+                }
+                case "co64" -> {
+                    int count = buffer.getInt(bodyStart + 4);
+                    if (count < 0 || bodyStart + 8 + (long) count * 8 > bodyEnd) {
+                        return false;
+                    }
+                    for (int i = 0; i < count; i++) {
+                        int index = bodyStart + 8 + i * 8;
+                        buffer.putLong(index, relocate(buffer.getLong(index), boxes));
+                    }
+                }
+                default -> {
+                }
+            }
+            position = bodyEnd;
+        }
+        return true;
+    }
+
+    /**
+     * 按偏移所在的顶层box计算其在新布局中的位置
+     */
+    private static long relocate(long offset, List<TopLevelBox> boxes) {
+        for (TopLevelBox box : boxes) {
+            if (offset >= box.offset && offset < box.offset + box.size) {
+                return offset - box.offset + box.newOffset;
+            }
+        }
+        return offset;
+    }
+
+    private static String fourcc(ByteBuffer buffer, int index) {
+        byte[] bytes = new byte[4];
+        for (int i = 0; i < 4; i++) {
+            bytes[i] = buffer.get(index + i);
+        }
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer target, long position) throws IOException {
+        while (target.hasRemaining()) {
+            int read = channel.read(target, position);
+            if (read < 0) {
+                throw new IOException("文件提前结束");
+            }
+            position += read;
+        }
+    }
+
+    private static void transferFully(FileChannel source, long position, long count, FileChannel target) throws IOException {
+        while (count > 0) {
+            long transferred = source.transferTo(position, count, target);
+            if (transferred <= 0) {
+                throw new IOException("文件拷贝中断");
+            }
+            position += transferred;
+            count -= transferred;
+        }
+    }
+}
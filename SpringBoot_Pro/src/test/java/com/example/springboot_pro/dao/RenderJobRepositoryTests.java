@@ -0,0 +1,40 @@
+package com.example.springboot_pro.dao;
+
+import com.example.springboot_pro.domain.RenderJob;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest
+class RenderJobRepositoryTests {
+
+    @Autowired
+    private RenderJobRepository renderJobRepository;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Test
+    void checkpointsDoNotReviveCancelledJobs() {
+        RenderJob renderJob = new RenderJob();
+        renderJob.setJobId("job-1");
+        renderJob.setVideoUrls("http://example.com/a.mp4");
+        renderJobRepository.saveAndFlush(renderJob);
+
+        assertEquals(1, renderJobRepository.markCancelled("job-1", LocalDateTime.now()));
+        assertEquals(0, renderJobRepository.checkpointSegmented("job-1", "/tmp/a.ts", "", LocalDateTime.now()));
+        assertEquals(0, renderJobRepository.checkpointRendered("job-1", "out.mp4", LocalDateTime.now()));
+        assertEquals(0, renderJobRepository.markCompleted("job-1", "out.mp4", LocalDateTime.now()));
+
+        entityManager.clear();
+        RenderJob stored = renderJobRepository.findById("job-1").orElseThrow();
+        assertEquals(RenderJob.STATUS_CANCELLED, stored.getStatus());
+        assertEquals(RenderJob.STAGE_CREATED, stored.getStage());
+        assertTrue(renderJobRepository.findByStatusOrderByCreatedAtAsc(RenderJob.STATUS_RUNNING).isEmpty());
+    }
+}
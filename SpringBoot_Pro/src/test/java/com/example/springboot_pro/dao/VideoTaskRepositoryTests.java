@@ -0,0 +1,59 @@
+package com.example.springboot_pro.dao;
+
+import com.example.springboot_pro.domain.VideoTask;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest
+class VideoTaskRepositoryTests {
+
+    @Autowired
+    private VideoTaskRepository videoTaskRepository;
+
+    @Test
+    void allowsOnlyOneActiveTaskPerStoryboard() {
+        VideoTask first = videoTaskRepository.saveAndFlush(task(7L, "queued"));
+        assertEquals(7L, first.getActiveStoryboardKey());
+
+        assertThrows(DataIntegrityViolationException.class,
+                () -> videoTaskRepository.saveAndFlush(task(7L, "queued")));
+    }
+
+    @Test
+    void releasesTheStoryboardOnceTheTaskFinishes() {
+        VideoTask first = videoTaskRepository.saveAndFlush(task(8L, "queued"));
+        first.setStatus("failed");
+        videoTaskRepository.saveAndFlush(first);
+        assertNull(first.getActiveStoryboardKey());
+
+        VideoTask retry = videoTaskRepository.saveAndFlush(task(8L, "queued"));
+        assertEquals(retry.getId(), videoTaskRepository.findByActiveStoryboardKey(8L).orElseThrow().getId());
+    }
+
+    @Test
+    void failIfPendingLeavesCompletedTasksAlone() {
+        VideoTask completed = task(9L, "generating");
+        completed.setTaskId("cgt-completed");
+        completed = videoTaskRepository.saveAndFlush(completed);
+        completed.setStatus("completed");
+        videoTaskRepository.saveAndFlush(completed);
+        assertEquals(0, videoTaskRepository.failIfPending(completed.getId(), "视频生成超时", LocalDateTime.now()));
+
+        VideoTask generating = videoTaskRepository.saveAndFlush(task(10L, "generating"));
+        assertEquals(1, videoTaskRepository.failIfPending(generating.getId(), "视频生成超时", LocalDateTime.now()));
+        assertTrue(videoTaskRepository.findByActiveStoryboardKey(10L).isEmpty());
+    }
+
+    private static VideoTask task(Long storyboardId, String status) {
+        VideoTask task = new VideoTask(storyboardId, "http://example.com/a.png", null, "16:9");
+        task.setStatus(status);
+        task.setUserId(1L);
+        return task;
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.springboot_pro.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HlsPackagingServiceTests {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void measuresPeakAndAverageFromSegments() throws Exception {
+        Files.write(tempDir.resolve("seg_00000.ts"), new byte[100_000]);
+        Files.write(tempDir.resolve("seg_00001.ts"), new byte[300_000]);
+        Files.write(tempDir.resolve("seg_00002.ts"), new byte[50_000]);
+        Files.writeString(tempDir.resolve("index.m3u8"), "#EXTM3U\n#EXT-X-VERSION:3\n#EXT-X-TARGETDURATION:4\n"
+                + "#EXTINF:4.000000,\nseg_00000.ts\n"
+                + "#EXTINF:4.000000,\nseg_00001.ts\n"
+                + "#EXTINF:2.000000,\nseg_00002.ts\n"
+                + "#EXT-X-ENDLIST\n", StandardCharsets.UTF_8);
+
+        HlsPackagingService.Bandwidth bandwidth = HlsPackagingService.measureBandwidth(tempDir, new HlsPackagingService.Bandwidth(1, 1));
+
+        assertEquals(600_000, bandwidth.peak);
+        assertEquals(360_000, bandwidth.average);
+    }
+
+    @Test
+    void fallsBackWhenPlaylistIsMissing() {
+        HlsPackagingService.Bandwidth fallback = new HlsPackagingService.Bandwidth(2_000_000, 1_000_000);
+        assertSame(fallback, HlsPackagingService.measureBandwidth(tempDir, fallback));
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.springboot_pro.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MediaDownloadServiceTests {
+
+    private final byte[] payload = new byte[10_000];
+    private final List<String> ranges = new CopyOnWriteArrayList<>();
+    // 为true时第一个非探测请求只发送一半数据后断开
+    private final AtomicBoolean dropNext = new AtomicBoolean();
+
+    private final MediaDownloadService service = new MediaDownloadService();
+    private HttpServer server;
+    private String url;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        new Random(42).nextBytes(payload);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/clip.mp4", this::serve);
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/clip.mp4";
+
+        ReflectionTestUtils.setField(service, "connectTimeoutMs", 2000);
+        ReflectionTestUtils.setField(service, "readTimeoutMs", 2000);
+        ReflectionTestUtils.setField(service, "maxAttempts", 3);
+        ReflectionTestUtils.setField(service, "parallelThresholdBytes", 4096L);
+        ReflectionTestUtils.setField(service, "parallelRanges", 4);
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void downloadsLargeFilesInParallelRanges() throws Exception {
+        Path part = tempDir.resolve("a.part");
+        MediaDownloadService.DownloadResult result = service.download(url, part);
+
+        assertEquals(payload.length, result.getSize());
+        assertEquals(DigestUtils.sha256Hex(payload), result.getSha256());
+        assertArrayEquals(payload, Files.readAllBytes(part));
+        assertEquals(5, ranges.size()); // 探测 + 4 个区间
+        assertFalse(Files.exists(tempDir.resolve("a.part.meta")));
+    }
+
+    @Test
+    void resumesFromTheLastWrittenOffsetAfterADisconnect() throws Exception {
+        ReflectionTestUtils.setField(service, "parallelThresholdBytes", Long.MAX_VALUE);
+        dropNext.set(true);
+
+        Path part = tempDir.resolve("b.part");
+        MediaDownloadService.DownloadResult result = service.download(url, part);
+
+        assertArrayEquals(payload, Files.readAllBytes(part));
+        assertEquals(DigestUtils.sha256Hex(payload), result.getSha256());
+        assertEquals(List.of("bytes=0-0", "bytes=0-9999", "bytes=5000-9999"), ranges);
+        assertEquals(payload.length, result.getBytesTransferred());
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        ranges.add(range);
+        String[] bounds = range.substring("bytes=".length()).split("-");
+        int start = Integer.parseInt(bounds[0]);
+        int end = Integer.parseInt(bounds[1]);
+        int length = end - start + 1;
+
+        exchange.getResponseHeaders().add("ETag", "\"v1\"");
+        exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + payload.length);
+        exchange.sendResponseHeaders(206, length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            if (length > 1 && dropNext.compareAndSet(true, false)) {
+                out.write(payload, start, length / 2);
+                out.flush();
+                // 未写完声明的长度就关闭连接，模拟断线
+                throw new IOException("simulated disconnect");
+            }
+            out.write(payload, start, length);
+        }
+    }
+}
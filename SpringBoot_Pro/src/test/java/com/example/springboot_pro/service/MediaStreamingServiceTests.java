@@ -0,0 +1,81 @@
+package com.example.springboot_pro.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MediaStreamingServiceTests {
+
+    private final MediaStreamingService service = new MediaStreamingService();
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void parsesSingleSuffixAndOpenEndedRanges() {
+        List<MediaStreamingService.ByteRange> ranges = MediaStreamingService.parseRanges("bytes=0-99, -50, 900-", 1000);
+        assertEquals(3, ranges.size());
+        assertEquals(0, ranges.get(0).start);
+        assertEquals(99, ranges.get(0).end);
+        assertEquals(950, ranges.get(1).start);
+        assertEquals(999, ranges.get(1).end);
+        assertEquals(900, ranges.get(2).start);
+        assertEquals(999, ranges.get(2).end);
+    }
+
+    @Test
+    void clampsEndAndRejectsUnsatisfiableOrMalformedRanges() {
+        assertEquals(499, MediaStreamingService.parseRanges("bytes=100-5000", 500).get(0).end);
+        assertTrue(MediaStreamingService.parseRanges("bytes=500-600", 500).isEmpty());
+        assertNull(MediaStreamingService.parseRanges("bytes=10-5", 500));
+        assertNull(MediaStreamingService.parseRanges("items=0-1", 500));
+        assertNull(MediaStreamingService.parseRanges("bytes=abc", 500));
+    }
+
+    @Test
+    void servesPartialContentAndHonoursConditionalRequests() throws Exception {
+        Path file = tempDir.resolve("clip.mp4");
+        Files.writeString(file, "0123456789", StandardCharsets.US_ASCII);
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/clip.mp4");
+        request.addHeader("Range", "bytes=2-5");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        service.serve(file, "video/mp4", "clip.mp4", null, request, response);
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 2-5/10", response.getHeader("Content-Range"));
+        assertEquals("2345", response.getContentAsString());
+
+        MockHttpServletRequest conditional = new MockHttpServletRequest("GET", "/clip.mp4");
+        conditional.addHeader("If-None-Match", response.getHeader("ETag"));
+        MockHttpServletResponse notModified = new MockHttpServletResponse();
+        service.serve(file, "video/mp4", "clip.mp4", null, conditional, notModified);
+        assertEquals(304, notModified.getStatus());
+        assertEquals(0, notModified.getContentAsByteArray().length);
+    }
+
+    @Test
+    void servesMultipleRangesAsMultipart() throws Exception {
+        Path file = tempDir.resolve("clip.mp4");
+        Files.writeString(file, "0123456789", StandardCharsets.US_ASCII);
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/clip.mp4");
+        request.addHeader("Range", "bytes=0-1,8-9");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        service.serve(file, "video/mp4", "clip.mp4", null, request, response);
+
+        assertEquals(206, response.getStatus());
+        assertTrue(response.getContentType().startsWith("multipart/byteranges; boundary="));
+        String body = response.getContentAsString();
+        assertTrue(body.contains("Content-Range: bytes 0-1/10\r\n\r\n01"));
+        assertTrue(body.contains("Content-Range: bytes 8-9/10\r\n\r\n89"));
+        assertEquals(response.getContentLengthLong(), response.getContentAsByteArray().length);
+    }
+}
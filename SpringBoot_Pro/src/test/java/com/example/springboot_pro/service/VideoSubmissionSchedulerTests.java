@@ -0,0 +1,62 @@
+package com.example.springboot_pro.service;
+
+import com.example.springboot_pro.dao.VideoTaskRepository;
+import com.example.springboot_pro.domain.VideoTask;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+
+class VideoSubmissionSchedulerTests {
+
+    private final VideoSubmissionScheduler scheduler = new VideoSubmissionScheduler();
+
+    @BeforeEach
+    void setUp() {
+        VideoTaskRepository repository = Mockito.mock(VideoTaskRepository.class);
+        // 并发配额一直占满，任务只排队不提交
+        Mockito.when(repository.countByStatusIn(any())).thenReturn(100L);
+        ReflectionTestUtils.setField(scheduler, "videoTaskRepository", repository);
+        ReflectionTestUtils.setField(scheduler, "eventPublisher", Mockito.mock(ApplicationEventPublisher.class));
+        ReflectionTestUtils.setField(scheduler, "maxConcurrent", 2);
+        ReflectionTestUtils.setField(scheduler, "userWeightsConfig", "");
+        scheduler.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    void interleavesUsersAndServesPreviewsBeforeFinals() {
+        assertEquals(1, scheduler.enqueue(task(1, 10, "final")));
+        assertEquals(2, scheduler.enqueue(task(2, 10, "final")));
+        assertEquals(3, scheduler.enqueue(task(3, 10, "final")));
+        // 第二个用户的首个任务排在第一个用户积压的任务之前
+        assertEquals(2, scheduler.enqueue(task(4, 20, "final")));
+        // preview 整体先于 final
+        assertEquals(1, scheduler.enqueue(task(5, 30, "preview")));
+
+        assertEquals(2, scheduler.getQueuePosition(1L));
+        assertEquals(3, scheduler.getQueuePosition(4L));
+        assertEquals(4, scheduler.getQueuePosition(2L));
+        assertEquals(5, scheduler.getQueuePosition(3L));
+        assertNull(scheduler.getQueuePosition(99L));
+    }
+
+    private static VideoTask task(long id, long userId, String priority) {
+        VideoTask task = new VideoTask(1L, "http://example.com/a.png", null, "16:9");
+        task.setId(id);
+        task.setUserId(userId);
+        task.setStatus("queued");
+        task.setPriority(priority);
+        return task;
+    }
+}
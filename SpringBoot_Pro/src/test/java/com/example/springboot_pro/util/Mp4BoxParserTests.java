@@ -0,0 +1,114 @@
+package com.example.springboot_pro.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Mp4BoxParserTests {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void readsTracksDurationAndLayout() throws Exception {
+        byte[] moov = box("moov",
+                mvhd(1000, 5040),
+                trak("vide", "avc1", 1280, 720),
+                trak("soun", "mp4a", 0, 0));
+        Path file = write("a.mp4", box("ftyp", ascii("isom"), new byte[4]), box("mdat", new byte[32]), moov);
+
+        Mp4BoxParser.Mp4Info info = Mp4BoxParser.parse(file);
+        assertNotNull(info);
+        assertEquals("isom", info.getMajorBrand());
+        assertEquals(5_040_000, info.getDurationMicros());
+        assertEquals(1280, info.getWidth());
+        assertEquals(720, info.getHeight());
+        assertEquals("avc1", info.getVideoCodec());
+        assertEquals(25.0, info.getFrameRate(), 0.001);
+        assertTrue(info.hasAudio());
+        assertFalse(info.isFaststart());
+    }
+
+    @Test
+    void detectsFaststartAndMissingAudio() throws Exception {
+        byte[] moov = box("moov", mvhd(600, 1200), trak("vide", "hvc1", 1920, 1080));
+        Path file = write("b.mp4", box("ftyp", ascii("mp42"), new byte[4]), moov, box("mdat", new byte[16]));
+
+        Mp4BoxParser.Mp4Info info = Mp4BoxParser.parse(file);
+        assertNotNull(info);
+        assertTrue(info.isFaststart());
+        assertFalse(info.hasAudio());
+        assertEquals(2_000_000, info.getDurationMicros());
+    }
+
+    @Test
+    void rejectsNonIsoFiles() throws Exception {
+        assertNull(Mp4BoxParser.parse(write("c.bin", "RIFF....AVI LIST".getBytes(StandardCharsets.US_ASCII))));
+        assertNull(Mp4BoxParser.parse(write("d.mp4", box("ftyp", ascii("isom"), new byte[4]), box("mdat", new byte[8]))));
+    }
+
+    private Path write(String name, byte[]... parts) throws Exception {
+        Path file = tempDir.resolve(name);
+        Files.write(file, concat(parts));
+        return file;
+    }
+
+    private static byte[] mvhd(int timescale, int duration) {
+        ByteBuffer body = ByteBuffer.allocate(100);
+        body.putInt(0).putInt(0).putInt(0).putInt(timescale).putInt(duration);
+        return box("mvhd", body.array());
+    }
+
+    private static byte[] trak(String handler, String codec, int width, int height) {
+        ByteBuffer tkhd = ByteBuffer.allocate(84);
+        tkhd.putInt(76, width << 16).putInt(80, height << 16);
+
+        ByteBuffer mdhd = ByteBuffer.allocate(24);
+        mdhd.putInt(12, 1000).putInt(16, 1000);
+
+        ByteBuffer hdlr = ByteBuffer.allocate(24);
+        hdlr.position(8);
+        hdlr.put(ascii(handler));
+
+        ByteBuffer entry = ByteBuffer.allocate(86);
+        entry.putInt(86).put(ascii(codec));
+        entry.putShort(32, (short) width).putShort(34, (short) height);
+        ByteBuffer stsd = ByteBuffer.allocate(8 + 86);
+        stsd.putInt(0).putInt(1).put(entry.array());
+
+        // 每个样本40个时间单位（timescale=1000），即25fps
+        ByteBuffer stts = ByteBuffer.allocate(16);
+        stts.putInt(0).putInt(1).putInt(126).putInt(40);
+
+        byte[] stbl = box("stbl", box("stsd", stsd.array()), box("stts", stts.array()));
+        return box("trak",
+                box("tkhd", tkhd.array()),
+                box("mdia", box("mdhd", mdhd.array()), box("hdlr", hdlr.array()), box("minf", stbl)));
+    }
+
+    private static byte[] box(String type, byte[]... children) {
+        byte[] body = concat(children);
+        ByteBuffer buffer = ByteBuffer.allocate(8 + body.length);
+        buffer.putInt(8 + body.length).put(ascii(type)).put(body);
+        return buffer.array();
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.writeBytes(part);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.springboot_pro.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Mp4FaststartTests {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void movesMoovBeforeMdatAndRelocatesChunkOffsets() throws Exception {
+        byte[] ftyp = box("ftyp", ascii("isom"), new byte[4]);
+        byte[] payload = ascii("CHUNK-ONE-CHUNK-TWO");
+        byte[] mdat = box("mdat", payload);
+        int firstChunk = ftyp.length + 8;
+        int secondChunk = firstChunk + 10;
+        byte[] moov = box("moov", box("trak", box("mdia", box("minf", box("stbl", stco(firstChunk, secondChunk))))));
+
+        Path file = tempDir.resolve("a.mp4");
+        Files.write(file, concat(ftyp, mdat, moov));
+
+        assertTrue(Mp4Faststart.rewrite(file));
+        byte[] rewritten = Files.readAllBytes(file);
+        assertEquals(ftyp.length + mdat.length + moov.length, rewritten.length);
+        assertEquals("moov", new String(rewritten, ftyp.length + 4, 4, StandardCharsets.US_ASCII));
+
+        // stco 位于 moov/trak/mdia/minf/stbl 内，条目从 stco 头部后8字节开始
+        ByteBuffer buffer = ByteBuffer.wrap(rewritten);
+        int entries = ftyp.length + 5 * 8 + 8 + 8;
+        int newFirst = buffer.getInt(entries);
+        int newSecond = buffer.getInt(entries + 4);
+        assertEquals(firstChunk + moov.length, newFirst);
+        assertEquals("CHUNK-ONE", new String(rewritten, newFirst, 9, StandardCharsets.US_ASCII));
+        assertEquals("CHUNK-TWO", new String(rewritten, newSecond, 9, StandardCharsets.US_ASCII));
+
+        // 已是 faststart 时不再改写
+        assertFalse(Mp4Faststart.rewrite(file));
+    }
+
+    @Test
+    void leavesNonIsoFilesUntouched() throws Exception {
+        Path file = tempDir.resolve("b.avi");
+        byte[] content = "RIFF....AVI LIST".getBytes(StandardCharsets.US_ASCII);
+        Files.write(file, content);
+
+        assertFalse(Mp4Faststart.rewrite(file));
+        assertArrayEquals(content, Files.readAllBytes(file));
+    }
+
+    private static byte[] stco(int... offsets) {
+        ByteBuffer body = ByteBuffer.allocate(8 + offsets.length * 4);
+        body.putInt(0).putInt(offsets.length);
+        for (int offset : offsets) {
+            body.putInt(offset);
+        }
+        return box("stco", body.array());
+    }
+
+    private static byte[] box(String type, byte[]... children) {
+        byte[] body = concat(children);
+        ByteBuffer buffer = ByteBuffer.allocate(8 + body.length);
+        buffer.putInt(8 + body.length).put(ascii(type)).put(body);
+        return buffer.array();
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.writeBytes(part);
+        }
+        return out.toByteArray();
+    }
+}